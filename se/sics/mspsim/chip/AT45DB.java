@@ -126,7 +126,7 @@ public class AT45DB extends ExternalFlash implements USARTListener {
   private byte[] buffer1 = new byte[PAGE_SIZE];
   private byte[] buffer2 = new byte[PAGE_SIZE];
 
-  private TimeEvent writeEvent = new TimeEvent(0) {
+  private TimeEvent writeEvent = new TimeEvent(0, this) {
     public void execute(long t) {
       setReady(true);
     }};
@@ -49,6 +49,7 @@ import javax.sound.sampled.SourceDataLine;
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.NotState;
 import se.sics.mspsim.core.TimeEvent;
 
 /**
@@ -72,8 +73,8 @@ public class Beeper extends Chip {
     private int beepCtrl;
     private boolean isSoundEnabled = false;
 
-    private SourceDataLine dataLine;
-    private FloatControl volume;
+    @NotState private SourceDataLine dataLine;
+    @NotState private FloatControl volume;
 
     private TimeEvent soundEvent;
 
@@ -97,7 +98,7 @@ public class Beeper extends Chip {
             buffer = buf;
         }
         if (soundEvent == null) {
-            soundEvent = new TimeEvent(0, "Beeper") {
+            soundEvent = new TimeEvent(0, "Beeper", this) {
                 public void execute(long t) {
                     if (isSoundEnabled) {
                         ioTick(t);
@@ -171,12 +171,33 @@ public class CC1101 extends Radio802154 implements USARTListener {
 			return state | (0b10 << 5); /* TODO 2 pin state not implemented */
 		}
 	};
-	private TimeEvent sendEvent = new TimeEvent(0, "CC1101 Send") {
+	private TimeEvent sendEvent = new TimeEvent(0, "CC1101 Send", this) {
 		public void execute(long t) {
 			txNext();
 		}
 	};
 
+	private TimeEvent goToRXEvent = new TimeEvent(0, "CC1101 go to RX", this) {
+		public void execute(long t) {
+			if(getState() == CC1101RadioState.CC1101_STATE_RX) {
+				/* Radio already in RX, ignore */
+				return;
+			}
+			rxfifo.clear();
+			rxExpectedLen = -1;
+			rxGotSynchByte = false;
+			setGDO0(false);
+			setState(CC1101RadioState.CC1101_STATE_RX);
+		}
+	};
+
+	private TimeEvent rssiValidEvent = new TimeEvent(0, "CC1101 set RSSI valid", this) {
+		public void execute(long t) {
+			log("RSSI is now valid");
+			currentRssiValid = true;
+		}
+	};
+
 	public final static double FREQUENCY_CHANNEL_0 = 902; /* MHz */
 	public final static double FREQUENCY_CHANNEL_WIDTH = 0.125; /* MHz */
 
@@ -260,31 +281,12 @@ public class CC1101 extends Radio802154 implements USARTListener {
                     if(getState() == CC1101RadioState.CC1101_STATE_IDLE ||
                        getState() == CC1101RadioState.CC1101_STATE_SLEEP) {
                         log("CC1101 from idle to rx, should wait");
-                        TimeEvent goToRX = new TimeEvent(0, "CC1101 go to RX") {
-                                public void execute(long t) {
-                                    if(getState() == CC1101RadioState.CC1101_STATE_RX) {
-                                        /* Radio already in RX, ignore */
-                                        return;
-                                    }
-                                    rxfifo.clear();
-                                    rxExpectedLen = -1;
-                                    rxGotSynchByte = false;
-                                    setGDO0(false);
-                                    setState(CC1101RadioState.CC1101_STATE_RX);
-                                }
-                            };
                         int RXTIME = 190;
-                        cpu.scheduleTimeEventMillis(goToRX, RXTIME / 1000.0);
-
-                        TimeEvent rssiValid = new TimeEvent(0, "CC1101 set RSSI valid") {
-                                public void execute(long t) {
-                                    log("RSSI is now valid");
-                                    currentRssiValid = true;
-                                }
-                            };
+                        cpu.scheduleTimeEventMillis(goToRXEvent, RXTIME / 1000.0);
+
                         log("RSSI is not valid");
                         int RSSITIME = 380;
-                        cpu.scheduleTimeEventMillis(rssiValid, RSSITIME / 1000.0);
+                        cpu.scheduleTimeEventMillis(rssiValidEvent, RSSITIME / 1000.0);
                         //                        setState(CC1101RadioState.CC1101_STATE_RX);
                     } else {
                         setStateRX();
@@ -297,6 +299,7 @@ public class CC1101 extends Radio802154 implements USARTListener {
             if (DEBUG) {
                 System.out.println("TX started: len = " + len + ", txFooterCountdown = " + txFooterCountdown);
             }
+            txByteDelay = cpu.millisToTime(getInterByteDelayMs());
             txNext();
             setState(CC1101RadioState.CC1101_STATE_TX);
 			break;
@@ -516,6 +519,8 @@ public class CC1101 extends Radio802154 implements USARTListener {
     private boolean txSentSynchByte = false;
     private int txSendSynchByteCnt = 0;
     private boolean txSentFirstCRC = false;
+    /* Time per byte sent, computed from the bit rate when the TX starts */
+    private long txByteDelay;
     void txNext() {
         if (txFooterCountdown < 0) {
             System.out.println("Warning: Aborting transmit since txFooterCountdown=" + txFooterCountdown);
@@ -530,7 +535,7 @@ public class CC1101 extends Radio802154 implements USARTListener {
                 if (rfListener != null) {
                     rfListener.receivedByte((byte) (0xaa));
                 }
-                cpu.scheduleTimeEventMillis(sendEvent, getInterByteDelayMs());
+                cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
                 return;
             }
             /* Send NUM_SYNCH-1 synch bytes */
@@ -539,7 +544,7 @@ public class CC1101 extends Radio802154 implements USARTListener {
                 if (rfListener != null) {
                     rfListener.receivedByte((byte) (SYNCH_BYTE_LAST + 1));
                 }
-                cpu.scheduleTimeEventMillis(sendEvent, getInterByteDelayMs());
+                cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
                 return;
             }
             /* Send last synch byte */
@@ -548,7 +553,7 @@ public class CC1101 extends Radio802154 implements USARTListener {
                 if (rfListener != null) {
                     rfListener.receivedByte((byte) (SYNCH_BYTE_LAST));
                 }
-                cpu.scheduleTimeEventMillis(sendEvent, getInterByteDelayMs());
+                cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 
                 txSentSynchByte = true;
                 return;
@@ -580,7 +585,7 @@ public class CC1101 extends Radio802154 implements USARTListener {
                 rfListener.receivedByte((byte) (0xee));
             }
             txSentFirstCRC = true;
-            cpu.scheduleTimeEventMillis(sendEvent, getInterByteDelayMs());
+            cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
             return;
         }
 
@@ -591,7 +596,7 @@ public class CC1101 extends Radio802154 implements USARTListener {
                 rfListener.receivedByte((byte) 0);
             }
 
-            cpu.scheduleTimeEventMillis(sendEvent, getInterByteDelayMs());
+            cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
             setState(CC1101RadioState.CC1101_STATE_TXFIFO_UNDERFLOW);
             return;
         }
@@ -600,7 +605,7 @@ public class CC1101 extends Radio802154 implements USARTListener {
             rfListener.receivedByte((byte) (txfifo.get(0).intValue()));
         }
         txfifo.remove(0);
-        cpu.scheduleTimeEventMillis(sendEvent, getInterByteDelayMs());
+        cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 
         /*printTXFIFO();*/
     }
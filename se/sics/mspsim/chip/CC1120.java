@@ -292,12 +292,26 @@ public class CC1120 extends Radio802154 implements USARTListener {
 		}
 	};
 
-	private TimeEvent sendEvent = new TimeEvent(0, "CC1120 Send") {
+	private TimeEvent sendEvent = new TimeEvent(0, "CC1120 Send", this) {
 		public void execute(long t) {
 			txNext();
 		}
 	};
 
+	private TimeEvent goToRXEvent = new TimeEvent(0, "CC1120 go to RX", this) {
+		public void execute(long t) {
+			if(getState() == CC1120RadioState.CC1120_STATE_RX) {
+				/* Radio already in RX, ignore */
+				return;
+			}
+			rxfifo.clear();
+			rxExpectedLen = -1;
+			rxGotSynchByte = false;
+			setGDO0(false);
+			setState(CC1120RadioState.CC1120_STATE_RX);
+		}
+	};
+
 	protected boolean DEBUG = false;
 
 	public final static double BITRATE_BYTE_DURATION = 0.16; /* ms. Duration per byte transmitted, corresponds to 50kbit/s */
@@ -334,6 +348,8 @@ public class CC1120 extends Radio802154 implements USARTListener {
 
 	public CC1120(MSP430Core cpu) {
 		super("CC1120", "Radio", cpu);
+		txByteDelay = cpu.millisToTime(BITRATE_BYTE_DURATION);
+		txPreambleDelayTime = cpu.millisToTime(0.75);
 		reset();
 	}
 
@@ -361,20 +377,6 @@ public class CC1120 extends Radio802154 implements USARTListener {
 
 			if(getState() == CC1120RadioState.CC1120_STATE_IDLE ||
 			getState() == CC1120RadioState.CC1120_STATE_SLEEP) {
-				TimeEvent goToRX = new TimeEvent(0, "CC1120 go to RX") {
-					public void execute(long t) {
-						if(getState() == CC1120RadioState.CC1120_STATE_RX) {
-							/* Radio already in RX, ignore */
-							return;
-						}
-						rxfifo.clear();
-						rxExpectedLen = -1;
-						rxGotSynchByte = false;
-						setGDO0(false);
-						setState(CC1120RadioState.CC1120_STATE_RX);
-					}
-				};
-
 				/* The time to activate RX depends on SETTLING_CFG's FS_AUTOCAL settings.
 				 * Calibrated from trxeb1120 platform. */
 				double stateDelay;
@@ -388,7 +390,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 					/* not implemented: assuming calibration */
 					stateDelay = 0.50;
 				}
-				cpu.scheduleTimeEventMillis(goToRX, stateDelay);
+				cpu.scheduleTimeEventMillis(goToRXEvent, stateDelay);
 
 			} else {
 				setStateRX();
@@ -711,6 +713,9 @@ public class CC1120 extends Radio802154 implements USARTListener {
 	private boolean txSentSynchByte = false;
 	private int txSendSynchByteCnt = 0;
 	private boolean txSentFirstCRC = false;
+	/* Delays converted to time once instead of for every byte */
+	private final long txByteDelay;
+	private final long txPreambleDelayTime;
 	void txNext() {
 		if (txFooterCountdown < 0) {
 			System.out.println("Warning: Aborting transmit since txFooterCountdown=" + txFooterCountdown);
@@ -719,7 +724,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 		
 		/* Delay */
 		if (!txPreambleDelay) {
-			cpu.scheduleTimeEventMillis(sendEvent, 0.75);
+			cpu.scheduleTimeEventIn(sendEvent, txPreambleDelayTime);
 			txPreambleDelay = true;
 			return;
 		}
@@ -732,7 +737,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 				if (rfListener != null) {
 					rfListener.receivedByte((byte) (0xaa));
 				}
-				cpu.scheduleTimeEventMillis(sendEvent, BITRATE_BYTE_DURATION);
+				cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 				return;
 			}
 			/* Send NUM_SYNCH-1 synch bytes */
@@ -741,7 +746,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 				if (rfListener != null) {
 					rfListener.receivedByte((byte) (SYNCH_BYTE_LAST + 1));
 				}
-				cpu.scheduleTimeEventMillis(sendEvent, BITRATE_BYTE_DURATION);
+				cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 				return;
 			}
 			/* Send last synch byte */
@@ -750,7 +755,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 				if (rfListener != null) {
 					rfListener.receivedByte((byte) (SYNCH_BYTE_LAST));
 				}
-				cpu.scheduleTimeEventMillis(sendEvent, BITRATE_BYTE_DURATION);
+				cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 
 				txSentSynchByte = true;
 				return;
@@ -783,7 +788,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 				rfListener.receivedByte((byte) (0xee));
 			}
 			txSentFirstCRC = true;
-			cpu.scheduleTimeEventMillis(sendEvent, BITRATE_BYTE_DURATION);
+			cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 			return;
 		}
 
@@ -793,7 +798,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 			if (rfListener != null) {
 				rfListener.receivedByte((byte) 0);
 			}
-			cpu.scheduleTimeEventMillis(sendEvent, BITRATE_BYTE_DURATION);
+			cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 			return;
 		}
 
@@ -801,7 +806,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 			rfListener.receivedByte((byte) (txfifo.get(0).intValue()));
 		}
 		txfifo.remove(0);
-		cpu.scheduleTimeEventMillis(sendEvent, BITRATE_BYTE_DURATION);
+		cpu.scheduleTimeEventIn(sendEvent, txByteDelay);
 
 		/* printTXFIFO(); */
 	}
@@ -236,6 +236,12 @@ public class CC2420 extends Radio802154 implements USARTListener {
   // 802.15.4 symbol period in ms
   public static final double SYMBOL_PERIOD = 0.016; // 16 us
 
+  // Delays in virtual time - precomputed to avoid conversions when scheduling
+  private final double symbolTime;
+  private final long twoSymbolsTime;
+  private final long oscillatorStartTime;
+  private final long vregStartTime;
+
   // when reading registers this flag is set!
   public static final int FLAG_READ = 0x40;
 
@@ -316,7 +322,7 @@ public class CC2420 extends Radio802154 implements USARTListener {
   private int txCursor;
   private boolean on;
 
-  private TimeEvent oscillatorEvent = new TimeEvent(0, "CC2420 OSC") {
+  private TimeEvent oscillatorEvent = new TimeEvent(0, "CC2420 OSC", this) {
     public void execute(long t) {
       status |= STATUS_XOSC16M_STABLE;
       if (logLevel > INFO) log("Oscillator Stable Event.");
@@ -329,7 +335,7 @@ public class CC2420 extends Radio802154 implements USARTListener {
     }
   };
 
-  private TimeEvent vregEvent = new TimeEvent(0, "CC2420 VREG") {
+  private TimeEvent vregEvent = new TimeEvent(0, "CC2420 VREG", this) {
     public void execute(long t) {
       if(logLevel > INFO) log("VREG Started at: " + t + " cyc: " +
           cpu.cycles + " " + getTime());
@@ -339,25 +345,25 @@ public class CC2420 extends Radio802154 implements USARTListener {
     }
   };
 
-  private TimeEvent sendEvent = new TimeEvent(0, "CC2420 Send") {
+  private TimeEvent sendEvent = new TimeEvent(0, "CC2420 Send", this) {
     public void execute(long t) {
       txNext();
     }
   };
 
-  private TimeEvent ackEvent = new TimeEvent(0, "CC2420 Ack") {
+  private TimeEvent ackEvent = new TimeEvent(0, "CC2420 Ack", this) {
       public void execute(long t) {
         ackNext();
       }
     };
   
-  private TimeEvent shrEvent = new TimeEvent(0, "CC2420 SHR") {
+  private TimeEvent shrEvent = new TimeEvent(0, "CC2420 SHR", this) {
     public void execute(long t) {
       shrNext();
     }
   };
 
-  private TimeEvent symbolEvent = new TimeEvent(0, "CC2420 Symbol") {
+  private TimeEvent symbolEvent = new TimeEvent(0, "CC2420 Symbol", this) {
     public void execute(long t) {
       switch(stateMachine) {
       case RX_CALIBRATE:
@@ -414,6 +420,10 @@ public class CC2420 extends Radio802154 implements USARTListener {
 
   public CC2420(MSP430Core cpu) {
       super("CC2420", "Radio", cpu);
+      symbolTime = cpu.millisToTime(SYMBOL_PERIOD * 1000) / 1000.0;
+      twoSymbolsTime = cpu.millisToTime(SYMBOL_PERIOD * 2);
+      oscillatorStartTime = cpu.millisToTime(1);
+      vregStartTime = cpu.millisToTime(0.05);
       rxFIFO = new ArrayFIFO("RXFIFO", memory, RAM_RXFIFO, 128);
       
     registers[REG_SNOP] = 0;
@@ -1073,7 +1083,7 @@ public class CC2420 extends Radio802154 implements USARTListener {
         rfListener.receivedByte(SHR[shrPos]);
       }
       shrPos++;
-      cpu.scheduleTimeEventMillis(shrEvent, SYMBOL_PERIOD * 2);
+      cpu.scheduleTimeEventIn(shrEvent, twoSymbolsTime);
     }
   }
 
@@ -1097,7 +1107,7 @@ public class CC2420 extends Radio802154 implements USARTListener {
       }
       txfifoPos++;
       // Two symbol periods to send a byte...
-      cpu.scheduleTimeEventMillis(sendEvent, SYMBOL_PERIOD * 2);
+      cpu.scheduleTimeEventIn(sendEvent, twoSymbolsTime);
     } else {
       if (logLevel > INFO) log("Completed Transmission.");
       status &= ~STATUS_TX_ACTIVE;
@@ -1139,7 +1149,7 @@ public class CC2420 extends Radio802154 implements USARTListener {
           }
           ackPos++;
           // Two symbol periods to send a byte...
-          cpu.scheduleTimeEventMillis(ackEvent, SYMBOL_PERIOD * 2);
+          cpu.scheduleTimeEventIn(ackEvent, twoSymbolsTime);
       } else {
           if (logLevel > INFO) log("Completed Transmission of ACK.");
           status &= ~STATUS_TX_ACTIVE;
@@ -1152,14 +1162,13 @@ public class CC2420 extends Radio802154 implements USARTListener {
 
 
   private void setSymbolEvent(int symbols) {
-    double period = SYMBOL_PERIOD * symbols;
-    cpu.scheduleTimeEventMillis(symbolEvent, period);
-    //log("Set Symbol event: " + period);
+    cpu.scheduleTimeEventIn(symbolEvent, (long) (symbols * symbolTime));
+    //log("Set Symbol event: " + symbols);
   }
 
   private void startOscillator() {
     // 1ms crystal startup from datasheet pg12
-    cpu.scheduleTimeEventMillis(oscillatorEvent, 1);
+    cpu.scheduleTimeEventIn(oscillatorEvent, oscillatorStartTime);
   }
 
   private void stopOscillator() {
@@ -1377,7 +1386,7 @@ public class CC2420 extends Radio802154 implements USARTListener {
     if(newOn) {
       // 0.6ms maximum vreg startup from datasheet pg 13
       // but Z1 platform does not work with 0.1 so trying with lower...
-      cpu.scheduleTimeEventMillis(vregEvent, 0.05);
+      cpu.scheduleTimeEventIn(vregEvent, vregStartTime);
       if (logLevel > INFO) log("Scheduling vregEvent at: cyc = " + cpu.cycles +
          " target: " + vregEvent.getTime() + " current: " + cpu.getTime());
     } else {
@@ -43,6 +43,7 @@ import se.sics.mspsim.util.Utils;
 
 public class CC2520 extends Radio802154 implements USARTListener, SPIData {
 
+    @State
     public static class GPIO {
         private IOPort port;
         private int pin;
@@ -337,6 +338,12 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
     // 802.15.4 symbol period in ms
     public static final double SYMBOL_PERIOD = 0.016; // 16 us
 
+    // Delays in virtual time - precomputed to avoid conversions when scheduling
+    private final double symbolTime;
+    private final long twoSymbolsTime;
+    private final long oscillatorStartTime;
+    private final long vregStartTime;
+
     private static final int[] BC_ADDRESS = new int[] {0xff, 0xff};
 
     private int shrPos;
@@ -407,7 +414,7 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
     private int txCursor;
     private boolean isRadioOn;
 
-    private TimeEvent oscillatorEvent = new TimeEvent(0, "CC2520 OSC") {
+    private TimeEvent oscillatorEvent = new TimeEvent(0, "CC2520 OSC", this) {
         public void execute(long t) {
             status |= STATUS_XOSC16M_STABLE;
             if(DEBUG) log("Oscillator Stable Event.");
@@ -416,7 +423,7 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
         }
     };
 
-    private TimeEvent vregEvent = new TimeEvent(0, "CC2520 VREG") {
+    private TimeEvent vregEvent = new TimeEvent(0, "CC2520 VREG", this) {
         public void execute(long t) {
             if(DEBUG) log("VREG Started at: " + t + " cyc: " +
                     cpu.cycles + " " + getTime());
@@ -426,25 +433,25 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
         }
     };
 
-    private TimeEvent sendEvent = new TimeEvent(0, "CC2520 Send") {
+    private TimeEvent sendEvent = new TimeEvent(0, "CC2520 Send", this) {
         public void execute(long t) {
             txNext();
         }
     };
 
-    private TimeEvent ackEvent = new TimeEvent(0, "CC2520 Ack") {
+    private TimeEvent ackEvent = new TimeEvent(0, "CC2520 Ack", this) {
         public void execute(long t) {
             ackNext();
         }
     };
 
-    private TimeEvent shrEvent = new TimeEvent(0, "CC2520 SHR") {
+    private TimeEvent shrEvent = new TimeEvent(0, "CC2520 SHR", this) {
         public void execute(long t) {
             shrNext();
         }
     };
 
-    private TimeEvent symbolEvent = new TimeEvent(0, "CC2520 Symbol") {
+    private TimeEvent symbolEvent = new TimeEvent(0, "CC2520 Symbol", this) {
         public void execute(long t) {
             switch(stateMachine) {
             case RX_CALIBRATE:
@@ -489,6 +496,10 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
 
     public CC2520(MSP430Core cpu) {
         super("CC2520", "Radio", cpu);
+        symbolTime = cpu.millisToTime(SYMBOL_PERIOD * 1000) / 1000.0;
+        twoSymbolsTime = cpu.millisToTime(SYMBOL_PERIOD * 2);
+        oscillatorStartTime = cpu.millisToTime(1);
+        vregStartTime = cpu.millisToTime(0.05);
 
         for (int i = 0; i < gpio.length; i++) {
             gpio[i] = new GPIO();
@@ -1101,7 +1112,7 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
                 rfListener.receivedByte(SHR[shrPos]);
             }
             shrPos++;
-            cpu.scheduleTimeEventMillis(shrEvent, SYMBOL_PERIOD * 2);
+            cpu.scheduleTimeEventIn(shrEvent, twoSymbolsTime);
         }
     }
 
@@ -1129,7 +1140,7 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
             }
             txfifoPos++;
             // Two symbol periods to send a byte...
-            cpu.scheduleTimeEventMillis(sendEvent, SYMBOL_PERIOD * 2);
+            cpu.scheduleTimeEventIn(sendEvent, twoSymbolsTime);
         } else {
             if (DEBUG) log("Completed Transmission.");
             status &= ~STATUS_TX_ACTIVE;
@@ -1172,7 +1183,7 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
             }
             ackPos++;
             // Two symbol periods to send a byte...
-            cpu.scheduleTimeEventMillis(ackEvent, SYMBOL_PERIOD * 2);
+            cpu.scheduleTimeEventIn(ackEvent, twoSymbolsTime);
         } else {
             if (DEBUG) log("Completed Transmission of ACK.");
             status &= ~STATUS_TX_ACTIVE;
@@ -1186,14 +1197,13 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
 
 
     private void setSymbolEvent(int symbols) {
-        double period = SYMBOL_PERIOD * symbols;
-        cpu.scheduleTimeEventMillis(symbolEvent, period);
-        //log("Set Symbol event: " + period);
+        cpu.scheduleTimeEventIn(symbolEvent, (long) (symbols * symbolTime));
+        //log("Set Symbol event: " + symbols);
     }
 
     void startOscillator() {
         // 1ms crystal startup from datasheet pg12
-        cpu.scheduleTimeEventMillis(oscillatorEvent, 1);
+        cpu.scheduleTimeEventIn(oscillatorEvent, oscillatorStartTime);
     }
 
     void stopOscillator() {
@@ -1497,7 +1507,7 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
         if(newOn) {
             // 0.6ms maximum vreg startup from datasheet pg 13
             // but Z1 platform does not work with 0.1 so trying with lower...
-            cpu.scheduleTimeEventMillis(vregEvent, 0.05);
+            cpu.scheduleTimeEventIn(vregEvent, vregStartTime);
             if (DEBUG) log("Scheduling vregEvent at: cyc = " + cpu.cycles +
                     " target: " + vregEvent.getTime() + " current: " + cpu.getTime());
         } else {
@@ -65,7 +65,7 @@ public class DS2411 extends Chip {
   private int[] writeBuf = new int[10];
   private int[] macID = new int[]{1, 2, 3, 4, 5, 6};
   
-  private TimeEvent stateEvent = new TimeEvent(0) {
+  private TimeEvent stateEvent = new TimeEvent(0, this) {
     public void execute(long t) {
       switch (state) {
       case WAIT_FOR_RESET:
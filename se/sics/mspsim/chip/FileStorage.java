@@ -38,9 +38,12 @@ import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import se.sics.mspsim.core.NotState;
+
 /**
  * @author Niclas Finne
  */
+@NotState
 public class FileStorage implements Storage {
 
     private String filename;
@@ -305,7 +305,7 @@ public abstract class I2CUnit implements USARTListener {
 		}
 
 		if (!txScheduled && numBytesRxTx < numBytesTotal) {
-			cpu.scheduleCycleEvent(txTrigger, cpu.cpuCycles + 1);
+			cpu.scheduleCycleEventIn(txTrigger, 1);
 			txScheduled = true;
 		}
 	}
@@ -89,7 +89,7 @@ public class M25P80 extends ExternalFlash implements USARTListener, PortListener
   private byte[] readMemory = new byte[256];
   private byte[] buffer = new byte[256];
 
-  private TimeEvent writeEvent = new TimeEvent(0, "M25P80 Writing") {
+  private TimeEvent writeEvent = new TimeEvent(0, "M25P80 Writing", this) {
     public void execute(long t) {
       writing = false;
     }};
@@ -33,9 +33,12 @@ package se.sics.mspsim.chip;
 import java.io.IOException;
 import java.util.Arrays;
 
+import se.sics.mspsim.core.State;
+
 /**
  * @author Niclas Finne
  */
+@State
 public class MemoryStorage implements Storage {
 
     private byte[] data;
@@ -109,7 +109,7 @@ public class SHT11 extends Chip {
   }
   
   
-  private TimeEvent measureEvent = new TimeEvent(0) {
+  private TimeEvent measureEvent = new TimeEvent(0, this) {
     public void execute(long t) {
       if (readData == CMD_MEASURE_TEMP) {
         output[0] = (temp >> 8) & 0xff;
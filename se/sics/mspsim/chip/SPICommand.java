@@ -32,6 +32,9 @@ package se.sics.mspsim.chip;
 
 import java.util.ArrayList;
 
+import se.sics.mspsim.core.State;
+
+@State
 public class SPICommand {
 
     private static final boolean DEBUG = false;
@@ -49,6 +52,7 @@ public class SPICommand {
 
     private final BitField[] bitFields;
 
+    @State
     public static class BitField {
         public final String name;
         public final int startBit;
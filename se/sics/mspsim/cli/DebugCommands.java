@@ -37,6 +37,9 @@ import se.sics.mspsim.core.DbgInstruction;
 import se.sics.mspsim.core.DisAsm;
 import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
+import se.sics.mspsim.core.EventStatistics;
+import se.sics.mspsim.core.HostTimeStatistics;
+import se.sics.mspsim.core.LivelockDetector;
 import se.sics.mspsim.core.LogListener;
 import se.sics.mspsim.core.Loggable;
 import se.sics.mspsim.core.MSP430;
@@ -46,13 +49,16 @@ import se.sics.mspsim.core.Memory.AccessMode;
 import se.sics.mspsim.core.Memory.AccessType;
 import se.sics.mspsim.core.MemoryMonitor;
 import se.sics.mspsim.core.RegisterMonitor;
+import se.sics.mspsim.core.Snapshot;
 import se.sics.mspsim.core.TimeEvent;
 import se.sics.mspsim.platform.GenericNode;
 import se.sics.mspsim.util.ComponentRegistry;
 import se.sics.mspsim.util.DebugInfo;
 import se.sics.mspsim.util.ELF;
+import se.sics.mspsim.util.Expression;
 import se.sics.mspsim.util.GDBStubs;
 import se.sics.mspsim.util.MapEntry;
+import se.sics.mspsim.util.MapTable;
 import se.sics.mspsim.util.Utils;
 
 public class DebugCommands implements CommandBundle {
@@ -70,7 +76,7 @@ public class DebugCommands implements CommandBundle {
     final GenericNode node = registry.getComponent(GenericNode.class, "node");
     if (cpu != null) {
       ch.registerCommand("break", new BasicAsyncCommand("add a breakpoint to a given address or symbol",
-          "<address or symbol>") {
+          "<address or symbol> [if \"<condition>\"]") {
         private int address;
         private MemoryMonitor monitor;
         public int executeCommand(final CommandContext context) {
@@ -79,14 +85,29 @@ public class DebugCommands implements CommandBundle {
             context.err.println("unknown symbol: " + context.getArgument(0));
             return 1;
           }
+          final Expression condition;
+          final Expression.Context state = new Expression.Context(cpu);
+          try {
+              condition = getCondition(context, 1);
+          } catch (IllegalArgumentException e) {
+              context.err.println(e.getMessage());
+              return 1;
+          }
           monitor = new MemoryMonitor.Adapter() {
               private long lastCycles = -1;
               @Override
               public void notifyReadBefore(int address, AccessMode mode, AccessType type) {
                   if (type == AccessType.EXECUTE && cpu.cycles != lastCycles) {
+                      lastCycles = cpu.cycles;
+                      if (condition != null) {
+                          state.hits++;
+                          state.address = state.value = address;
+                          if (!condition.isTrue(state)) {
+                              return;
+                          }
+                      }
                       context.out.println("*** Break at $" + cpu.getAddressAsString(address));
                       cpu.triggBreakpoint();
-                      lastCycles = cpu.cycles;
                   }
               }
           };
@@ -100,22 +121,49 @@ public class DebugCommands implements CommandBundle {
       });
 
       ch.registerCommand("watch",
-          new BasicAsyncCommand("add a write/read watch to a given address or symbol", "<address or symbol> [length] [char | hex | break]") {
+          new BasicAsyncCommand("add a write/read watch to a given address range or symbol",
+              "<address or symbol>[-<last address>] [length] [read | write] [char | hex | break] [if \"<condition>\"]") {
         int mode = 0;
         int address = 0;
-        int length = 1;
+        int length = 0;
+        MemoryMonitor.WatchType watchType = MemoryMonitor.WatchType.READ_WRITE;
+        Expression condition;
         MemoryMonitor monitor;
         public int executeCommand(final CommandContext context) {
-          address = context.getArgumentAsAddress(0);
-          if (address < 0) {
-            context.err.println("unknown symbol: " + context.getArgument(0));
-            return -1;
+          String target = context.getArgument(0);
+          int rangeIndex = target.indexOf('-', 1);
+          if (rangeIndex > 0) {
+            try {
+              address = Utils.decodeInt(target.substring(0, rangeIndex));
+              length = Utils.decodeInt(target.substring(rangeIndex + 1)) - address + 1;
+            } catch (Exception e) {
+              context.err.println("Illegal address range: " + target);
+              return -1;
+            }
+          } else {
+            address = context.getArgumentAsAddress(0);
+            if (address < 0) {
+              context.err.println("unknown symbol: " + target);
+              return -1;
+            }
           }
           if (context.getArgumentCount() > 1) {
               for (int i = 1; i < context.getArgumentCount(); i++) {
                   String modeStr = context.getArgument(i);
-                  if (Character.isDigit(modeStr.charAt(0))) {
+                  if ("if".equals(modeStr)) {
+                      try {
+                          condition = getCondition(context, i);
+                      } catch (IllegalArgumentException e) {
+                          context.err.println(e.getMessage());
+                          return -1;
+                      }
+                      break;
+                  } else if (Character.isDigit(modeStr.charAt(0))) {
                       length = Integer.parseInt(modeStr);
+                  } else if ("read".equals(modeStr)) {
+                      watchType = MemoryMonitor.WatchType.READ;
+                  } else if ("write".equals(modeStr)) {
+                      watchType = MemoryMonitor.WatchType.WRITE;
                   } else if ("char".equals(modeStr)) {
                       mode = Utils.ASCII_UNMODIFIED; // 4
                   } else if ("break".equals(modeStr)) {
@@ -125,12 +173,27 @@ public class DebugCommands implements CommandBundle {
                   }
               }
           }
+          if (length == 0) {
+              // Watch the whole variable when a symbol is given
+              MapTable map = context.getMapTable();
+              MapEntry entry = map != null && rangeIndex < 0 ? map.getEntry(target) : null;
+              length = entry != null && entry.getSize() > 0 ? entry.getSize() : 1;
+          }
           if (length < 1) {
               context.err.println("please specify a length of at least one byte");
               return -1;
           }
+          final Expression.Context state = new Expression.Context(cpu);
           monitor = new MemoryMonitor.Adapter() {
               private void cpuAction(AccessType type, int adr, int data) {
+                  if (condition != null) {
+                      state.hits++;
+                      state.address = adr;
+                      state.value = data;
+                      if (!condition.isTrue(state)) {
+                          return;
+                      }
+                  }
                   if (mode == 0 || mode == 10) {
                       int pc = cpu.getPC();
                       String adrStr = getSymOrAddr(cpu, context, adr);
@@ -169,8 +232,11 @@ public class DebugCommands implements CommandBundle {
             }
           };
 
-          for (int i = 0; i < length; i++) {
-              cpu.addWatchPoint(address + i, monitor);
+          try {
+              cpu.addWatchRange(address, address + length, watchType, monitor);
+          } catch (IllegalArgumentException e) {
+              context.err.println(e.getMessage());
+              return -1;
           }
           if (length > 1) {
               context.err.println("Watch set at $" + cpu.getAddressAsString(address) + " - $" + cpu.getAddressAsString(address + length - 1));
@@ -181,9 +247,7 @@ public class DebugCommands implements CommandBundle {
         }
 
         public void stopCommand(CommandContext context) {
-            for (int i = 0; i < length; i++) {
-                cpu.removeWatchPoint(address + i, monitor);
-            }
+            cpu.removeWatchRange(address, address + length, monitor);
             context.exit(0);
         }
       });
@@ -273,6 +337,16 @@ public class DebugCommands implements CommandBundle {
           }
       });
 
+      ch.registerCommand("busywait", new BasicCommand("fast forward busy wait loops to the next event", "[0/1]") {
+          public int executeCommand(final CommandContext context) {
+              if (context.getArgumentCount() > 0) {
+                  cpu.setBusyWaitSkip(context.getArgumentAsBoolean(0));
+              }
+              context.out.println("Busy wait skip is set to " + cpu.isBusyWaitSkip());
+              return 0;
+          }
+      });
+
       ch.registerCommand("line", new BasicCommand("print line number of address/symbol", "<address or symbol>") {
         public int executeCommand(final CommandContext context) {
           int adr = context.getArgumentAsAddress(0);
@@ -375,9 +449,9 @@ public class DebugCommands implements CommandBundle {
           public int executeCommand(CommandContext context) {
             int adr = context.getArgumentAsAddress(0);
             if (adr >= 0) {
-              int value = cpu.memory[adr];
+              int value = cpu.peekMemory(adr);
               if (adr >= 0x100 && adr + 1 < cpu.MAX_MEM) {
-                  value |= cpu.memory[adr + 1] << 8;
+                  value |= cpu.peekMemory(adr + 1) << 8;
               }
               context.out.println(context.getArgument(0) + " = $" + Utils.hex16(value));
               return 0;
@@ -482,9 +556,9 @@ public class DebugCommands implements CommandBundle {
                     start += dbg.getSize();
                 } else {
                     int data = 0;
-                    data = cpu.memory[start++];
+                    data = cpu.peekMemory(start++);
                     if (Utils.size(type) == 2) {
-                        data = data  + (cpu.memory[start++] << 8);
+                        data = data  + (cpu.peekMemory(start++) << 8);
                     }
                     context.out.print((mode != Utils.ASCII ? " " : "") + 
                             Utils.toString(data, type, mode));
@@ -727,10 +801,149 @@ public class DebugCommands implements CommandBundle {
               return 0;
             }
           });
+
+        ch.registerCommand("eventstats", new BasicCommand("print event statistics", "[reset]") {
+            @Override
+            public int executeCommand(CommandContext context) {
+                EventStatistics stats = cpu.getEventStatistics();
+                if (context.getArgumentCount() > 0) {
+                    if (!"reset".equals(context.getArgument(0))) {
+                        context.err.println("unknown argument: " + context.getArgument(0));
+                        return 1;
+                    }
+                    stats.reset();
+                    context.out.println("Event statistics reset.");
+                } else {
+                    stats.print(context.out);
+                }
+                return 0;
+            }
+          });
+        ch.registerCommand("hosttime", new BasicCommand("print host time used by execution, events and monitors",
+                "[on|off|reset]") {
+            @Override
+            public int executeCommand(CommandContext context) {
+                HostTimeStatistics stats = cpu.getHostTimeStatistics();
+                if (context.getArgumentCount() > 0) {
+                    String arg = context.getArgument(0);
+                    if ("on".equals(arg)) {
+                        stats.setEnabled(true);
+                    } else if ("off".equals(arg)) {
+                        stats.setEnabled(false);
+                    } else if ("reset".equals(arg)) {
+                        stats.reset();
+                    } else {
+                        context.err.println("unknown argument: " + arg);
+                        return 1;
+                    }
+                }
+                stats.print(context.out);
+                return 0;
+            }
+          });
+
+        ch.registerCommand("livelock", new BasicCommand("detect tight loops, interrupt storms and watchdog reset loops",
+                "[on [windowcycles] [windows]|off]") {
+            @Override
+            public int executeCommand(CommandContext context) {
+                LivelockDetector detector = cpu.getLivelockDetector();
+                if (context.getArgumentCount() > 0) {
+                    String arg = context.getArgument(0);
+                    if ("on".equals(arg)) {
+                        if (detector == null) {
+                            detector = new LivelockDetector(cpu);
+                        }
+                        try {
+                            if (context.getArgumentCount() > 1) {
+                                detector.setWindowCycles(context.getArgumentAsLong(1));
+                            }
+                            if (context.getArgumentCount() > 2) {
+                                detector.setWindows(context.getArgumentAsInt(2));
+                            }
+                        } catch (IllegalArgumentException e) {
+                            context.err.println(e.getMessage());
+                            return 1;
+                        }
+                        detector.start();
+                    } else if ("off".equals(arg)) {
+                        if (detector != null) {
+                            detector.stop();
+                        }
+                    } else {
+                        context.err.println("unknown argument: " + arg);
+                        return 1;
+                    }
+                    detector = cpu.getLivelockDetector();
+                }
+                if (detector == null) {
+                    context.out.println("Livelock detector is off");
+                } else {
+                    context.out.println("Livelock detector is on: " + detector.getWindows()
+                            + " windows of " + detector.getWindowCycles() + " cycles");
+                    if (detector.getLastType() != null) {
+                        context.out.println("Last detected: " + detector.getLastMessage());
+                    }
+                }
+                return 0;
+            }
+          });
+
+        ch.registerCommand("checkpoint", new BasicCommand("save or restore the state of the node",
+                "[save|restore]") {
+            private Snapshot snapshot;
+
+            @Override
+            public int executeCommand(CommandContext context) {
+                if (context.getArgumentCount() > 0) {
+                    String arg = context.getArgument(0);
+                    try {
+                        if ("save".equals(arg)) {
+                            snapshot = cpu.saveState();
+                        } else if ("restore".equals(arg)) {
+                            if (snapshot == null) {
+                                context.err.println("no checkpoint saved");
+                                return 1;
+                            }
+                            cpu.restoreState(snapshot);
+                        } else {
+                            context.err.println("unknown argument: " + arg);
+                            return 1;
+                        }
+                    } catch (IllegalStateException e) {
+                        context.err.println(e.getMessage());
+                        return 1;
+                    }
+                }
+                if (snapshot == null) {
+                    context.out.println("No checkpoint saved");
+                } else {
+                    context.out.println("Checkpoint at " + snapshot.getCycles() + " cycles: "
+                            + snapshot.size() + " bytes, " + snapshot.getObjectCount() + " objects");
+                }
+                return 0;
+            }
+          });
       }
     }
   }
 
+  /* Compiles the condition following "if" at the specified argument index,
+   * if any. The condition must be a single argument since an unquoted '>'
+   * or '|' would be taken as a redirect or a pipe by the command parser. */
+  private static Expression getCondition(CommandContext context, int index) {
+    int count = context.getArgumentCount();
+    if (index >= count) {
+      return null;
+    }
+    if (!"if".equals(context.getArgument(index)) || index + 1 >= count) {
+      throw new IllegalArgumentException("expected 'if \"<condition>\"'");
+    }
+    if (index + 2 < count) {
+      throw new IllegalArgumentException("the condition must be quoted, for example: if \"r15 >= 3\"");
+    }
+    return Expression.compile(context.getArgument(index + 1), context.getMapTable());
+  }
+
   private static String getSymOrAddr(MSP430 cpu, CommandContext context, int adr) {
     MapEntry me = context.getMapTable().getEntry(adr);
     if (me != null) {
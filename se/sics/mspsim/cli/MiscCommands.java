@@ -52,7 +52,8 @@ import se.sics.mspsim.chip.RFSource;
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.MSP430;
 import se.sics.mspsim.core.MSP430Constants;
-import se.sics.mspsim.core.TimeEvent;
+import se.sics.mspsim.core.PeriodicEvent;
+import se.sics.mspsim.core.RealTimePacer;
 import se.sics.mspsim.util.ComponentRegistry;
 import se.sics.mspsim.util.ConfigManager;
 import se.sics.mspsim.util.PluginRepository;
@@ -130,7 +131,7 @@ public class MiscCommands implements CommandBundle {
       }
     });
 
-    handler.registerCommand("speed", new BasicCommand("set the speed factor for the CPU", "[factor]") {
+    handler.registerCommand("speed", new BasicCommand("set the speed factor for the CPU", "[factor|unlimited]") {
       public int executeCommand(CommandContext context) {
         MSP430 cpu = registry.getComponent(MSP430.class);
         if (cpu == null) {
@@ -138,17 +139,24 @@ public class MiscCommands implements CommandBundle {
           return 1;
         } else if (context.getArgumentCount() == 0) {
           /* No speed specified. Simply show current speed. */
+        } else if ("unlimited".equals(context.getArgument(0))) {
+          cpu.setExecutionRate(RealTimePacer.UNLIMITED);
         } else {
           double rate = context.getArgumentAsDouble(0);
-          if (rate > 0.0) {
+          if (rate >= RealTimePacer.MIN_RATE) {
             cpu.setExecutionRate(rate);
           } else {
-            context.err.println("Speed factor must be larger than zero.");
+            context.err.println("Speed factor must be at least " + RealTimePacer.MIN_RATE + " or unlimited.");
             return 1;
           }
         }
-        double rate = cpu.getExecutionRate();
-        context.out.printf("Speed factor is set to %.2f\n", rate);
+        RealTimePacer pacer = cpu.getRealTimePacer();
+        if (pacer.isUnlimited()) {
+          context.out.println("Speed factor is unlimited");
+        } else {
+          context.out.printf("Speed factor is set to %.2f\n", pacer.getRate());
+          context.out.println(pacer.getStatistics());
+        }
         return 0;
       }
     });
@@ -238,22 +246,23 @@ public class MiscCommands implements CommandBundle {
           return 1;
         }
 
-        cpu.scheduleTimeEventMillis(new TimeEvent(0) {
+        new PeriodicEvent(cpu, "repeat") {
 
           @Override
-          public void execute(long t) {
-            if (isRunning) {
+          protected void trigger(long t) {
+            if (!isRunning) {
+              stop();
+            } else {
               count++;
               context.executeCommand(commandLine);
-              if ((maxCount <= 0) || (count < maxCount)) {
-                cpu.scheduleTimeEventMillis(this, period * 1000d);
-              } else {
+              if ((maxCount > 0) && (count >= maxCount)) {
+                stop();
                 stopCommand(context);
               }
             }
           }
 
-        }, period * 1000d);
+        }.start(period * 1000d);
         return 0;
       }
 
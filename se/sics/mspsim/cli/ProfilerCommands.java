@@ -39,12 +39,15 @@
  */
 
 package se.sics.mspsim.cli;
+import java.util.EnumSet;
 import java.util.Properties;
 
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.EventListener;
 import se.sics.mspsim.core.EventSource;
 import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MSP430Config;
+import se.sics.mspsim.core.Memory.AccessType;
 import se.sics.mspsim.core.Profiler;
 import se.sics.mspsim.profiler.SimpleProfiler;
 import se.sics.mspsim.ui.CPUHeatMap;
@@ -278,12 +281,28 @@ public class ProfilerCommands implements CommandBundle {
             }
       });
       
-      ch.registerCommand("readmap", new BasicAsyncCommand("read map", "") {
+      ch.registerCommand("readmap", new BasicAsyncCommand("show a heat map of the executed code, or of all memory accesses",
+          "[all]") {
           private CPUHeatMap hm;
 
           public int executeCommand(CommandContext context) {
+              boolean all = false;
+              if (context.getArgumentCount() > 0) {
+                  if (!"all".equals(context.getArgument(0))) {
+                      context.err.println("unknown argument: " + context.getArgument(0));
+                      return 1;
+                  }
+                  all = true;
+              }
               hm = new CPUHeatMap(cpu, registry.getComponent(WindowManager.class));
-              cpu.addGlobalMonitor(hm);
+              if (all) {
+                  cpu.addGlobalMonitor(hm);
+              } else {
+                  /* Only the code fetches are watched so RAM keeps the direct access */
+                  MSP430Config config = cpu.config;
+                  cpu.addGlobalMonitor(config.mainFlashStart, config.mainFlashStart + config.mainFlashSize,
+                          EnumSet.of(AccessType.EXECUTE), hm);
+              }
               return 0;
           }
 
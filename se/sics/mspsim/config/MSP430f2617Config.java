@@ -86,13 +86,13 @@ public class MSP430f2617Config extends MSP430Config {
 
     public int setup(MSP430Core cpu, ArrayList<IOUnit> ioUnits) {
 
-        Multiplier mp = new Multiplier(cpu, cpu.memory, 0);
+        Multiplier mp = new Multiplier(cpu, cpu.ioMemory, 0);
         cpu.setIORange(0x130, 0x0f, mp);
 
-        USCI usciA0 = new USCI(cpu, 0, cpu.memory, this);
-        USCI usciB0 = new USCI(cpu, 1, cpu.memory, this);
-        USCI usciA1 = new USCI(cpu, 2, cpu.memory, this);
-        USCI usciB1 = new USCI(cpu, 3, cpu.memory, this);
+        USCI usciA0 = new USCI(cpu, 0, cpu.ioMemory, this);
+        USCI usciB0 = new USCI(cpu, 1, cpu.ioMemory, this);
+        USCI usciA1 = new USCI(cpu, 2, cpu.ioMemory, this);
+        USCI usciB1 = new USCI(cpu, 3, cpu.ioMemory, this);
         cpu.setIORange(0x60, 8, usciA0);
         cpu.setIORange(0x68, 8, usciB0);
         cpu.setIORange(0xd0, 8, usciA1);
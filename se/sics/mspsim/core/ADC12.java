@@ -120,7 +120,7 @@ public class ADC12 extends IOUnit {
   private int startMem = 0;
   private int adcDiv = 1;
 
-  private ADCInput adcInput[] = new ADCInput[16];
+  @NotState private ADCInput adcInput[] = new ADCInput[16];
   
   private int conSeq;
   private int adc12ie;
@@ -130,7 +130,7 @@ public class ADC12 extends IOUnit {
   private int adcSSel;
   private int adc12Vector = 7;
 
-  private TimeEvent adcTrigger = new TimeEvent(0) {
+  private TimeEvent adcTrigger = new TimeEvent(0, this) {
     public void execute(long t) {
 //      System.out.println(getName() + " **** executing update timers at " + t + " cycles=" + cpu.cycles);
       convert();
@@ -139,7 +139,7 @@ public class ADC12 extends IOUnit {
 
   
   public ADC12(MSP430Core cpu) {
-    super("ADC12", cpu, cpu.memory, 0);
+    super("ADC12", cpu, cpu.ioMemory, 0);
   }
 
   public void reset(int type) {
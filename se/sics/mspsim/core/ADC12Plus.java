@@ -173,7 +173,7 @@ public class ADC12Plus extends IOUnit {
 	private int startMem = 0;
 	private int adcDiv = 1;
 
-	private ADCInput adcInput[] = new ADCInput[16];
+	@NotState private ADCInput adcInput[] = new ADCInput[16];
 
 	private int conSeq;
 	private int adc12ie;
@@ -183,7 +183,7 @@ public class ADC12Plus extends IOUnit {
 	private int adcSSel;
 	private int adc12Vector = 0x38;
 
-	private TimeEvent adcTrigger = new TimeEvent(0) {
+	private TimeEvent adcTrigger = new TimeEvent(0, this) {
 		public void execute(long t) {
 			// System.out.println(getName() + " **** executing update timers at " +
 			// t + " cycles=" + cpu.cycles);
@@ -200,7 +200,7 @@ public class ADC12Plus extends IOUnit {
 	private boolean ref25V = false;
 
 	public ADC12Plus(MSP430Core cpu, int offset, int intVector) {
-		super("ADC12Plus", cpu, cpu.memory, offset);
+		super("ADC12Plus", cpu, cpu.ioMemory, offset);
 		adc12Vector = intVector;
 	}
 
@@ -161,7 +161,7 @@ public class BasicClockModule extends ClockSystem {
     // then dcoFrq and last dcoModulator
     int newcalcDCOFrq = ((dcoFrequency << 5) + dcoModulator +
 			 (resistorSel << 8)) * DCO_FACTOR + MIN_DCO_FRQ;
-    if (newcalcDCOFrq != calcDCOFrq) {
+    if (newcalcDCOFrq != calcDCOFrq || newcalcDCOFrq / divSMclk != cpu.smclkFrq) {
       calcDCOFrq = newcalcDCOFrq;
       if (DEBUG) log("BCM  DCO_Speed: " + calcDCOFrq);
       cpu.setDCOFrq(calcDCOFrq, calcDCOFrq / divSMclk);
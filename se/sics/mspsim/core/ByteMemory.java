@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * ByteMemory
+ *
+ * The RAM and flash contents of the CPU, stored as one byte per address.
+ * Multi byte values are stored little endian. The accessors do not check
+ * access permissions or notify any monitors - that is done by the memory
+ * segments.
+ *
+ * The memory is split into pages of the same size as the memory segments
+ * and a page is not allocated until it is written. Pages that have not
+ * been allocated read as erased flash (all bits set) in the ranges marked
+ * as flash and as zero everywhere else.
+ *
+ * Pages can also be mapped from a shared memory image, for example a
+ * firmware loaded by many nodes. A shared page is never modified - it is
+ * replaced by a private copy on its first write.
+ *
+ * ByteMemory implements Memory so code written for the int[] memory of
+ * earlier versions can move to the Memory interface: memory[address]
+ * becomes memory.get(address, AccessMode.BYTE) and memory[address] = value
+ * becomes memory.set(address, value, AccessMode.BYTE).
+ */
+
+package se.sics.mspsim.core;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+
+public class ByteMemory implements Memory {
+
+    public static final int PAGE_SIZE = Memory.SEGMENT_SIZE;
+    public static final int ERASED = 0xff;
+
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final byte[][] pages;
+    private final boolean[] shared;
+    // true for pages that read as erased flash until written
+    private final boolean[] flash;
+    private final int size;
+
+    // Keeps the mapped shared image alive
+    private ByteMemory sharedImage;
+
+    public ByteMemory(int size) {
+        this.size = size;
+        this.pages = new byte[(size + PAGE_MASK) >> PAGE_SHIFT][];
+        this.shared = new boolean[pages.length];
+        this.flash = new boolean[pages.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* Marks the pages in the range as flash - these read as erased until written */
+    public void setFlash(int start, int end) {
+        for (int i = start >> PAGE_SHIFT; i <= (end - 1) >> PAGE_SHIFT; i++) {
+            flash[i] = true;
+        }
+    }
+
+    public boolean isFlash(int address) {
+        return flash[address >> PAGE_SHIFT];
+    }
+
+    public boolean isAllocated(int address) {
+        return pages[address >> PAGE_SHIFT] != null;
+    }
+
+    /* Returns the number of allocated pages */
+    public int getAllocatedPages() {
+        int count = 0;
+        for (byte[] page : pages) {
+            if (page != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isShared(int address) {
+        return shared[address >> PAGE_SHIFT];
+    }
+
+    /* Returns true if the page containing the address is the same page in both memories */
+    boolean sharesPage(ByteMemory other, int address) {
+        int index = address >> PAGE_SHIFT;
+        return pages[index] != null && pages[index] == other.pages[index];
+    }
+
+    /* Returns the number of pages mapped from a shared image */
+    public int getSharedPages() {
+        int count = 0;
+        for (boolean s : shared) {
+            if (s) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Maps the page containing the address from the image. The page is shared
+     * with the image until it is written. Nothing is mapped if the page is
+     * not allocated in the image. The image must not be modified after it
+     * has been mapped.
+     */
+    public void map(ByteMemory image, int address) {
+        int index = address >> PAGE_SHIFT;
+        byte[] page = image.pages[index];
+        if (page != null) {
+            pages[index] = page;
+            shared[index] = true;
+            sharedImage = image;
+        }
+    }
+
+    /**
+     * Makes the target a copy of this memory. The pages are shared copy-on-write
+     * by both memories, so the memories can be used by different threads.
+     */
+    void copyTo(ByteMemory target) {
+        if (target.pages.length != pages.length) {
+            throw new IllegalArgumentException("memory size differs");
+        }
+        for (int i = 0; i < pages.length; i++) {
+            target.pages[i] = pages[i];
+            target.shared[i] = shared[i] = pages[i] != null;
+        }
+        target.sharedImage = sharedImage;
+    }
+
+    /* Writes the allocated pages to a snapshot */
+    void save(DataOutputStream out) throws IOException {
+        for (byte[] page : pages) {
+            out.writeBoolean(page != null);
+            if (page != null) {
+                out.write(page);
+            }
+        }
+    }
+
+    /* Restores the pages from a snapshot. Changed pages are replaced and never
+     * modified since they might be shared. */
+    void restore(DataInputStream in) throws IOException {
+        byte[] buffer = new byte[PAGE_SIZE];
+        for (int i = 0; i < pages.length; i++) {
+            if (!in.readBoolean()) {
+                pages[i] = null;
+                shared[i] = false;
+            } else {
+                in.readFully(buffer);
+                if (pages[i] == null || !Arrays.equals(pages[i], buffer)) {
+                    pages[i] = buffer.clone();
+                    shared[i] = false;
+                }
+            }
+        }
+    }
+
+    /* Reads past the pages of a snapshot */
+    void skip(DataInputStream in) throws IOException {
+        for (int i = 0; i < pages.length; i++) {
+            if (in.readBoolean()) {
+                in.skipBytes(PAGE_SIZE);
+            }
+        }
+    }
+
+    /* Returns the page for writing - allocates or copies the page if needed */
+    private byte[] getPage(int address) {
+        int index = address >> PAGE_SHIFT;
+        byte[] page = pages[index];
+        if (page == null) {
+            if (address >= size) {
+                throw new ArrayIndexOutOfBoundsException(address);
+            }
+            page = new byte[PAGE_SIZE];
+            if (flash[index]) {
+                Arrays.fill(page, (byte) ERASED);
+            }
+            pages[index] = page;
+        } else if (shared[index]) {
+            page = page.clone();
+            pages[index] = page;
+            shared[index] = false;
+        }
+        return page;
+    }
+
+    /* Returns the value of a byte in a page that has not been allocated */
+    private int getBlank(int index) {
+        return flash[index] ? ERASED : 0;
+    }
+
+    public int get(int address) {
+        int index = address >> PAGE_SHIFT;
+        byte[] page = pages[index];
+        return page == null ? getBlank(index) : page[address & PAGE_MASK] & 0xff;
+    }
+
+    public void set(int address, int value) {
+        getPage(address)[address & PAGE_MASK] = (byte) value;
+    }
+
+    /* Reads directly from memory - no monitors are notified */
+    @Override
+    public int read(int address, AccessMode mode, AccessType type) {
+        return get(address, mode);
+    }
+
+    /* Writes directly to memory - no monitors are notified */
+    @Override
+    public void write(int address, int value, AccessMode mode) {
+        set(address, value, mode);
+    }
+
+    @Override
+    public int get(int address, AccessMode mode) {
+        if (mode == AccessMode.BYTE) {
+            return get(address);
+        }
+        int offset = address & PAGE_MASK;
+        int val;
+        if (offset + mode.bytes <= PAGE_SIZE) {
+            byte[] page = pages[address >> PAGE_SHIFT];
+            if (page == null) {
+                /* all bits of erased flash are set */
+                return flash[address >> PAGE_SHIFT] ? mode.mask : 0;
+            }
+            val = (page[offset] & 0xff) | ((page[offset + 1] & 0xff) << 8);
+            if (mode == AccessMode.WORD20) {
+                val |= (page[offset + 2] & 0x0f) << 16;
+            }
+        } else {
+            /* crosses a page boundary */
+            val = get(address) | (get(address + 1) << 8);
+            if (mode == AccessMode.WORD20) {
+                val |= (get(address + 2) & 0x0f) << 16;
+            }
+        }
+        return val;
+    }
+
+    @Override
+    public void set(int address, int value, AccessMode mode) {
+        int offset = address & PAGE_MASK;
+        if (offset + mode.bytes <= PAGE_SIZE) {
+            byte[] page = getPage(address);
+            page[offset] = (byte) value;
+            if (mode != AccessMode.BYTE) {
+                page[offset + 1] = (byte) (value >> 8);
+                if (mode == AccessMode.WORD20) {
+                    page[offset + 2] = (byte) (value >> 16);
+                    page[offset + 3] = (byte) (value >> 24);
+                }
+            }
+        } else {
+            for (int i = 0; i < mode.bytes; i++) {
+                set(address + i, value >> (i * 8));
+            }
+        }
+    }
+
+    /* Flash programming can only clear bits */
+    public void and(int address, int value, AccessMode mode) {
+        for (int i = 0; i < mode.bytes; i++) {
+            int a = address + i;
+            byte[] page = getPage(a);
+            page[a & PAGE_MASK] &= value >> (i * 8);
+        }
+    }
+
+    public void fill(int start, int end, int value) {
+        while (start < end) {
+            int index = start >> PAGE_SHIFT;
+            int offset = start & PAGE_MASK;
+            int len = Math.min(end - start, PAGE_SIZE - offset);
+            int blank = getBlank(index);
+            if (len == PAGE_SIZE && (value & 0xff) == blank) {
+                /* a page that reads as unallocated does not need any storage */
+                pages[index] = null;
+                shared[index] = false;
+            } else if (pages[index] != null || (value & 0xff) != blank) {
+                Arrays.fill(getPage(start), offset, offset + len, (byte) value);
+            }
+            start += len;
+        }
+    }
+
+    public void get(int address, byte[] buffer, int offset, int len) {
+        while (len > 0) {
+            int pageOffset = address & PAGE_MASK;
+            int n = Math.min(len, PAGE_SIZE - pageOffset);
+            int index = address >> PAGE_SHIFT;
+            byte[] page = pages[index];
+            if (page == null) {
+                Arrays.fill(buffer, offset, offset + n, (byte) getBlank(index));
+            } else {
+                System.arraycopy(page, pageOffset, buffer, offset, n);
+            }
+            address += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    public void set(int address, byte[] buffer, int offset, int len) {
+        while (len > 0) {
+            int pageOffset = address & PAGE_MASK;
+            int n = Math.min(len, PAGE_SIZE - pageOffset);
+            System.arraycopy(buffer, offset, getPage(address), pageOffset, n);
+            address += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+}
@@ -77,7 +77,7 @@ public class CRC16 extends IOUnit {
 	 *           Address offset, by default is 0x0150
 	 */
 	public CRC16(MSP430Core cpu, int offset) {
-		super("CRC16", cpu, cpu.memory, offset);
+		super("CRC16", cpu, cpu.ioMemory, offset);
 		setLogLevel(Loggable.DEBUG);
 	}
 
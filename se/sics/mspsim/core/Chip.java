@@ -60,7 +60,7 @@ public abstract class Chip implements Loggable, EventSource {
   private String[] modeNames = null;
   private int mode;
   private int chipState;
-  protected EmulationLogger logger;
+  @NotState protected EmulationLogger logger;
   protected boolean DEBUG = false;
   protected int logLevel;
 
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * ClockDomain
+ *
+ * A clock of the CPU (MCLK, SMCLK, ACLK or the max DCO frequency that the
+ * virtual time is counted in). The scale factors between the clock cycles
+ * and the virtual time are kept in fixed point with a 64 bit fraction and
+ * are only recalculated when the clock system changes the frequency. The
+ * fractions are rounded up, which makes the conversions give the exact
+ * rounded down quotient for any value below 2^64 / frequency.
+ */
+
+package se.sics.mspsim.core;
+import java.math.BigInteger;
+
+@State
+public final class ClockDomain {
+
+  private final String name;
+  private final int timeFrequency;
+  private int frequency;
+
+  // Virtual time units per clock cycle
+  private long timePerCycle;
+  private long timePerCycleFraction;
+  // Clock cycles per virtual time unit
+  private long cyclesPerTime;
+  private long cyclesPerTimeFraction;
+  // Clock cycles per millisecond
+  private long cyclesPerMilli;
+  private long cyclesPerMilliFraction;
+
+  ClockDomain(String name, int timeFrequency, int frequency) {
+    this.name = name;
+    this.timeFrequency = timeFrequency;
+    setFrequency(frequency);
+  }
+
+  void setFrequency(int frequency) {
+    this.frequency = frequency;
+    if (frequency > 0) {
+      timePerCycle = timeFrequency / frequency;
+      timePerCycleFraction = fraction(timeFrequency % frequency, frequency);
+    } else {
+      timePerCycle = timePerCycleFraction = 0;
+    }
+    cyclesPerTime = frequency / timeFrequency;
+    cyclesPerTimeFraction = fraction(frequency % timeFrequency, timeFrequency);
+    cyclesPerMilli = frequency / 1000;
+    cyclesPerMilliFraction = fraction(frequency % 1000, 1000);
+  }
+
+  /* Returns remainder / divisor as a 64 bit fraction rounded up */
+  private static long fraction(long remainder, long divisor) {
+    return BigInteger.valueOf(remainder).shiftLeft(64)
+        .add(BigInteger.valueOf(divisor - 1))
+        .divide(BigInteger.valueOf(divisor)).longValue();
+  }
+
+  /* Multiplies by a fixed point factor and rounds towards zero */
+  private static long scale(long value, long factor, long fraction) {
+    if (value < 0) {
+      return -scale(-value, factor, fraction);
+    }
+    return value * factor + multiplyHigh(value, fraction);
+  }
+
+  /* The high 64 bits of the product of a positive value and an unsigned fraction */
+  private static long multiplyHigh(long value, long fraction) {
+    long v0 = value & 0xffffffffL;
+    long v1 = value >>> 32;
+    long f0 = fraction & 0xffffffffL;
+    long f1 = fraction >>> 32;
+    long p01 = v0 * f1;
+    long p10 = v1 * f0;
+    long middle = ((v0 * f0) >>> 32) + (p01 & 0xffffffffL) + (p10 & 0xffffffffL);
+    return v1 * f1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getFrequency() {
+    return frequency;
+  }
+
+  public double getTimePerCycle() {
+    return frequency > 0 ? 1.0 * timeFrequency / frequency : 0.0;
+  }
+
+  /* Converts a number of clock cycles to virtual time units */
+  public long toTime(long clockCycles) {
+    return scale(clockCycles, timePerCycle, timePerCycleFraction);
+  }
+
+  /* Converts virtual time units to a number of clock cycles */
+  public long toCycles(long time) {
+    return scale(time, cyclesPerTime, cyclesPerTimeFraction);
+  }
+
+  /* Converts milliseconds to a number of clock cycles */
+  public long millisToCycles(double msec) {
+    if (msec < 0) {
+      return -millisToCycles(-msec);
+    }
+    /* the whole milliseconds are scaled exactly and only the cycles of the
+       fraction of a millisecond are computed in floating point */
+    long millis = (long) msec;
+    long cycles = scale(millis, cyclesPerMilli, cyclesPerMilliFraction);
+    long remainder = millis * frequency - cycles * 1000;
+    return cycles + (long) ((remainder + (msec - millis) * frequency) / 1000);
+  }
+
+  public String toString() {
+    return name + ": " + frequency + " Hz";
+  }
+
+}
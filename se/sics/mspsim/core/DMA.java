@@ -36,6 +36,7 @@ public class DMA extends IOUnit {
     
     private InterruptMultiplexer interruptMultiplexer;
     
+    @State
     class Channel implements InterruptHandler {
         int channelNo;
         /* public registers */
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * DecodedInstruction
+ *
+ * An instruction that has been fetched and decoded once and that can be
+ * executed again without going through the memory segments. The
+ * operation, access mode, registers, addressing modes and the cycles of
+ * double operand instructions are decoded here and used directly by the
+ * interpreter.
+ */
+
+package se.sics.mspsim.core;
+import se.sics.mspsim.core.Memory.AccessMode;
+
+final class DecodedInstruction implements MSP430Constants {
+
+  /* Max size of an instruction: extension word + instruction + two arguments */
+  public static final int MAX_SIZE = 8;
+
+  /* address of the first word (the extension word if any) */
+  final int address;
+
+  final int extWord;
+  final int instruction;
+  final int op;
+
+  /* MSP430X extension word fields */
+  final int ext3_0;
+  final int extSrc;
+  final int extDst;
+  final boolean repeatsInDstReg;
+  final boolean wordx20;
+
+  final boolean word;
+  final AccessMode mode;
+  final int srcRegister;
+  final int dstRegister;
+  /* source addressing mode (destination mode for single operand) */
+  final int as;
+  /* double operand instructions with register destination */
+  final boolean dstRegMode;
+  /* cycles of double operand instructions - other formats add their
+   * cycles while executing since they depend on the operation */
+  final int cycles;
+
+  /* the argument words following the instruction word */
+  final int argAddress;
+  final int argCount;
+  final int arg0;
+  final int arg1;
+
+  /* size in bytes including extension word and arguments */
+  final int size;
+
+  DecodedInstruction(int address, int extWord, int instruction, int arg0, int arg1) {
+    this.address = address;
+    this.extWord = extWord;
+    this.instruction = instruction;
+    this.op = instruction >> 12;
+    if (extWord != 0) {
+      ext3_0 = extWord & 0xf;
+      extSrc = ((extWord >> 7) & 0xf) << 16;
+      extDst = ext3_0 << 16;
+      repeatsInDstReg = (extWord & EXTWORD_REPEAT) == EXTWORD_REPEAT;
+      wordx20 = (extWord & EXTWORD_AL) == 0;
+      argAddress = address + 4;
+    } else {
+      ext3_0 = 0;
+      extSrc = 0;
+      extDst = 0;
+      repeatsInDstReg = false;
+      wordx20 = false;
+      argAddress = address + 2;
+    }
+    word = (instruction & 0x40) == 0;
+    mode = wordx20 ? AccessMode.WORD20 : (word ? AccessMode.WORD : AccessMode.BYTE);
+    srcRegister = (instruction >> 8) & 0xf;
+    dstRegister = instruction & 0xf;
+    as = (instruction >> 4) & 3;
+    dstRegMode = ((instruction >> 7) & 1) == 0;
+    cycles = op >= 4 ? getDoubleOperandCycles(instruction) : 0;
+    argCount = getArgumentCount(instruction);
+    this.arg0 = arg0;
+    this.arg1 = arg1;
+    size = argAddress - address + argCount * 2;
+  }
+
+  /* returns true if the instruction might change the program flow */
+  boolean changesFlow() {
+    switch (op) {
+    case 0:
+      /* MSP430X address instructions with PC as destination (incl. RETA) */
+      return dstRegister == PC;
+    case 1:
+      /* CALL, RETI, CALLA, PUSHM/POPM or single operand on PC */
+      return (instruction & 0xff80) >= CALL || dstRegister == PC;
+    case 2:
+    case 3:
+      return true;
+    default:
+      /* double operand instructions with PC as destination register */
+      return dstRegister == PC && (instruction & 0x80) == 0;
+    }
+  }
+
+  /* returns the cycles of a double operand instruction */
+  static int getDoubleOperandCycles(int instruction) {
+    int srcRegister = (instruction >> 8) & 0xf;
+    int dstRegister = instruction & 0xf;
+    int as = (instruction >> 4) & 3;
+    boolean dstRegMode = ((instruction >> 7) & 1) == 0;
+    if ((srcRegister == CG1 && as > AM_INDEX) || srcRegister == CG2) {
+      /* constant generator */
+      return dstRegMode ? 1 : 4;
+    }
+    switch (as) {
+    case AM_REG:
+      /* add cycle if destination register = PC */
+      return (dstRegMode ? 1 : 4) + (dstRegister == PC ? 1 : 0);
+    case AM_INDEX:
+      return dstRegMode ? 3 : 6;
+    case AM_IND_REG:
+      return dstRegMode ? 2 : 5;
+    default:
+      return (dstRegMode ? 2 : 5) + (dstRegister == PC ? 1 : 0);
+    }
+  }
+
+  /* returns the number of argument words the instruction reads after the
+   * instruction word (index, absolute and immediate operands) */
+  static int getArgumentCount(int instruction) {
+    switch (instruction >> 12) {
+    case 0:
+      switch (instruction & 0xf0f0) {
+      case MOVA_ABS2REG:
+      case MOVA_INDX2REG:
+      case MOVA_REG2ABS:
+      case MOVA_REG2INDX:
+      case MOVA_IMM2REG:
+      case CMPA_IMM:
+      case ADDA_IMM:
+      case SUBA_IMM:
+        return 1;
+      default:
+        return 0;
+      }
+    case 1: {
+      int op = instruction & CALLA_MASK;
+      if (op > RETI) {
+        return op == CALLA_INDEX || op == CALLA_IMM || op == CALLA_ABS ? 1 : 0;
+      }
+      int dstRegister = instruction & 0xf;
+      int ad = (instruction >> 4) & 3;
+      if ((dstRegister == CG1 && ad > AM_INDEX) || dstRegister == CG2) {
+        return 0;
+      }
+      if (ad == AM_INDEX || (ad == AM_IND_AUTOINC && dstRegister == PC)) {
+        return 1;
+      }
+      return 0;
+    }
+    case 2:
+    case 3:
+      return 0;
+    default: {
+      int count = 0;
+      int srcRegister = (instruction >> 8) & 0xf;
+      int as = (instruction >> 4) & 3;
+      if (!((srcRegister == CG1 && as > AM_INDEX) || srcRegister == CG2)) {
+        if (as == AM_INDEX || (as == AM_IND_AUTOINC && srcRegister == PC)) {
+          count++;
+        }
+      }
+      if (((instruction >> 7) & 1) != 0) {
+        count++;
+      }
+      return count;
+    }
+    }
+  }
+
+}
@@ -43,6 +43,7 @@ package se.sics.mspsim.core;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 
+import se.sics.mspsim.core.Memory.AccessMode;
 import se.sics.mspsim.util.MapEntry;
 import se.sics.mspsim.util.MapTable;
 import se.sics.mspsim.util.Utils;
@@ -66,11 +67,11 @@ public class DisAsm implements MSP430Constants {
     return map;
   }
 
-  public DbgInstruction disassemble(int pc, int[] memory, int[] reg) {
+  public DbgInstruction disassemble(int pc, ByteMemory memory, int[] reg) {
     return disassemble(pc, memory, reg, 0);
   }
 
-  public DbgInstruction disassemble(int pc, int[] memory, int[] reg,
+  public DbgInstruction disassemble(int pc, ByteMemory memory, int[] reg,
 				 int interrupt) {
     DbgInstruction dbg = disassemble(pc, memory, reg, new DbgInstruction(),
 				     interrupt);
@@ -96,11 +97,11 @@ public class DisAsm implements MSP430Constants {
 		       cpu.servicedInterrupt);
   }
 
-  public DbgInstruction disassemble(int pc, int[] memory, int[] reg,
+  public DbgInstruction disassemble(int pc, ByteMemory memory, int[] reg,
 					   DbgInstruction dbg, int interrupt) {
     int startPC = pc;
     int size = 0;
-    int instruction = memory[pc] + (memory[pc + 1] << 8);
+    int instruction = memory.get(pc, AccessMode.WORD);
     int op = instruction >> 12;
     boolean word = (instruction & 0x40) == 0;
 
@@ -136,7 +137,7 @@ public class DisAsm implements MSP430Constants {
         op = instruction & 0xf0f0;
         int srcdata = (instruction & 0x0f00) >> 8;
         int dst = instruction & 0x000f;
-        int nextData = memory[pc] + (memory[pc + 1] << 8);
+        int nextData = memory.get(pc, AccessMode.WORD);
         boolean rrword = true;
 
         switch(op) {
@@ -222,7 +223,7 @@ public class DisAsm implements MSP430Constants {
     {
         /* check CALLA first */
         int dst = instruction & 0x000f;
-        int nextData = memory[pc] + (memory[pc + 1] << 8);
+        int nextData = memory.get(pc, AccessMode.WORD);
         String opstr = null;
         switch(instruction & 0xfff0) {
         case CALLA_REG:
@@ -281,7 +282,7 @@ public class DisAsm implements MSP430Constants {
                 adr = "R" + register;
                 break;
             case AM_INDEX:
-                dstAddress = memory[pc] + (memory[pc + 1] << 8);
+                dstAddress = memory.get(pc, AccessMode.WORD);
                 adr = "R" + register + "(" + dstAddress + ")";
                 dstAddress = (register == CG1 ? 0 : reg[register]) + dstAddress;
                 pc += 2;
@@ -295,7 +296,7 @@ public class DisAsm implements MSP430Constants {
             case AM_IND_AUTOINC:
                 if (register == 0) {
                     // Can this be PC and be incremented only one byte?
-                    int tmp = memory[pc] + (memory[pc + 1] << 8);
+                    int tmp = memory.get(pc, AccessMode.WORD);
                     MapEntry me;
                     if (map != null && (me = map.getEntry(tmp)) != null) {
                         adr = me.getName(); // + " = $" + Utils.hex16(tmp);
@@ -429,7 +430,7 @@ public class DisAsm implements MSP430Constants {
       case AM_INDEX:
 	// Indexed if reg != PC & CG1/CG2 - will PC be incremented?
 	if (srcRegister == CG1) {
-	  srcAddress = memory[pc] + (memory[pc + 1] << 8);
+	  srcAddress = memory.get(pc, AccessMode.WORD);
 
 	  MapEntry me;
 	  if (map != null && (me = map.getEntry(srcAddress)) != null) {
@@ -441,8 +442,8 @@ public class DisAsm implements MSP430Constants {
 	} else if (srcRegister == CG2) {
 	  srcadr = "#1";
 	} else {
-	  srcAddress = reg[srcRegister] + memory[pc] + (memory[pc + 1] << 8);
-	  srcadr = "$" + Utils.hex16(memory[pc] + (memory[pc + 1] << 8)) + "(R" + srcRegister + ")";
+	  srcAddress = reg[srcRegister] + memory.get(pc, AccessMode.WORD);
+	  srcadr = "$" + Utils.hex16(memory.get(pc, AccessMode.WORD)) + "(R" + srcRegister + ")";
 	  size += 2;
 	}
 	pc += 2;
@@ -463,7 +464,7 @@ public class DisAsm implements MSP430Constants {
 	} else if (srcRegister == CG1) {
 	  srcadr = "#8";
 	} else if (srcRegister == PC) {
-	  srcadr = "#$" + Utils.hex16(memory[pc] + (memory[pc + 1] << 8));
+	  srcadr = "#$" + Utils.hex16(memory.get(pc, AccessMode.WORD));
 	  pc += 2;
 	  size += 2;
 	} else if (srcRegister == CG2) {
@@ -478,7 +479,7 @@ public class DisAsm implements MSP430Constants {
       if (dstRegMode) {
 	dstadr = getRegName(dstRegister);
       } else {
-	dstAddress = memory[pc] + (memory[pc + 1] << 8);
+	dstAddress = memory.get(pc, AccessMode.WORD);
         MapEntry me = map != null ? map.getEntry(dstAddress) : null;
 	if (dstRegister == 2) {
 	  if (me != null) {
@@ -564,8 +565,8 @@ public class DisAsm implements MSP430Constants {
       srcAddress &= 0xffff;
       if (srcAddress != -1) {
 	srcAddress &= 0xffff;
-	regs += " sMem:" + Utils.hex16(memory[srcAddress] +
-				       (memory[(srcAddress + 1) % 0xffff]
+	regs += " sMem:" + Utils.hex16(memory.get(srcAddress) +
+				       (memory.get((srcAddress + 1) % 0xffff)
 					<< 8));
       }
     }
@@ -629,11 +630,11 @@ public class DisAsm implements MSP430Constants {
       (((sr & CARRY) != 0) ? 'C' : '-');
   }
 
-  private static String dumpMem(int pc, int size, int[] memory) {
+  private static String dumpMem(int pc, int size, ByteMemory memory) {
     String output = "";
     for (int i = 0, n = size; i < n; i++) {
       if (size > i) {
-	output += Utils.hex8(memory[pc + i]) + " ";
+	output += Utils.hex8(memory.get(pc + i)) + " ";
       } else {
 	output += "   ";
       }
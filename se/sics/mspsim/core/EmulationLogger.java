@@ -10,7 +10,7 @@ public interface EmulationLogger {
       EMULATION_ERROR, EXECUTION,
       MISALIGNED_READ, MISALIGNED_WRITE,
       ADDRESS_OUT_OF_BOUNDS_READ, ADDRESS_OUT_OF_BOUNDS_WRITE,
-      ILLEGAL_IO_WRITE, VOID_IO_READ, VOID_IO_WRITE
+      ILLEGAL_IO_WRITE, VOID_IO_READ, VOID_IO_WRITE, LIVELOCK
   };
   
   public void log(Loggable source, String message);
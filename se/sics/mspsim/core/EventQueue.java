@@ -33,6 +33,14 @@
  *
  * EventQueue
  *
+ * Indexed binary heap of time events. Each event knows its position in the
+ * heap so that it can be removed or rescheduled in O(log n). Events with the
+ * same time are executed in the order they were scheduled.
+ *
+ * The heap is ordered by the queue time of the events which is the same as
+ * the event time unless the event is scheduled in another time domain
+ * (the CPU keeps virtual time events ordered by their cycle deadlines).
+ *
  * Author  : Joakim Eriksson
  * Created : Sun Oct 21 22:00:00 2007
  * Updated : $Date$
@@ -42,130 +50,194 @@
 package se.sics.mspsim.core;
 
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
 
+@State
 public class EventQueue {
 
-  private TimeEvent first;
+  private static final Comparator<TimeEvent> ORDER = new Comparator<TimeEvent>() {
+    @Override
+    public int compare(TimeEvent e1, TimeEvent e2) {
+      return before(e1, e2) ? -1 : (before(e2, e1) ? 1 : 0);
+    }
+  };
+
+  private TimeEvent[] heap = new TimeEvent[16];
+  private long sequence;
   public long nextTime;
   public int eventCount = 0;
 
+  // Optional statistics, see EventStatistics
+  @NotState EventStatistics statistics;
+
   public EventQueue() {
   }
 
   public void addEvent(TimeEvent event, long time) {
-    event.time = time;
-    addEvent(event);
+    addEvent(event, time, time);
   }
 
   public void addEvent(TimeEvent event) {
-    if (event.scheduledIn != null) {
+    addEvent(event, event.time, event.time);
+  }
+
+  void addEvent(TimeEvent event, long time, long queueTime) {
+    int index = event.heapIndex;
+    boolean reschedule = event.scheduledIn == this
+        && index >= 0 && index < eventCount && heap[index] == event;
+    if (reschedule) {
+      removeAt(index);
+    } else if (event.scheduledIn != null) {
       event.remove();
     }
-    if (first == null) {
-      first = event;
-    } else {
-      TimeEvent pos = first;
-      TimeEvent lastPos = first;
-      while (pos != null && pos.time < event.time) {
-        lastPos = pos;
-        pos = pos.nextEvent;
-      }
-      // Here pos will be the first TE after event
-      // and lastPos the first before
-      if (pos == first) {
-        // Before all other
-        event.nextEvent = pos;
-        first = event;
-      } else {
-        event.nextEvent = pos;
-        lastPos.nextEvent = event;
-      }
-    }
-    if (first != null) {
-      nextTime = first.time;
-    } else {
-      nextTime = 0;
+    event.time = time;
+    event.queueTime = queueTime;
+    if (eventCount == heap.length) {
+      heap = Arrays.copyOf(heap, eventCount * 2);
     }
+    event.sequence = sequence++;
     event.scheduledIn = this;
-    eventCount++;
+    siftUp(eventCount++, event);
+    nextTime = heap[0].queueTime;
+    if (statistics != null) {
+      statistics.scheduled(event, reschedule);
+    }
   }
 
-  // Not yet impl.
-  public boolean removeEvent(TimeEvent event) {
-    TimeEvent pos = first;
-    TimeEvent lastPos = first;
-//  System.out.println("Removing: " + event.getShort() + "  Before remove: ");
-//  print();
-    while (pos != null && pos != event) {
-      lastPos = pos;
-      pos = pos.nextEvent;
+  TimeEvent peekFirst() {
+    return eventCount > 0 ? heap[0] : null;
+  }
+
+  /* Returns the scheduled event at the specified heap position */
+  TimeEvent get(int index) {
+    return heap[index];
+  }
+
+  /* Restores the heap order after the queue times of the events have been changed */
+  void reorder() {
+    for (int i = (eventCount >> 1) - 1; i >= 0; i--) {
+      siftDown(i, heap[i]);
     }
-    if (pos == null) return false;
-    // pos == event!
-    if (pos == first) {
-      // remove it from first pos.
-      first = pos.nextEvent;
-    } else {
-      // else link prev to next...
-      lastPos.nextEvent = pos.nextEvent;
+    nextTime = eventCount > 0 ? heap[0].queueTime : 0;
+  }
+
+  /* Drops the events that are no longer scheduled in this queue, for
+   * example events that are not part of a restored snapshot */
+  void removeUnscheduled() {
+    int count = 0;
+    for (int i = 0; i < eventCount; i++) {
+      TimeEvent event = heap[i];
+      if (event.scheduledIn == this) {
+        event.heapIndex = count;
+        heap[count++] = event;
+      }
     }
-    // unlink
-    pos.nextEvent = null;
+    Arrays.fill(heap, count, eventCount, null);
+    eventCount = count;
+    reorder();
+  }
 
-    if (first != null) {
-      nextTime = first.time;
-    } else {
-      nextTime = 0;
+  public boolean removeEvent(TimeEvent event) {
+    int index = event.heapIndex;
+    if (event.scheduledIn != this || index < 0 || index >= eventCount || heap[index] != event) {
+      return false;
+    }
+    removeAt(index);
+    if (statistics != null) {
+      statistics.removed(event);
     }
-//  System.out.println("Removed =>");
-//  print();
-    event.scheduledIn = null;
-    eventCount--;
     return true;
   }
 
   public TimeEvent popFirst() {
-    TimeEvent tmp = first;
-    if (tmp != null) {
-      first = tmp.nextEvent;
-      // Unlink.
-      tmp.nextEvent = null;
-
-      // No longer scheduled!
-      tmp.scheduledIn = null;
-
-      eventCount--;
-    }
-
-    if (first != null) {
-      nextTime = first.time;
-    } else {
+    if (eventCount == 0) {
       nextTime = 0;
+      return null;
     }
+    TimeEvent tmp = heap[0];
+    removeAt(0);
     return tmp;
   }
 
   public void removeAll() {
-    TimeEvent t = first;
-    while(t != null) {
-      TimeEvent clr = t;
-      t = t.nextEvent;
-      clr.nextEvent = null;
+    for (int i = 0; i < eventCount; i++) {
+      TimeEvent clr = heap[i];
+      heap[i] = null;
+      clr.heapIndex = -1;
       clr.time = 0;
       clr.scheduledIn = null;
     }
-    first = null;
     eventCount = 0;
+    nextTime = 0;
+  }
+
+  private void removeAt(int index) {
+    TimeEvent event = heap[index];
+    int last = --eventCount;
+    TimeEvent moved = heap[last];
+    heap[last] = null;
+    if (index < last) {
+      siftDown(index, moved);
+      if (heap[index] == moved) {
+        siftUp(index, moved);
+      }
+    }
+    // No longer scheduled!
+    event.heapIndex = -1;
+    event.scheduledIn = null;
+    nextTime = eventCount > 0 ? heap[0].queueTime : 0;
   }
-  
+
+  private static boolean before(TimeEvent e1, TimeEvent e2) {
+    return e1.queueTime < e2.queueTime
+        || (e1.queueTime == e2.queueTime && e1.sequence < e2.sequence);
+  }
+
+  private void siftUp(int index, TimeEvent event) {
+    while (index > 0) {
+      int parent = (index - 1) >> 1;
+      TimeEvent p = heap[parent];
+      if (!before(event, p)) {
+        break;
+      }
+      heap[index] = p;
+      p.heapIndex = index;
+      index = parent;
+    }
+    heap[index] = event;
+    event.heapIndex = index;
+  }
+
+  private void siftDown(int index, TimeEvent event) {
+    int half = eventCount >> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      TimeEvent c = heap[child];
+      int right = child + 1;
+      if (right < eventCount && before(heap[right], c)) {
+        child = right;
+        c = heap[child];
+      }
+      if (!before(c, event)) {
+        break;
+      }
+      heap[index] = c;
+      c.heapIndex = index;
+      index = child;
+    }
+    heap[index] = event;
+    event.heapIndex = index;
+  }
+
   public void print(PrintStream out) {
-    TimeEvent t = first;
+    TimeEvent[] events = Arrays.copyOf(heap, eventCount);
+    Arrays.sort(events, ORDER);
     out.print("nxt: " + nextTime + " [");
-    while(t != null) {
-      out.print(t.getShort());
-      t = t.nextEvent;
-      if (t != null) out.print(", ");
+    for (int i = 0; i < events.length; i++) {
+      if (i > 0) out.print(", ");
+      out.print(events[i].getShort());
     }
     out.println("]");
   }
-} // LLEventQueue
+} // EventQueue
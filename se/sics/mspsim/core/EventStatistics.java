@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * EventStatistics
+ *
+ * Counters for the events handled by the CPU event queue. The counters are
+ * kept per event name (or class name for unnamed events) and are always
+ * enabled - the statistics entry is looked up once per event object.
+ */
+
+package se.sics.mspsim.core;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import se.sics.mspsim.util.DataSource;
+
+public class EventStatistics {
+
+  public static class Entry {
+    public final String name;
+    long executed;
+    long scheduled;
+    long rescheduled;
+    long removed;
+    long totalLateness;
+    long maxLateness;
+
+    Entry(String name) {
+      this.name = name;
+    }
+
+    public long getExecuted() {
+      return executed;
+    }
+
+    public long getScheduled() {
+      return scheduled;
+    }
+
+    public long getRescheduled() {
+      return rescheduled;
+    }
+
+    public long getRemoved() {
+      return removed;
+    }
+
+    /* Returns the average number of cycles the events were executed after their deadline */
+    public double getAverageLateness() {
+      return executed > 0 ? (double) totalLateness / executed : 0.0;
+    }
+
+    public long getMaxLateness() {
+      return maxLateness;
+    }
+  }
+
+  // Added to by the emulation thread and read by the commands
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final EventQueue queue;
+
+  private long executed;
+  private long totalDepth;
+  private int maxDepth;
+
+  /* Sampled by the data sources */
+  private long lastExecuted;
+  private long lastLatenessCount;
+  private long lastLateness;
+  private long totalLateness;
+
+  private final DataSource executedSource = new DataSource() {
+    public int getValue() {
+      long tmp = executed - lastExecuted;
+      lastExecuted = executed;
+      return (int) tmp;
+    }
+    public double getDoubleValue() {
+      return getValue();
+    }
+  };
+
+  private final DataSource depthSource = new DataSource() {
+    public int getValue() {
+      return queue.eventCount;
+    }
+    public double getDoubleValue() {
+      return getValue();
+    }
+  };
+
+  private final DataSource latenessSource = new DataSource() {
+    public int getValue() {
+      return (int) getDoubleValue();
+    }
+    public double getDoubleValue() {
+      long count = executed - lastLatenessCount;
+      double avg = count > 0 ? (double) (totalLateness - lastLateness) / count : 0.0;
+      lastLatenessCount = executed;
+      lastLateness = totalLateness;
+      return avg;
+    }
+  };
+
+  EventStatistics(EventQueue queue) {
+    this.queue = queue;
+    queue.statistics = this;
+  }
+
+  private Entry getEntry(TimeEvent event) {
+    Entry entry = event.statEntry;
+    if (entry == null) {
+      String name = event.name != null ? event.name : event.getClass().getName();
+      entry = entries.get(name);
+      if (entry == null) {
+        entry = new Entry(name);
+        entries.put(name, entry);
+      }
+      event.statEntry = entry;
+    }
+    return entry;
+  }
+
+  void scheduled(TimeEvent event, boolean reschedule) {
+    Entry entry = getEntry(event);
+    if (reschedule) {
+      entry.rescheduled++;
+    } else {
+      entry.scheduled++;
+    }
+    if (queue.eventCount > maxDepth) {
+      maxDepth = queue.eventCount;
+    }
+  }
+
+  void removed(TimeEvent event) {
+    getEntry(event).removed++;
+  }
+
+  /* Called before the event is removed from the queue and executed */
+  void executed(TimeEvent event, long lateness) {
+    Entry entry = getEntry(event);
+    entry.executed++;
+    entry.totalLateness += lateness;
+    if (lateness > entry.maxLateness) {
+      entry.maxLateness = lateness;
+    }
+    executed++;
+    totalLateness += lateness;
+    totalDepth += queue.eventCount;
+  }
+
+  public long getExecuted() {
+    return executed;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /* Returns the average queue depth seen by the executed events */
+  public double getAverageDepth() {
+    return executed > 0 ? (double) totalDepth / executed : 0.0;
+  }
+
+  public double getAverageLateness() {
+    return executed > 0 ? (double) totalLateness / executed : 0.0;
+  }
+
+  public Entry[] getEntries() {
+    return entries.values().toArray(new Entry[entries.size()]);
+  }
+
+  /**
+   * Returns a data source for the specified value: "executed" (number of
+   * events executed since last read), "depth" (current queue depth) or
+   * "lateness" (average lateness in cycles since last read). The data
+   * sources are available to the duty command as events.executed,
+   * events.depth and events.lateness.
+   */
+  public DataSource getDataSource(String name) {
+    if ("executed".equals(name)) {
+      return executedSource;
+    }
+    if ("depth".equals(name)) {
+      return depthSource;
+    }
+    if ("lateness".equals(name)) {
+      return latenessSource;
+    }
+    return null;
+  }
+
+  public void reset() {
+    for (Entry entry : entries.values()) {
+      entry.executed = 0;
+      entry.scheduled = 0;
+      entry.rescheduled = 0;
+      entry.removed = 0;
+      entry.totalLateness = 0;
+      entry.maxLateness = 0;
+    }
+    executed = 0;
+    totalDepth = 0;
+    totalLateness = 0;
+    lastExecuted = 0;
+    lastLatenessCount = 0;
+    lastLateness = 0;
+    maxDepth = queue.eventCount;
+  }
+
+  public void print(PrintStream out) {
+    out.println("Events executed: " + executed + "  queue depth: " + queue.eventCount
+        + " (max " + maxDepth + ", avg " + format(getAverageDepth()) + ")"
+        + "  avg lateness: " + format(getAverageLateness()) + " cycles");
+    ArrayList<Entry> list = new ArrayList<Entry>(entries.values());
+    Collections.sort(list, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2) {
+        return e1.executed > e2.executed ? -1 : (e1.executed < e2.executed ? 1 : e1.name.compareTo(e2.name));
+      }
+    });
+    out.println(" Executed  Scheduled  Resched.  Removed  Avg late  Max late  Event");
+    for (Entry entry : list) {
+      out.printf("%9d %10d %9d %8d %9s %9d  %s%n", entry.executed, entry.scheduled,
+          entry.rescheduled, entry.removed, format(entry.getAverageLateness()),
+          entry.maxLateness, entry.name);
+    }
+  }
+
+  private static String format(double value) {
+    return String.format("%.1f", value);
+  }
+
+}
@@ -36,8 +36,6 @@
  */
 package se.sics.mspsim.core;
 
-import java.util.Arrays;
-
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.core.Memory.AccessMode;
 import se.sics.mspsim.util.Utils;
@@ -106,6 +104,7 @@ public class Flash extends IOUnit {
   private static final int FN_MASK = 0x3f;
   private static final int LOCKINFO = 0x80;
 
+  private final ByteMemory flashMemory;
   private FlashRange main_range;
   private FlashRange info_range;
   
@@ -129,7 +128,7 @@ public class Flash extends IOUnit {
    */
   private boolean lockInfo = true;
   
-  private TimeEvent end_process = new TimeEvent(0) {
+  private TimeEvent end_process = new TimeEvent(0, this) {
     public void execute(long t) {
       blocked_cpu = false;
       
@@ -178,15 +177,18 @@ public class Flash extends IOUnit {
     }
   };
   
-  public Flash(MSP430Core cpu, int[] memory, FlashRange main_range,
+  public Flash(MSP430Core cpu, ByteMemory flashMemory, FlashRange main_range,
       FlashRange info_range, int offset) {
-    super("Flash", "Internal Flash", cpu, memory, offset);
+    super("Flash", "Internal Flash", cpu, cpu.ioMemory, offset);
+    this.flashMemory = flashMemory;
     this.main_range = main_range;
     this.info_range = info_range;
     locked = true;
 
-    Arrays.fill(memory, main_range.start, main_range.end, 0xff);
-    Arrays.fill(memory, info_range.start, info_range.end, 0xff);
+    flashMemory.setFlash(main_range.start, main_range.end);
+    flashMemory.setFlash(info_range.start, info_range.end);
+    flashMemory.fill(main_range.start, main_range.end, 0xff);
+    flashMemory.fill(info_range.start, info_range.end, 0xff);
 
     reset(MSP430.RESET_POR);
   }
@@ -231,7 +233,7 @@ public class Flash extends IOUnit {
       finish_msec = ((double)time * freqdiv * 1000) / cpu.aclkFrq;
       if (DEBUG)
         log("Using ACLK source with f=" + myfreq + "Hz. Time required=" + finish_msec + " ms");
-      cpu.scheduleTimeEventMillis(end_process, finish_msec);
+      cpu.scheduleTimeEventIn(end_process, cpu.getACLK().toTime((long)time * freqdiv));
       break;
       
     case SMCLK:
@@ -240,14 +242,14 @@ public class Flash extends IOUnit {
       /* if (DEBUG)
 	System.out.println("Flash: Using SMCLK source with f=" + myfreq 
 	    + " Hz\nFlash: Time required=" + finish_msec + " ms"); */
-      cpu.scheduleTimeEventMillis(end_process, finish_msec);
+      cpu.scheduleTimeEventIn(end_process, cpu.getSMCLK().toTime((long)time * freqdiv));
       break;
 
       
     case MCLK:
       if (DEBUG)
 	log("Using MCLK source with div=" + freqdiv);
-      cpu.scheduleCycleEvent(end_process, (long)time * freqdiv);
+      cpu.scheduleCycleEventIn(end_process, (long)time * freqdiv);
       break;
     }
   }
@@ -292,9 +294,8 @@ public class Flash extends IOUnit {
 	    ": erasing area " + Utils.hex(area_start, 4) + "-" +
 	    Utils.hex(area_end, 4));
       }
-      for (int i = area_start; i < area_end; i++) {
-	memory[i] = 0xff;
-      }
+      flashMemory.fill(area_start, area_end, 0xff);
+      cpu.invalidateInstructions(area_start, area_end - area_start);
       waitFlashProcess(SEGMENT_ERASE_TIME);
       break;
       
@@ -302,19 +303,16 @@ public class Flash extends IOUnit {
       if (! main_range.isInRange(address)) {
 	return;
       }
-      for (int i = main_range.start; i < main_range.end; i++) {
-	memory[i] = 0xff;
-      }
+      flashMemory.fill(main_range.start, main_range.end, 0xff);
+      cpu.invalidateInstructions(main_range.start, main_range.end - main_range.start);
       waitFlashProcess(MASS_ERASE_TIME);
       break;
       
     case ERASE_ALL:
-      for (int i = main_range.start; i < main_range.end; i++) {
-	memory[i] = 0xff;
-      }
-      for (int i = info_range.start; i < main_range.end; i++) {
-	memory[i] = 0xff;
-      }
+      flashMemory.fill(main_range.start, main_range.end, 0xff);
+      flashMemory.fill(info_range.start, main_range.end, 0xff);
+      cpu.invalidateInstructions(main_range.start, main_range.end - main_range.start);
+      cpu.invalidateInstructions(info_range.start, info_range.end - info_range.start);
       waitFlashProcess(MASS_ERASE_TIME);
       break;
     case WRITE_SINGLE:
@@ -338,15 +336,9 @@ public class Flash extends IOUnit {
         wait_time = WRITE_TIME;
       }
       /* Flash memory allows clearing bits only */
-      memory[address] &= data & 0xff;
-      if (dataMode != AccessMode.BYTE) {
-          memory[address + 1] &= (data >> 8) & 0xff;
-          if (dataMode == AccessMode.WORD20) {
-              /* TODO should the write really write the full word? CHECK THIS */
-              memory[address + 2] &= (data >> 16) & 0xff;
-              memory[address + 3] &= (data >> 24) & 0xff;
-          }
-      }
+      cpu.invalidateInstructions(address, dataMode.bytes);
+      /* TODO should the write really write the full word? CHECK THIS */
+      flashMemory.and(address, data, dataMode);
       if (DEBUG) {
         log("Writing $" + Utils.hex20(data) + " to $" + Utils.hex(address, 4) + " (" + dataMode.bytes + " bytes)");
       }
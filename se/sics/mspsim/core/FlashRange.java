@@ -34,6 +34,7 @@
  */
 package se.sics.mspsim.core;
 
+@State
 public class FlashRange {
   public int start;
   public int end;
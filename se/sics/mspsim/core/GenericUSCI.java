@@ -73,7 +73,7 @@ public class GenericUSCI extends IOUnit implements DMATrigger, USARTSource {
     private final int uartIndex;
     private final int vector;
 
-    private TimeEvent txTrigger = new TimeEvent(0) {
+    private TimeEvent txTrigger = new TimeEvent(0, this) {
         public void execute(long t) {
             // Ready to transmit new byte!
             handleTransmit(t);
@@ -399,6 +399,12 @@ public class GenericUSCI extends IOUnit implements DMATrigger, USARTSource {
         return 0;
     }
 
+    /* Reading the receive buffer clears the receive flag */
+    @Override
+    public boolean isStableRead(int address) {
+        return address - offset != RXBUF;
+    }
+
     /* reuse USART listener API for USCI */
     @Override
     public synchronized void addUSARTListener(USARTListener listener) {
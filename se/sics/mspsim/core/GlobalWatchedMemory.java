@@ -1,12 +1,50 @@
 package se.sics.mspsim.core;
 
+import java.util.EnumSet;
+
+import se.sics.mspsim.util.ArrayUtils;
+
 public class GlobalWatchedMemory implements Memory {
 
+    /* A global monitor with the address range and access types it watches */
+    private static final class Filter {
+        final int start;
+        final int end;
+        final int types;
+        final MemoryMonitor monitor;
+
+        Filter(int start, int end, int types, MemoryMonitor monitor) {
+            this.start = start;
+            this.end = end;
+            this.types = types;
+            this.monitor = monitor;
+        }
+
+        boolean matches(int address, AccessMode mode, int type) {
+            return (types & type) != 0 && address < end && address + mode.bytes > start;
+        }
+    }
+
+    private static final Filter[] NO_FILTERS = new Filter[0];
+
+    /* Max number of bytes of an access */
+    private static final int MAX_ACCESS_SIZE = 4;
+
+    private static final int READ = 1 << AccessType.READ.ordinal();
+    private static final int EXECUTE = 1 << AccessType.EXECUTE.ordinal();
+    private static final int ARG = 1 << AccessType.ARG.ordinal();
+    private static final int WRITE = 1 << AccessType.WRITE.ordinal();
+
     private final Memory wrappedMemory;
-    private MemoryMonitor monitor;
+    private final HostTimeStatistics hostTime;
+    private Filter[] filters = NO_FILTERS;
+    /* The access types (as bits by ordinal) watched in each segment */
+    private final int[] segmentTypes;
 
-    GlobalWatchedMemory(Memory wrapped) {
+    GlobalWatchedMemory(Memory wrapped, int size, HostTimeStatistics hostTime) {
         this.wrappedMemory = wrapped;
+        this.hostTime = hostTime;
+        this.segmentTypes = new int[size >> 8];
     }
 
     public Memory getWatchedMemory() {
@@ -14,41 +52,119 @@ public class GlobalWatchedMemory implements Memory {
     }
 
     public boolean hasGlobalMonitor() {
-        return monitor != null;
+        return filters.length > 0;
+    }
+
+    /* Returns true if data reads or writes in the segment are watched */
+    boolean isDataWatched(int segment) {
+        return (segmentTypes[segment] & (READ | WRITE)) != 0;
+    }
+
+    /* Returns true if instruction fetches in the segment are watched */
+    boolean isFetchWatched(int segment) {
+        return (segmentTypes[segment] & (READ | EXECUTE | ARG)) != 0;
     }
 
     public synchronized void addGlobalMonitor(MemoryMonitor mon) {
-        monitor = MemoryMonitor.Proxy.INSTANCE.add(monitor, mon);
+        addGlobalMonitor(0, segmentTypes.length << 8, EnumSet.allOf(AccessType.class), mon);
+    }
+
+    /**
+     * Adds a monitor for the accesses of the specified types that overlap
+     * the addresses from start (inclusive) to end (exclusive).
+     */
+    public synchronized void addGlobalMonitor(int start, int end, EnumSet<AccessType> types, MemoryMonitor mon) {
+        int typeBits = 0;
+        for (AccessType type : types) {
+            typeBits |= 1 << type.ordinal();
+        }
+        Filter[] filters = ArrayUtils.add(Filter.class, this.filters, new Filter(start, end, typeBits, mon));
+        // The filters must be in place before an access can hit them
+        this.filters = filters;
+        updateSegmentTypes(filters);
     }
 
     public synchronized void removeGlobalMonitor(MemoryMonitor mon) {
-        monitor = MemoryMonitor.Proxy.INSTANCE.remove(monitor, mon);
+        Filter[] filters = this.filters;
+        for (Filter f : this.filters) {
+            if (f.monitor == mon) {
+                filters = ArrayUtils.remove(filters, f);
+            }
+        }
+        if (filters == null) {
+            filters = NO_FILTERS;
+        }
+        updateSegmentTypes(filters);
+        this.filters = filters;
+    }
+
+    private void updateSegmentTypes(Filter[] filters) {
+        int[] types = new int[segmentTypes.length];
+        for (Filter f : filters) {
+            /* accesses starting up to three bytes before the range can overlap it */
+            int first = Math.max(0, f.start - (MAX_ACCESS_SIZE - 1)) >> 8;
+            int last = (Math.min(f.end, types.length << 8) - 1) >> 8;
+            for (int i = first; i <= last; i++) {
+                types[i] |= f.types;
+            }
+        }
+        System.arraycopy(types, 0, segmentTypes, 0, types.length);
+    }
+
+    private boolean isWatched(int address, int type) {
+        int segment = address >> 8;
+        return segment < segmentTypes.length && (segmentTypes[segment] & type) != 0;
     }
 
     @Override
     public int read(int address, AccessMode mode, AccessType type) throws EmulationException {
-        final MemoryMonitor mon = monitor;
-        if (mon != null) {
-            mon.notifyReadBefore(address, mode, type);
+        final int typeBit = 1 << type.ordinal();
+        if (!isWatched(address, typeBit)) {
+            return wrappedMemory.read(address, mode, type);
+        }
+        final Filter[] filters = this.filters;
+        long t = hostTime.start();
+        for (Filter f : filters) {
+            if (f.matches(address, mode, typeBit)) {
+                f.monitor.notifyReadBefore(address, mode, type);
+            }
+        }
+        hostTime.monitor(t);
 
-            int val = wrappedMemory.read(address, mode, type);
+        int val = wrappedMemory.read(address, mode, type);
 
-            mon.notifyReadAfter(address, mode, type);
-            return val;
+        t = hostTime.start();
+        for (Filter f : filters) {
+            if (f.matches(address, mode, typeBit)) {
+                f.monitor.notifyReadAfter(address, mode, type);
+            }
         }
-        return wrappedMemory.read(address, mode, type);
+        hostTime.monitor(t);
+        return val;
     }
 
     @Override
     public void write(int dstAddress, int data, AccessMode mode) throws EmulationException {
-        MemoryMonitor mon = monitor;
-        if (mon != null) {
-            mon.notifyWriteBefore(dstAddress, data, mode);
-            wrappedMemory.write(dstAddress, data, mode);
-            mon.notifyWriteAfter(dstAddress, data, mode);
-        } else {
+        if (!isWatched(dstAddress, WRITE)) {
             wrappedMemory.write(dstAddress, data, mode);
+            return;
+        }
+        final Filter[] filters = this.filters;
+        long t = hostTime.start();
+        for (Filter f : filters) {
+            if (f.matches(dstAddress, mode, WRITE)) {
+                f.monitor.notifyWriteBefore(dstAddress, data, mode);
+            }
+        }
+        hostTime.monitor(t);
+        wrappedMemory.write(dstAddress, data, mode);
+        t = hostTime.start();
+        for (Filter f : filters) {
+            if (f.matches(dstAddress, mode, WRITE)) {
+                f.monitor.notifyWriteAfter(dstAddress, data, mode);
+            }
         }
+        hostTime.monitor(t);
     }
 
     @Override
@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * HostTimeStatistics
+ *
+ * Accounting of the host time used by a node, split into instruction
+ * execution, event handlers (per owning IOUnit or Chip) and monitors and
+ * profilers. The accounting is disabled by default and only reads the host
+ * clock around event handlers, monitor notifications and execution batches.
+ * The instruction execution time is the remaining time of the batches.
+ */
+
+package se.sics.mspsim.core;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import se.sics.mspsim.util.DataSource;
+
+public class HostTimeStatistics {
+
+  public static class Entry {
+    public final String name;
+    long nanos;
+    long maxNanos;
+    long executed;
+
+    Entry(String name) {
+      this.name = name;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public long getExecuted() {
+      return executed;
+    }
+  }
+
+  // Added to by the emulation thread and read by the commands
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  boolean enabled;
+
+  private long totalNanos;
+  private long eventNanos;
+  private long monitorNanos;
+  // True while an event is timed - monitors it triggers count as event time
+  private boolean inEvent;
+
+  /* Share of the host time in percent since last read */
+  private abstract class ShareSource implements DataSource {
+    private long last;
+    private long lastTotal;
+
+    abstract long getNanos();
+
+    public int getValue() {
+      return (int) getDoubleValue();
+    }
+
+    public double getDoubleValue() {
+      long nanos = getNanos();
+      if (totalNanos < lastTotal) {
+        // The statistics have been reset
+        last = lastTotal = 0;
+      }
+      double value = getPercent(nanos - last, totalNanos - lastTotal);
+      last = nanos;
+      lastTotal = totalNanos;
+      return value;
+    }
+  }
+
+  private final DataSource executionSource = new ShareSource() {
+    long getNanos() {
+      return getExecutionNanos();
+    }
+  };
+
+  private final DataSource eventSource = new ShareSource() {
+    long getNanos() {
+      return eventNanos;
+    }
+  };
+
+  private final DataSource monitorSource = new ShareSource() {
+    long getNanos() {
+      return monitorNanos;
+    }
+  };
+
+  HostTimeStatistics() {
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /* Returns the host time to pass to the accounting methods or 0 when disabled */
+  long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /* Called after a batch of instructions and events has been executed */
+  void executed(long start) {
+    if (start != 0) {
+      totalNanos += System.nanoTime() - start;
+    }
+  }
+
+  /* Returns the host time to pass to event() or 0 when disabled */
+  long startEvent() {
+    if (!enabled) {
+      return 0;
+    }
+    inEvent = true;
+    return System.nanoTime();
+  }
+
+  /* Called after a monitor or profiler has been notified */
+  void monitor(long start) {
+    if (start != 0 && !inEvent) {
+      monitorNanos += System.nanoTime() - start;
+    }
+  }
+
+  /* Called after an event has been executed */
+  void event(TimeEvent event, long start) {
+    if (start == 0) {
+      return;
+    }
+    inEvent = false;
+    long nanos = System.nanoTime() - start;
+    Entry entry = event.hostTimeEntry;
+    if (entry == null) {
+      String name = getOwnerName(event);
+      entry = entries.get(name);
+      if (entry == null) {
+        entry = new Entry(name);
+        entries.put(name, entry);
+      }
+      event.hostTimeEntry = entry;
+    }
+    entry.nanos += nanos;
+    entry.executed++;
+    if (nanos > entry.maxNanos) {
+      entry.maxNanos = nanos;
+    }
+    eventNanos += nanos;
+  }
+
+  /* Events are attributed to the IOUnit or Chip given when they were created */
+  private static String getOwnerName(TimeEvent event) {
+    if (event.owner != null) {
+      return event.owner.getName();
+    }
+    if (event.name != null) {
+      return event.name;
+    }
+    Class<?> type = event.getClass();
+    while (type.getEnclosingClass() != null) {
+      type = type.getEnclosingClass();
+    }
+    return type.getSimpleName();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public long getEventNanos() {
+    return eventNanos;
+  }
+
+  public long getMonitorNanos() {
+    return monitorNanos;
+  }
+
+  /* Returns the host time not used by events or monitors */
+  public long getExecutionNanos() {
+    long nanos = totalNanos - eventNanos - monitorNanos;
+    return nanos > 0 ? nanos : 0;
+  }
+
+  public Entry[] getEntries() {
+    return entries.values().toArray(new Entry[entries.size()]);
+  }
+
+  /**
+   * Returns a data source for the share of the host time, in percent since
+   * last read, used by "execution", "events" or "monitors". The data
+   * sources are available to the duty command as hosttime.execution,
+   * hosttime.events and hosttime.monitors.
+   */
+  public DataSource getDataSource(String name) {
+    if ("execution".equals(name)) {
+      return executionSource;
+    }
+    if ("events".equals(name)) {
+      return eventSource;
+    }
+    if ("monitors".equals(name)) {
+      return monitorSource;
+    }
+    return null;
+  }
+
+  /* The entries are kept since the events refer to them */
+  public void reset() {
+    for (Entry entry : entries.values()) {
+      entry.nanos = 0;
+      entry.maxNanos = 0;
+      entry.executed = 0;
+    }
+    totalNanos = 0;
+    eventNanos = 0;
+    monitorNanos = 0;
+  }
+
+  public void print(PrintStream out) {
+    out.println("Host time accounting: " + (enabled ? "enabled" : "disabled")
+        + "  total: " + formatMillis(totalNanos) + " ms");
+    out.println("  Execution: " + formatMillis(getExecutionNanos()) + " ms ("
+        + format(getPercent(getExecutionNanos(), totalNanos)) + "%)");
+    out.println("  Events:    " + formatMillis(eventNanos) + " ms ("
+        + format(getPercent(eventNanos, totalNanos)) + "%)");
+    out.println("  Monitors:  " + formatMillis(monitorNanos) + " ms ("
+        + format(getPercent(monitorNanos, totalNanos)) + "%)");
+    ArrayList<Entry> list = new ArrayList<Entry>(entries.values());
+    Collections.sort(list, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2) {
+        return e1.nanos > e2.nanos ? -1 : (e1.nanos < e2.nanos ? 1 : e1.name.compareTo(e2.name));
+      }
+    });
+    out.println("  Time (ms)  Share  Executed  Avg (ns)  Max (ns)  Owner");
+    for (Entry entry : list) {
+      out.printf("%11s %5s%% %9d %9d %9d  %s%n", formatMillis(entry.nanos),
+          format(getPercent(entry.nanos, totalNanos)), entry.executed,
+          entry.executed > 0 ? entry.nanos / entry.executed : 0,
+          entry.maxNanos, entry.name);
+    }
+  }
+
+  private static double getPercent(long nanos, long total) {
+    return total > 0 ? 100.0 * nanos / total : 0.0;
+  }
+
+  private static String formatMillis(long nanos) {
+    return String.format("%.1f", nanos / 1000000.0);
+  }
+
+  private static String format(double value) {
+    return String.format("%.1f", value);
+  }
+
+}
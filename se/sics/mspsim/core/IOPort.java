@@ -134,7 +134,7 @@ public class IOPort extends IOUnit {
         if (highest + 1 < portMap.length) {
             portMap = Arrays.copyOf(portMap, highest + 1);
         }
-        IOPort newPort = new IOPort(cpu, port, interrupt, cpu.memory, offset, portMap);
+        IOPort newPort = new IOPort(cpu, port, interrupt, cpu.ioMemory, offset, portMap);
         if (last != null && offset == last.offset && offset > 0) {
             // This port is a pair with previous port to allow 16 bits writes
             last.ioPair = newPort;
@@ -64,6 +64,10 @@ public class IOSegment implements Memory {
         write(address, data, mode);
     }
 
+    boolean isStableRead(int address) {
+        return mem[address].isStableRead(address);
+    }
+
     public String info() {
         StringBuilder sb = new StringBuilder();
         sb.append("IOSegment[0x0000-").append(Utils.hex(mem.length, 4)).append("]\n");
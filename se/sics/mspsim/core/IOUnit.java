@@ -52,7 +52,7 @@ public abstract class IOUnit implements InterruptHandler, Loggable {
   protected int logLevel;
   protected boolean DEBUG = false;
 
-  protected EmulationLogger logger;
+  @NotState protected EmulationLogger logger;
 
   public IOUnit(String id, MSP430Core cpu, int[] memory, int offset) {
     this(id, id, cpu, memory, offset);
@@ -114,6 +114,13 @@ public abstract class IOUnit implements InterruptHandler, Loggable {
   // read a value from the IO unit
   public abstract int read(int address, boolean word, long cycles);
 
+  /* Returns true if reading the register has no side effects and its value
+   * can only change by a write or when an event is executed. Busy wait loops
+   * that only read such registers can be fast forwarded to the next event. */
+  public boolean isStableRead(int address) {
+      return false;
+  }
+
   public String getID() {
       return id;
   }
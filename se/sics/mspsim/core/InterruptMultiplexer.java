@@ -1,5 +1,6 @@
 package se.sics.mspsim.core;
 
+@State
 public class InterruptMultiplexer implements InterruptHandler {
 
     private final MSP430Core cpu;
@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * LivelockDetector
+ *
+ * Detects firmware that is stuck in a tight loop, in an interrupt storm or
+ * in a watchdog reset loop. The program counter is sampled by an event and
+ * the execution is checked once per window of cycles. A livelock is
+ * reported as a LIVELOCK warning when the same condition has been seen for
+ * a number of consecutive windows - set the warning mode to EXCEPTION to
+ * abort the simulation.
+ */
+
+package se.sics.mspsim.core;
+import java.util.Arrays;
+
+import se.sics.mspsim.core.EmulationLogger.WarningType;
+import se.sics.mspsim.util.ArrayUtils;
+
+public class LivelockDetector {
+
+  public enum Type { TIGHT_LOOP, INTERRUPT_STORM, WATCHDOG_RESETS };
+
+  public interface Listener {
+    public void livelockDetected(LivelockDetector detector, Type type, String message);
+  }
+
+  /* Cycles between the samples - a prime to avoid following the loops */
+  public static final int SAMPLE_CYCLES = 4093;
+
+  /* The program counter is sampled in ranges of 16 bytes */
+  private static final int RANGE_SHIFT = 4;
+
+  private final MSP430Core cpu;
+
+  private long windowCycles = 4000000;
+  private int windows = 5;
+  private double minEntropy = 1.0;
+  private int minInterruptCycles = 100;
+  private int maxWatchdogResets = 2;
+
+  private Listener[] listeners;
+
+  private int[] samples;
+  private int sampleCount;
+  private long windowStart;
+  private long windowEnd;
+  private final int[] interruptCount;
+  private int watchdogResets;
+
+  /* Number of consecutive windows each condition has been seen */
+  private int loopWindows;
+  private int stormWindows;
+  private int resetWindows;
+
+  private Type lastType;
+  private String lastMessage;
+
+  /* The detector is a tool and not part of the state of the node */
+  @NotState
+  private class SampleEvent extends TimeEvent {
+    SampleEvent() {
+      super(0, "Livelock detector");
+    }
+
+    public void execute(long t) {
+      sample(t);
+    }
+  }
+
+  private final TimeEvent sampleEvent = new SampleEvent();
+
+  public LivelockDetector(MSP430Core cpu) {
+    this.cpu = cpu;
+    this.interruptCount = new int[cpu.MAX_INTERRUPT + 1];
+  }
+
+  public long getWindowCycles() {
+    return windowCycles;
+  }
+
+  /* Sets the number of cycles between the checks */
+  public void setWindowCycles(long windowCycles) {
+    if (windowCycles < SAMPLE_CYCLES) {
+      throw new IllegalArgumentException("window must be at least " + SAMPLE_CYCLES + " cycles");
+    }
+    this.windowCycles = windowCycles;
+  }
+
+  public int getWindows() {
+    return windows;
+  }
+
+  /* Sets the number of consecutive windows before a livelock is reported */
+  public void setWindows(int windows) {
+    if (windows < 1) {
+      throw new IllegalArgumentException("at least one window is needed");
+    }
+    this.windows = windows;
+  }
+
+  public double getMinEntropy() {
+    return minEntropy;
+  }
+
+  /* Sets the min entropy, in bits, of the sampled program counter ranges */
+  public void setMinEntropy(double minEntropy) {
+    this.minEntropy = minEntropy;
+  }
+
+  public int getMinInterruptCycles() {
+    return minInterruptCycles;
+  }
+
+  /* Sets the min average number of cycles between interrupts on one vector */
+  public void setMinInterruptCycles(int minInterruptCycles) {
+    this.minInterruptCycles = Math.max(1, minInterruptCycles);
+  }
+
+  public int getMaxWatchdogResets() {
+    return maxWatchdogResets;
+  }
+
+  /* Sets the number of watchdog resets in one window that is considered a reset loop */
+  public void setMaxWatchdogResets(int maxWatchdogResets) {
+    this.maxWatchdogResets = Math.max(1, maxWatchdogResets);
+  }
+
+  public synchronized void addListener(Listener listener) {
+    listeners = ArrayUtils.add(Listener.class, listeners, listener);
+  }
+
+  public synchronized void removeListener(Listener listener) {
+    listeners = ArrayUtils.remove(listeners, listener);
+  }
+
+  public boolean isRunning() {
+    return cpu.livelockDetector == this;
+  }
+
+  public void start() {
+    if (cpu.livelockDetector != null && cpu.livelockDetector != this) {
+      cpu.livelockDetector.stop();
+    }
+    cpu.livelockDetector = this;
+    samples = new int[(int) (windowCycles / SAMPLE_CYCLES) + 1];
+    startWindow(cpu.cycles);
+    loopWindows = stormWindows = resetWindows = 0;
+    cpu.scheduleCycleEvent(sampleEvent, cpu.cycles + SAMPLE_CYCLES);
+  }
+
+  public void stop() {
+    if (cpu.livelockDetector == this) {
+      cpu.livelockDetector = null;
+    }
+    sampleEvent.remove();
+  }
+
+  /* Returns the type of the last reported livelock or null if none */
+  public Type getLastType() {
+    return lastType;
+  }
+
+  public String getLastMessage() {
+    return lastMessage;
+  }
+
+  void interruptServiced(int vector, InterruptHandler source) {
+    interruptCount[vector]++;
+    if (vector == cpu.MAX_INTERRUPT && source instanceof Watchdog) {
+      watchdogResets++;
+    }
+  }
+
+  /* Called after a reset of the CPU - all events have been removed */
+  void cpuReset() {
+    cpu.scheduleCycleEvent(sampleEvent, cpu.cycles + SAMPLE_CYCLES);
+  }
+
+  /* Called after a snapshot has been restored - the cycles have jumped */
+  void stateRestored() {
+    startWindow(cpu.cycles);
+    loopWindows = stormWindows = resetWindows = 0;
+  }
+
+  private void startWindow(long cycles) {
+    windowStart = cycles;
+    windowEnd = cycles + windowCycles;
+    sampleCount = 0;
+    watchdogResets = 0;
+    Arrays.fill(interruptCount, 0);
+  }
+
+  private void sample(long cycles) {
+    if (!cpu.cpuOff && sampleCount < samples.length) {
+      samples[sampleCount++] = cpu.reg[MSP430Constants.PC] >> RANGE_SHIFT;
+    }
+    boolean isWindowEnd = cycles >= windowEnd;
+    /* Reschedule first since a detected livelock might throw an exception */
+    if (cpu.cpuOff) {
+      /* A sleeping CPU is not looping - only wake up for the window check */
+      long nextWindowEnd = isWindowEnd ? cycles + windowCycles : windowEnd;
+      cpu.scheduleCycleEvent(sampleEvent, Math.max(nextWindowEnd, cycles + SAMPLE_CYCLES));
+    } else {
+      cpu.scheduleCycleEvent(sampleEvent, cycles + SAMPLE_CYCLES);
+    }
+    if (isWindowEnd) {
+      endWindow(cycles);
+    }
+  }
+
+  private void endWindow(long cycles) {
+    long length = cycles - windowStart;
+    double entropy = getEntropy();
+    /* Only consider windows where the CPU has been active most of the time */
+    boolean loop = sampleCount >= length / SAMPLE_CYCLES / 2 && entropy < minEntropy;
+    int stormVector = -1;
+    for (int i = 0; i < interruptCount.length; i++) {
+      if (interruptCount[i] > 0 && length / interruptCount[i] < minInterruptCycles
+          && (stormVector < 0 || interruptCount[i] > interruptCount[stormVector])) {
+        stormVector = i;
+      }
+    }
+    loopWindows = loop ? loopWindows + 1 : 0;
+    stormWindows = stormVector >= 0 ? stormWindows + 1 : 0;
+    resetWindows = watchdogResets >= maxWatchdogResets ? resetWindows + 1 : 0;
+
+    Type type = null;
+    String message = null;
+    if (resetWindows >= windows) {
+      type = Type.WATCHDOG_RESETS;
+      message = "watchdog reset loop: " + watchdogResets + " resets in " + length + " cycles";
+    } else if (stormWindows >= windows) {
+      type = Type.INTERRUPT_STORM;
+      message = "interrupt storm on vector " + stormVector + ": "
+          + interruptCount[stormVector] + " interrupts in " + length + " cycles";
+    } else if (loopWindows >= windows) {
+      type = Type.TIGHT_LOOP;
+      message = "tight loop at $" + cpu.getAddressAsString(cpu.reg[MSP430Constants.PC])
+          + ": program counter entropy " + String.format("%.2f", entropy) + " bits";
+    }
+    startWindow(cycles);
+    if (type != null) {
+      loopWindows = stormWindows = resetWindows = 0;
+      detected(type, message + " for " + windows + " windows");
+    }
+  }
+
+  /* Returns the entropy in bits of the sampled program counter ranges */
+  private double getEntropy() {
+    int n = sampleCount;
+    if (n == 0) {
+      return 0.0;
+    }
+    Arrays.sort(samples, 0, n);
+    double entropy = 0.0;
+    int run = 1;
+    for (int i = 1; i <= n; i++) {
+      if (i < n && samples[i] == samples[i - 1]) {
+        run++;
+      } else {
+        double p = (double) run / n;
+        entropy -= p * Math.log(p);
+        run = 1;
+      }
+    }
+    return entropy / Math.log(2);
+  }
+
+  private void detected(Type type, String message) {
+    lastType = type;
+    lastMessage = message;
+    Listener[] listeners = this.listeners;
+    if (listeners != null) {
+      for (Listener listener : listeners) {
+        listener.livelockDetected(this, type, message);
+      }
+    }
+    /* Throws an emulation exception if the warning mode is EXCEPTION */
+    cpu.logw(WarningType.LIVELOCK, "Livelock detected - " + message);
+  }
+
+}
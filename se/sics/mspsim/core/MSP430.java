@@ -37,6 +37,9 @@
 
 package se.sics.mspsim.core;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import se.sics.mspsim.profiler.SimpleProfiler;
 import se.sics.mspsim.util.ArrayUtils;
@@ -45,28 +48,36 @@ import se.sics.mspsim.util.MapTable;
 
 public class MSP430 extends MSP430Core {
 
-  private int[] execCounter;
-  private int[] trace;
-  private int tracePos;
+  @NotState private int[] trace;
+  @NotState private int tracePos;
   
-  private boolean debug = false;
-  private boolean running = false;
-  private boolean isBreaking = false;
-  private double rate = 2.0;
+  @NotState private boolean debug = false;
+  @NotState private boolean running = false;
+  @NotState private boolean isBreaking = false;
 
   // Debug time - measure cycles
-  private long lastCycles = 0;
-  private long lastCpuCycles = 0;
-  private long time;
-  private long nextSleep = 0;
-  private long nextOut = 0;
+  @NotState private long lastCycles = 0;
+  @NotState private long lastCpuCycles = 0;
+  @NotState private long time;
+  @NotState private long nextPace = 0;
+  @NotState private long nextOut = 0;
 
-  private double lastCPUPercent = 0d;
+  // Simulated time between the real time pacing checks
+  private static final double PACE_INTERVAL_MILLIS = 1.0;
+  @NotState private final RealTimePacer pacer;
 
-  private DisAsm disAsm;
+  @NotState private double lastCPUPercent = 0d;
+
+  @NotState private DisAsm disAsm;
 
   private SimEventListener[] simEventListeners;
 
+  // Tasks of other threads that run on the CPU thread between two
+  // execution slices while the CPU is running - see runPaused()
+  @NotState private final ArrayList<FutureTask<Void>> pausedTasks = new ArrayList<FutureTask<Void>>();
+  @NotState private volatile boolean hasPausedTasks;
+  @NotState private Thread cpuThread;
+
   /**
    * Creates a new <code>MSP430</code> instance.
    *
@@ -74,6 +85,8 @@ public class MSP430 extends MSP430Core {
   public MSP430(int type, ComponentRegistry registry, MSP430Config config) {
     super(type, registry, config);
     disAsm = new DisAsm();
+    pacer = new RealTimePacer(getTimeClock().getFrequency(), 2.0);
+    updateBusyWait();
   }
 
   public double getCPUPercent() {
@@ -85,65 +98,114 @@ public class MSP430 extends MSP430Core {
   }
 
   public void cpuloop() throws EmulationException {
-    if (isRunning()) {
-      throw new IllegalStateException("already running");
+    synchronized (pausedTasks) {
+      if (isRunning()) {
+        throw new IllegalStateException("already running");
+      }
+      cpuThread = Thread.currentThread();
+      setRunning(true);
     }
-    setRunning(true);
     try {
         // ??? - power-up  should be executed?!
         time = System.currentTimeMillis();
         run();
     } finally {
-        setRunning(false);
+        synchronized (pausedTasks) {
+          runPausedTasks();
+          cpuThread = null;
+          setRunning(false);
+        }
     }
   }
 
   private void run() throws EmulationException {
-      while (!isStopping) {
+    pacer.restart();
+    while (!isStopping) {
 
       if (cycles > nextOut && !debug) {
-	printCPUSpeed(reg[PC]);
-	nextOut = cycles + 20000007;
+        printCPUSpeed(reg[PC]);
+        nextOut = cycles + 20000007;
       }
 
-      int pc = emulateOP(-1);
+      long until = (!debug && nextOut < nextPace ? nextOut : nextPace) + 1;
+      execute(until, until);
+
+      if (hasPausedTasks) {
+        runPausedTasks();
+      }
+
+      if (cycles > nextPace) {
+        pacer.pace(getTime());
+        nextPace = cycles + getMCLK().millisToCycles(PACE_INTERVAL_MILLIS);
+      }
+    }
+    isStopping = isBreaking = false;
+  }
+
+  /*
+   * Executes instructions until untilCycles has been reached (and no events
+   * are due while the CPU is off) or the execution is stopped.
+   * The per instruction features are handled by separate loops so that the
+   * common case without exec counting, trace and debug stays a tight loop.
+   */
+  private void execute(long untilCycles, long maxCycles) throws EmulationException {
+    long t = hostTime.start();
+    if (debug || trace != null) {
+      executeDebug(untilCycles, maxCycles);
+    } else if (execCounter != null) {
+      executeCounting(untilCycles, maxCycles);
+    } else {
+      executeFast(untilCycles, maxCycles);
+    }
+    hostTime.executed(t);
+  }
+
+  private void executeFast(long untilCycles, long maxCycles) throws EmulationException {
+    while (!isStopping && (cycles < untilCycles || (cpuOff && (nextEventCycles < cycles)))) {
+      emulateOP(maxCycles);
+    }
+  }
+
+  private void executeCounting(long untilCycles, long maxCycles) throws EmulationException {
+    final int[] execCounter = this.execCounter;
+    while (!isStopping && (cycles < untilCycles || (cpuOff && (nextEventCycles < cycles)))) {
+      int pc = emulateOP(maxCycles);
       if (pc >= 0) {
-	if (execCounter != null) {
-	  execCounter[pc]++;
-	}
-	if (trace != null) {
-	    trace[tracePos++] = pc;
-	    if (tracePos >= trace.length)
-		tracePos = 0;
-	}
-	// -------------------------------------------------------------------
-	// Debug information
-	// -------------------------------------------------------------------
-	if (debug) {
-	    if (servicedInterrupt >= 0) {
-	        disAsm.disassemble(pc, memory, reg, servicedInterrupt);
-	    } else {
-	        disAsm.disassemble(pc, memory, reg);
-	    }
-	}
+        execCounter[pc]++;
       }
+    }
+  }
 
-      /* Just a test to see if it gets down to a reasonable speed */
-      if (cycles > nextSleep) {
-	try {
-	  Thread.sleep(100);
-	} catch (Exception e) {
-	}
-	// Frequency = 100 * cycles ratio
-	// Ratio = Frq / 100
-	nextSleep = cycles + (long)(rate * dcoFrq / 10);
+  private void executeDebug(long untilCycles, long maxCycles) throws EmulationException {
+    while (!isStopping && (cycles < untilCycles || (cpuOff && (nextEventCycles < cycles)))) {
+      int pc = emulateOP(maxCycles);
+      if (pc >= 0) {
+        executed(pc);
       }
+    }
+  }
 
-//       if ((instruction & 0xff80) == CALL) {
-// 	System.out.println("Call to PC = " + reg[PC]);
-//       }
+  /* Bookkeeping for an executed instruction */
+  private void executed(int pc) {
+    if (execCounter != null) {
+      execCounter[pc]++;
+    }
+    if (trace != null) {
+      trace[tracePos++] = pc;
+      if (tracePos >= trace.length) {
+        tracePos = 0;
+      }
+    }
+    // -------------------------------------------------------------------
+    // Debug information
+    // -------------------------------------------------------------------
+    if (debug) {
+      if (servicedInterrupt >= 0) {
+        disAsm.disassemble(pc, memory, reg, servicedInterrupt);
+      } else {
+        disAsm.disassemble(pc, memory, reg);
+      }
     }
-    isStopping = isBreaking = false;
   }
 
   /* Use stepInstructions or stepMicros instead */
@@ -156,40 +218,30 @@ public class MSP430 extends MSP430Core {
       throw new IllegalStateException("step not possible when CPU is running");
     }
     setRunning(true);
+    /* each instruction must be counted */
+    busyWaitActive = false;
+    long t = hostTime.start();
     try {
     while (count > 0 && !isStopping) {
       int pc = emulateOP(-1);
       if (pc >= 0) {
         count--;
-        if (execCounter != null) {
-          execCounter[pc]++;
-        }
-        if (trace != null) {
-  	  trace[tracePos++] = pc;
-          if (tracePos >= trace.length) {
-            tracePos = 0;
-          }
-        }
-
-        // -------------------------------------------------------------------
-        // Debug information
-        // -------------------------------------------------------------------
-        if (debug) {
-            if (servicedInterrupt >= 0) {
-                disAsm.disassemble(pc, memory, reg, servicedInterrupt);
-            } else {
-                disAsm.disassemble(pc, memory, reg);
-            }
-        }
+        executed(pc);
       }
     }
     } finally { 
+        hostTime.executed(t);
         setRunning(false);
+        updateBusyWait();
     }
     isStopping = isBreaking = false;
     return cycles;
   }
   
+  /* returned by stepMicros when the CPU is off and no event is scheduled -
+   * the caller may wait longer, this only keeps its time from overflowing */
+  private static final long IDLE_MICROS = 1000000;
+
   /* this represents the micros time that was "promised" last time */
   /* NOTE: this is a delta compared to "current micros" 
    */
@@ -253,28 +305,7 @@ public class MSP430 extends MSP430Core {
 
 
     while (cycles < maxCycles || (cpuOff && (nextEventCycles < cycles))) {
-        int pc = emulateOP(maxCycles);
-        if (pc >= 0) {
-            if (execCounter != null) {
-                execCounter[pc]++;
-            }
-            if (trace != null) {
-              if (tracePos >= trace.length) {
-                tracePos = 0;
-              }
-              trace[tracePos++] = pc;
-            }
-            // -------------------------------------------------------------------
-            // Debug information
-            // -------------------------------------------------------------------
-            if (debug) {
-              if (servicedInterrupt >= 0) {
-                disAsm.disassemble(pc, memory, reg, servicedInterrupt);
-              } else {
-                disAsm.disassemble(pc, memory, reg);
-              }
-            }
-        }
+        execute(maxCycles, maxCycles);
 
         if (isStopping) {
             isStopping = false;
@@ -292,7 +323,12 @@ public class MSP430 extends MSP430Core {
     }
 
     if (cpuOff && !(interruptsEnabled && servicedInterrupt == -1 && interruptMax >= 0)) {
-      lastReturnedMicros = (1000000 * (nextEventCycles - cycles)) / dcoFrq;
+      if (nextEventCycles == NO_EVENT) {
+        /* only input from outside can wake the CPU */
+        lastReturnedMicros = IDLE_MICROS;
+      } else {
+        lastReturnedMicros = (1000000 * (nextEventCycles - cycles)) / dcoFrq;
+      }
     } else {
       lastReturnedMicros = 0;
     }
@@ -343,6 +379,28 @@ public class MSP430 extends MSP430Core {
 	  trace = new int[size];
       }
       tracePos = 0;
+      updateBusyWait();
+  }
+
+  public boolean isBusyWaitSkip() {
+      return busyWaitSkip;
+  }
+
+  /**
+   * Enables or disables fast forwarding of busy wait loops to the next
+   * event. A loop is fast forwarded when an iteration ends with a backward
+   * jump to its start without writing memory, without reading anything
+   * that might change before the next event and without changing any
+   * register. Never used while tracing, debugging or stepping instructions
+   * since these need to see every instruction.
+   */
+  public void setBusyWaitSkip(boolean enabled) {
+      busyWaitSkip = enabled;
+      updateBusyWait();
+  }
+
+  private void updateBusyWait() {
+      busyWaitActive = busyWaitSkip && trace == null && !debug;
   }
   
   public int getBackTrace(int pos) {
@@ -398,6 +456,7 @@ public class MSP430 extends MSP430Core {
 
   public void setDebug(boolean db) {
     debug = db;
+    updateBusyWait();
   }
 
   public void setMap(MapTable map) {
@@ -431,12 +490,138 @@ public class MSP430 extends MSP430Core {
     return running;
   }
 
+  /**
+   * Saves the state of the CPU, its IO units, chips and pending events.
+   * The snapshot can be restored into this CPU, or written with
+   * Snapshot.write() and read for a new node with Snapshot.read().
+   * The CPU must not be running.
+   */
+  public Snapshot saveState() {
+    if (isRunning()) {
+      throw new IllegalStateException("can not save state while running");
+    }
+    return Snapshot.save(this);
+  }
+
+  /**
+   * Restores a state saved by this CPU or read for it with Snapshot.read().
+   * A snapshot can be restored any number of times. The CPU must not be
+   * running.
+   */
+  public void restoreState(Snapshot snapshot) {
+    if (isRunning()) {
+      throw new IllegalStateException("can not restore state while running");
+    }
+    if (snapshot.getCPU() != this) {
+      throw new IllegalArgumentException("snapshot taken from or read for another CPU");
+    }
+    /* The events of the tools are not part of the state - keep the time
+       they have left */
+    ArrayList<TimeEvent> toolEvents = new ArrayList<TimeEvent>();
+    ArrayList<Long> toolEventDelays = new ArrayList<Long>();
+    for (int i = 0, n = eventQueue.eventCount; i < n; i++) {
+      TimeEvent te = eventQueue.get(i);
+      if (!Snapshot.isState(te)) {
+        toolEvents.add(te);
+        toolEventDelays.add(te.virtualTime ? Math.max(1, te.time - getTime()) : Math.max(0, te.time - cycles));
+      }
+    }
+    /* events scheduled after the snapshot might not be part of it */
+    eventQueue.removeAll();
+    snapshot.restore();
+    /* tool events in the snapshot are no longer scheduled */
+    eventQueue.removeUnscheduled();
+    nextEventCycles = eventQueue.eventCount > 0 ? eventQueue.nextTime : cycles;
+    for (int i = 0; i < toolEvents.size(); i++) {
+      TimeEvent te = toolEvents.get(i);
+      if (te.virtualTime) {
+        scheduleTimeEvent(te, getTime() + toolEventDelays.get(i));
+      } else {
+        scheduleCycleEvent(te, cycles + toolEventDelays.get(i));
+      }
+    }
+    if (livelockDetector != null) {
+      livelockDetector.stateRestored();
+    }
+    flushInstructionCache();
+  }
+
+  /**
+   * Copies the state of this CPU, its IO units, chips and pending events to
+   * the CPU of another node of the same type with the same firmware. The
+   * memory pages are shared copy-on-write and afterwards the CPUs can run
+   * independently in different threads. The target must not be running.
+   * If this CPU is running, the copy is made on its thread between two
+   * execution slices and the CPU then continues as before.
+   * This is the CPU side of GenericNode.fork(), which creates the target
+   * node - the core can not build the chips and IO units of a platform.
+   */
+  public void copyStateTo(final MSP430 target) {
+    if (target == this) {
+      throw new IllegalArgumentException("can not copy state to itself");
+    }
+    if (target.isRunning()) {
+      throw new IllegalStateException("can not copy state to a running CPU");
+    }
+    runPaused(new Runnable() {
+      public void run() {
+        Snapshot.copy(MSP430.this, target);
+        target.flushInstructionCache();
+      }
+    });
+  }
+
+  /* Runs the task on the CPU thread between two execution slices if the
+   * CPU is running, and directly otherwise. Returns when the task is done. */
+  private void runPaused(Runnable task) {
+    FutureTask<Void> future = new FutureTask<Void>(task, null);
+    synchronized (pausedTasks) {
+      if (!isRunning() || Thread.currentThread() == cpuThread) {
+        future.run();
+      } else {
+        pausedTasks.add(future);
+        hasPausedTasks = true;
+      }
+    }
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while waiting for the CPU", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private void runPausedTasks() {
+    synchronized (pausedTasks) {
+      for (FutureTask<Void> task : pausedTasks) {
+        task.run();
+      }
+      pausedTasks.clear();
+      hasPausedTasks = false;
+    }
+  }
+
   public double getExecutionRate() {
-    return rate;
+    return pacer.getRate();
   }
 
+  /* Sets the speed factor compared to real time - RealTimePacer.UNLIMITED runs at max speed */
   public void setExecutionRate(double rate) {
-    this.rate = rate;
+    pacer.setRate(rate);
+  }
+
+  public RealTimePacer getRealTimePacer() {
+    return pacer;
   }
 
   public synchronized void addSimEventListener(SimEventListener l) {
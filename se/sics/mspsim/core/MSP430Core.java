@@ -38,12 +38,14 @@
 package se.sics.mspsim.core;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.EnumSet;
 
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.core.Memory.AccessMode;
 import se.sics.mspsim.core.Memory.AccessType;
 import se.sics.mspsim.util.ComponentRegistry;
 import se.sics.mspsim.util.DefaultEmulationLogger;
+import se.sics.mspsim.util.ELF;
 import se.sics.mspsim.util.MapEntry;
 import se.sics.mspsim.util.MapTable;
 import se.sics.mspsim.util.Utils;
@@ -66,25 +68,61 @@ public class MSP430Core extends Chip implements MSP430Constants {
   // 16 registers of which some are "special" - PC, SP, etc.
   public final int[] reg = new int[16];
 
-  private final RegisterMonitor[] regWriteMonitors = new RegisterMonitor[16];
-  private final RegisterMonitor[] regReadMonitors = new RegisterMonitor[16];
+  @NotState private final RegisterMonitor[] regWriteMonitors = new RegisterMonitor[16];
+  @NotState private final RegisterMonitor[] regReadMonitors = new RegisterMonitor[16];
+  // true if any register read or write monitor is installed
+  @NotState private boolean registerMonitors = false;
 
   // true => breakpoints can occur!
-  boolean breakpointActive = true;
-
-  public final int memory[];
+  @NotState boolean breakpointActive = true;
+
+  // RAM and flash contents without any monitors - use getMemory() for
+  // accesses that should be seen by watchpoints and memory monitors.
+  // This used to be an int[] that also held the IO registers: code that
+  // indexed it can use peekMemory() and pokeMemory() instead.
+  public final ByteMemory memory;
+  // Register storage for the IO units
+  public final int ioMemory[];
   private final Flash flash;
   boolean isFlashBusy;
-  boolean isStopping = false;
-
-  private final Memory memorySegments[];
-  Memory currentSegment;
+  @NotState boolean isStopping = false;
+
+  @NotState private final Memory memorySegments[];
+  @NotState Memory currentSegment;
+  private final Memory ramSegment;
+
+  // true for RAM segments that can be accessed directly in memory[]
+  // (no watch points and no global monitors installed)
+  @NotState final boolean directRAM[];
+
+  // Predecoded instructions - one array per memory segment (null if none)
+  @NotState final DecodedInstruction decodedSegments[][];
+
+  // true => busy wait loops are fast forwarded to the next event
+  @NotState boolean busyWaitSkip = true;
+  // true while busy wait loops can be fast forwarded by the interpreter
+  // (not while every executed instruction must be seen by the caller)
+  @NotState boolean busyWaitActive = false;
+  // Set by any memory write or read that might not be stable until the next event
+  private boolean unstableAccess;
+  private final int[] loopRegs = new int[16];
+  // Max number of instructions in a busy wait loop followed by the interpreter
+  private static final int MAX_LOOP_INSTRUCTIONS = 32;
+  // Start address of the loop iteration being followed (-1 if none)
+  private int loopStart = -1;
+  private long loopStartCycles;
+  private int loopLength;
+  private final int[] loopAddresses = new int[MAX_LOOP_INSTRUCTIONS];
+  // Number of busy wait loop iterations that have been fast forwarded
+  @NotState long skippedIterations;
+  // Execution count per address (null if not monitored)
+  @NotState int[] execCounter;
 
   public long cycles = 0;
   public long cpuCycles = 0;
-  MapTable map;
+  @NotState MapTable map;
   public final boolean MSP430XArch;
-  public final MSP430Config config;
+  @NotState public final MSP430Config config;
 
   private final ArrayList<IOUnit> ioUnits;
   private final SFR sfr;
@@ -116,22 +154,32 @@ public class MSP430Core extends Chip implements MSP430Constants {
   long lastVTime = 0;
   long currentTime = 0;
   long lastMicrosDelta;
-  double currentDCOFactor = 1.0;
+
+  // The clocks of the CPU and the clock that the virtual time is counted in
+  private final ClockDomain timeClock;
+  private final ClockDomain mclk;
+  private final ClockDomain smclk;
+  private final ClockDomain aclk;
   
   // Clk A can be "captured" by timers - needs to be handled close to CPU...?
 //  private int clkACaptureMode = CLKCAPTURE_NONE;
   // Other clocks too...
   long nextEventCycles;
-  private EventQueue vTimeEventQueue = new EventQueue();
-  private long nextVTimeEventCycles;
-
-  private EventQueue cycleEventQueue = new EventQueue();
-  private long nextCycleEventCycles;
+  // All events ordered by their deadline in cycles - virtual time events
+  // are converted when scheduled and when the DCO frequency changes
+  final EventQueue eventQueue = new EventQueue();
+  @NotState private final EventStatistics eventStatistics = new EventStatistics(eventQueue);
+  // Host time used by execution, events and monitors - disabled by default
+  @NotState final HostTimeStatistics hostTime = new HostTimeStatistics();
+  // Set while a livelock detector is running
+  @NotState LivelockDetector livelockDetector;
+  // The value of nextEventCycles when no event is scheduled
+  static final long NO_EVENT = Long.MAX_VALUE;
   
   private ArrayList<Chip> chips = new ArrayList<Chip>();
 
-  final ComponentRegistry registry;
-  Profiler profiler;
+  @NotState final ComponentRegistry registry;
+  @NotState Profiler profiler;
 
   public MSP430Core(int type, ComponentRegistry registry, MSP430Config config) {
     super("MSP430", "MSP430 Core", null);
@@ -147,8 +195,11 @@ public class MSP430Core extends Chip implements MSP430Constants {
     MAX_MEM = config.maxMem;
     MSP430XArch = config.MSP430XArch;
 
-    memory = new int[MAX_MEM];
+    memory = new ByteMemory(MAX_MEM);
+    ioMemory = new int[MAX_MEM_IO];
     memorySegments = new Memory[MAX_MEM >> 8];
+    decodedSegments = new DecodedInstruction[MAX_MEM >> 8][];
+    directRAM = new boolean[MAX_MEM >> 8];
 
     flash = new Flash(this, memory,
             new FlashRange(config.mainFlashStart, config.mainFlashStart + config.mainFlashSize, 512, 64),
@@ -189,7 +240,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 //    System.out.println("Set up MSP430 Core with " + MAX_MEM + " bytes memory");
 
     /* this is for detecting writes/read to/from non-existing IO */
-    IOUnit voidIO = new IOUnit("void", this, memory, 0) {
+    IOUnit voidIO = new IOUnit("void", this, ioMemory, 0) {
         public void interruptServiced(int vector) {
         }
         public void write(int address, int value, boolean word, long cycles) {
@@ -203,7 +254,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
     /* setup memory segments */
     int maxSeg = MAX_MEM >> 8;
-    Memory ramSegment = new RAMSegment(this);
+    ramSegment = new RAMSegment(this);
     RAMOffsetSegment ramMirrorSegment = null;
     Memory flashSegment = new FlashSegment(this, flash);
     IOSegment ioSegment = new IOSegment(this, MAX_MEM_IO, voidIO);
@@ -212,6 +263,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
         if (config.isRAM(i << 8)) {
 //            System.out.println("Setting RAM segment at: " + Utils.hex16(i << 8));
             memorySegments[i] = ramSegment;
+            directRAM[i] = true;
         } else if (config.isRAMMirror(i << 8)) {
             if (ramMirrorSegment == null) {
                 ramMirrorSegment = new RAMOffsetSegment(this, config.ramMirrorAddress - config.ramMirrorStart);
@@ -245,19 +297,25 @@ public class MSP430Core extends Chip implements MSP430Constants {
     ioSegment.setIORange(config.flashControllerOffset, Flash.SIZE, flash);
  
     /* Setup special function registers */
-    sfr = new SFR(this, memory);
+    sfr = new SFR(this, ioMemory);
     ioSegment.setIORange(config.sfrOffset, 0x10, sfr);
 
     // first step towards making core configurable
     Timer[] timers = new Timer[config.timerConfig.length];
     for (int i = 0; i < config.timerConfig.length; i++) {
-        Timer t = new Timer(this, memory, config.timerConfig[i]);
+        Timer t = new Timer(this, ioMemory, config.timerConfig[i]);
         ioSegment.setIORange(config.timerConfig[i].offset, 0x20, t);
         ioSegment.setIORange(config.timerConfig[i].timerIVAddr, 1, t);
         timers[i] = t;
     }
 
-    bcs = config.createClockSystem(this, memory, timers);
+    bcs = config.createClockSystem(this, ioMemory, timers);
+    int maxDCOFrq = bcs.getMaxDCOFrequency();
+    timeClock = new ClockDomain("DCOMAX", maxDCOFrq, maxDCOFrq);
+    // virtual time runs at the same speed as the cycles until the DCO is set
+    mclk = new ClockDomain("MCLK", maxDCOFrq, maxDCOFrq);
+    smclk = new ClockDomain("SMCLK", maxDCOFrq, smclkFrq);
+    aclk = new ClockDomain("ACLK", maxDCOFrq, aclkFrq);
     ioSegment.setIORange(bcs.getAddressRangeMin(), bcs.getAddressRangeMax() - bcs.getAddressRangeMin() + 1, bcs);
 
     // SFR and Basic clock system.
@@ -298,13 +356,35 @@ public class MSP430Core extends Chip implements MSP430Constants {
   }
 
   public synchronized void addGlobalMonitor(MemoryMonitor mon) {
+      addGlobalMonitor(0, MAX_MEM, EnumSet.allOf(AccessType.class), mon);
+  }
+
+  /**
+   * Adds a global monitor that is only notified about the accesses of the
+   * specified types overlapping the addresses from start (inclusive) to end
+   * (exclusive). Segments outside the range keep the direct RAM access and
+   * the decoded instructions.
+   */
+  public synchronized void addGlobalMonitor(int start, int end, EnumSet<AccessType> types,
+          MemoryMonitor mon) {
       GlobalWatchedMemory gwm;
       if (currentSegment instanceof GlobalWatchedMemory) {
           gwm = (GlobalWatchedMemory)currentSegment;
       } else {
-          currentSegment = gwm = new GlobalWatchedMemory(currentSegment);
+          currentSegment = gwm = new GlobalWatchedMemory(currentSegment, MAX_MEM, hostTime);
+      }
+      gwm.addGlobalMonitor(start, end, types, mon);
+      // The watched instruction fetches and data accesses must now be seen by the monitors
+      flushInstructionCache();
+      updateDirectRAM();
+  }
+
+  private void updateDirectRAM() {
+      GlobalWatchedMemory gwm = currentSegment instanceof GlobalWatchedMemory
+              ? (GlobalWatchedMemory) currentSegment : null;
+      for (int i = 0, n = directRAM.length; i < n; i++) {
+          directRAM[i] = memorySegments[i] == ramSegment && (gwm == null || !gwm.isDataWatched(i));
       }
-      gwm.addGlobalMonitor(mon);
   }
 
   public synchronized void removeGlobalMonitor(MemoryMonitor mon) {
@@ -315,6 +395,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
               // No more monitors - switch back to normal memory
               currentSegment = gwm.getWatchedMemory();
           }
+          updateDirectRAM();
       }
   }
 
@@ -401,22 +482,70 @@ public class MSP430Core extends Chip implements MSP430Constants {
       return false;
   }
 
-  public synchronized void addWatchPoint(int address, MemoryMonitor mon) {
-      int seg = address >> 8;
-      WatchedMemory wm;
+  /* Returns the watched memory of the segment - wraps the segment if needed */
+  private WatchedMemory getWatchedMemory(int seg) {
       if (memorySegments[seg] instanceof WatchedMemory) {
-          wm = (WatchedMemory) memorySegments[seg];
-      } else {
-          wm = new WatchedMemory(address & 0xfff00, memorySegments[seg]);
-          memorySegments[seg] = wm;
+          return (WatchedMemory) memorySegments[seg];
       }
-      wm.addWatchPoint(address, mon);
+      WatchedMemory wm = new WatchedMemory(seg << 8, memorySegments[seg], hostTime);
+      memorySegments[seg] = wm;
+      directRAM[seg] = false;
+      // Instructions in (or extending into) this segment must be fetched
+      // through the watched memory from now on
+      decodedSegments[seg] = null;
+      if (seg > 0) {
+          decodedSegments[seg - 1] = null;
+      }
+      return wm;
+  }
+
+  /* Switches back to the normal memory when the last watch has been removed */
+  private void unwatchSegment(int seg) {
+      WatchedMemory wm = (WatchedMemory) memorySegments[seg];
+      if (!wm.isWatched()) {
+          memorySegments[seg] = wm.getWatchedMemory();
+          updateDirectRAM();
+      }
+  }
+
+  public synchronized void addWatchPoint(int address, MemoryMonitor mon) {
+      getWatchedMemory(address >> 8).addWatchPoint(address, mon);
   }
 
   public synchronized void removeWatchPoint(int address, MemoryMonitor mon) {
-      if (memorySegments[address >> 8] instanceof WatchedMemory) {
-          WatchedMemory wm = (WatchedMemory) memorySegments[address >> 8];
+      int seg = address >> 8;
+      if (memorySegments[seg] instanceof WatchedMemory) {
+          WatchedMemory wm = (WatchedMemory) memorySegments[seg];
           wm.removeWatchPoint(address, mon);
+          unwatchSegment(seg);
+      }
+  }
+
+  /**
+   * Adds a monitor for all accesses overlapping the addresses from start
+   * (inclusive) to end (exclusive). Only the segments overlapping the range
+   * are watched and other accesses are filtered by one bit test.
+   */
+  public synchronized void addWatchRange(int start, int end, MemoryMonitor.WatchType type,
+          MemoryMonitor mon) {
+      if (start < 0 || end > MAX_MEM || start >= end) {
+          throw new IllegalArgumentException("illegal watch range: $" + getAddressAsString(start)
+                  + " - $" + getAddressAsString(end));
+      }
+      WatchedMemory.Range range = new WatchedMemory.Range(start, end, type, mon);
+      // Accesses starting up to three bytes before the range also overlap it,
+      // even when these bytes are in the previous segment
+      for (int seg = Math.max(0, start - 3) >> 8, last = (end - 1) >> 8; seg <= last; seg++) {
+          getWatchedMemory(seg).addRange(range);
+      }
+  }
+
+  public synchronized void removeWatchRange(int start, int end, MemoryMonitor mon) {
+      for (int seg = Math.max(0, start - 3) >> 8, last = (Math.min(end, MAX_MEM) - 1) >> 8; seg <= last; seg++) {
+          if (memorySegments[seg] instanceof WatchedMemory) {
+              ((WatchedMemory) memorySegments[seg]).removeRange(start, end, mon);
+              unwatchSegment(seg);
+          }
       }
   }
 
@@ -432,21 +561,41 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
   public synchronized void addRegisterWriteMonitor(int r, RegisterMonitor mon) {
       regWriteMonitors[r] = RegisterMonitor.Proxy.INSTANCE.add(regWriteMonitors[r], mon);
+      updateRegisterMonitors();
   }
 
   public synchronized void removeRegisterWriteMonitor(int r, RegisterMonitor mon) {
       regWriteMonitors[r] = RegisterMonitor.Proxy.INSTANCE.remove(regWriteMonitors[r], mon);
+      updateRegisterMonitors();
   }
 
   public synchronized void addRegisterReadMonitor(int r, RegisterMonitor mon) {
       regReadMonitors[r] = RegisterMonitor.Proxy.INSTANCE.add(regReadMonitors[r], mon);
+      updateRegisterMonitors();
   }
 
   public synchronized void removeRegisterReadMonitor(int r, RegisterMonitor mon) {
       regReadMonitors[r] = RegisterMonitor.Proxy.INSTANCE.remove(regReadMonitors[r], mon);
+      updateRegisterMonitors();
+  }
+
+  private void updateRegisterMonitors() {
+      boolean monitors = false;
+      for (int i = 0; i < 16; i++) {
+          if (regWriteMonitors[i] != null || regReadMonitors[i] != null) {
+              monitors = true;
+              break;
+          }
+      }
+      registerMonitors = monitors;
   }
 
   public void writeRegister(int r, int value) {
+      if (!registerMonitors && r > SR) {
+          /* general purpose register without monitors */
+          reg[r] = value & 0xfffff;
+          return;
+      }
       value &= 0xfffff;
     
       /* PC must never be odd */
@@ -471,9 +620,11 @@ public class MSP430Core extends Chip implements MSP430Constants {
       RegisterMonitor rwm = regWriteMonitors[r];
     if (rwm != null) {
         // TODO Add register access mode
+        long t = hostTime.start();
         rwm.notifyWriteBefore(r, value, AccessMode.WORD);
         reg[r] = value;
         rwm.notifyWriteAfter(r, value, AccessMode.WORD);
+        hostTime.monitor(t);
     } else {
         reg[r] = value;
     }
@@ -521,14 +672,31 @@ public class MSP430Core extends Chip implements MSP430Constants {
     }
   }
 
+  /* Writes a new SR value computed by an instruction. If only the status
+   * flags are changed and nobody monitors SR, the mode handling in
+   * writeRegister can be skipped since the flags do not affect the CPU. */
+  private void writeFlags(int value) {
+      if (((value ^ reg[SR]) & ~(CARRY | ZERO | NEGATIVE | OVERFLOW)) == 0
+              && !registerMonitors) {
+          reg[SR] = value;
+      } else {
+          writeRegister(SR, value);
+      }
+  }
+
   public int readRegister(int r) {
+    if (!registerMonitors) {
+      return reg[r];
+    }
     int value;
     RegisterMonitor rrm = regReadMonitors[r];
     if (rrm != null) {
         // TODO Register access mode
+        long t = hostTime.start();
         rrm.notifyReadBefore(r, AccessMode.WORD);
         value = reg[r];
         rrm.notifyReadAfter(r, AccessMode.WORD);
+        hostTime.monitor(t);
     } else {
         value = reg[r];
     }
@@ -541,13 +709,18 @@ public class MSP430Core extends Chip implements MSP430Constants {
       // No monitoring here... just return the CG values
       return CREG_VALUES[r - 2][m];
     }
+    if (!registerMonitors) {
+      return reg[r];
+    }
     int value;
     RegisterMonitor rrm = regReadMonitors[r];
     if (rrm != null) {
         // TODO Register access mode
+        long t = hostTime.start();
         rrm.notifyReadBefore(r, AccessMode.WORD);
         value = reg[r];
         rrm.notifyReadAfter(r, AccessMode.WORD);
+        hostTime.monitor(t);
     } else {
         value = reg[r];
     }
@@ -558,18 +731,22 @@ public class MSP430Core extends Chip implements MSP430Constants {
     int registerValue;
     RegisterMonitor rm = regReadMonitors[r];
     if (rm != null) {
+        long t = hostTime.start();
         rm.notifyReadBefore(r, AccessMode.WORD);
         registerValue = reg[r];
         rm.notifyReadAfter(r, AccessMode.WORD);
+        hostTime.monitor(t);
     } else {
         registerValue = reg[r];
     }
     rm = regWriteMonitors[r];
     registerValue += value;
     if (rm != null) {
+      long t = hostTime.start();
       rm.notifyWriteBefore(r, registerValue, AccessMode.WORD);
       reg[r] = registerValue;
       rm.notifyWriteAfter(r, registerValue, AccessMode.WORD);
+      hostTime.monitor(t);
     } else {
       reg[r] = registerValue;
     }
@@ -578,6 +755,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
   public void setACLKFrq(int frequency) {
     aclkFrq = frequency;
+    aclk.setFrequency(frequency);
   }
 
   public void setDCOFrq(int frequency, int smclkFrq) {
@@ -588,10 +766,10 @@ public class MSP430Core extends Chip implements MSP430Constants {
     lastCyclesTime = cycles;
     lastMicrosDelta = 0;
 
-    currentDCOFactor = 1.0 * bcs.getMaxDCOFrequency() / frequency;
+    mclk.setFrequency(frequency);
+    smclk.setFrequency(smclkFrq);
+    rescheduleTimeEvents();
 
-    /*    System.out.println("*** DCO: MAX:" + bcs.getMaxDCOFrequency() +
-	  " current: " + frequency + " DCO_FAC = " + currentDCOFactor);*/
     if (DEBUG)
       log("Set smclkFrq: " + smclkFrq);
     dcoReset();
@@ -601,77 +779,87 @@ public class MSP430Core extends Chip implements MSP430Constants {
   protected void dcoReset() {
   }
   
+  public ClockDomain getMCLK() {
+    return mclk;
+  }
+
+  public ClockDomain getSMCLK() {
+    return smclk;
+  }
+
+  public ClockDomain getACLK() {
+    return aclk;
+  }
+
+  /* Returns the clock that the virtual time is counted in */
+  public ClockDomain getTimeClock() {
+    return timeClock;
+  }
+
   // returns global time counted in max speed of DCOs (~5Mhz)
   public long getTime() {
-    long diff = cycles - lastCyclesTime;
-    return lastVTime + (long) (diff * currentDCOFactor);
+    return lastVTime + mclk.toTime(cycles - lastCyclesTime);
   }
 
   // Converts a virtual time to a cycles time according to the current
   // cycle speed
   private long convertVTime(long vTime) {
-    long tmpTime = lastCyclesTime + (long) ((vTime - lastVTime) / currentDCOFactor);
-//    System.out.println("ConvertVTime: vTime=" + vTime + " => " + tmpTime);
-    return tmpTime;
+    return lastCyclesTime + mclk.toCycles(vTime - lastVTime);
   }
   
   // get elapsed time in seconds
   public double getTimeMillis() {
-      return 1000.0 * getTime() / bcs.getMaxDCOFrequency();
+      return 1000.0 * getTime() / timeClock.getFrequency();
   }
   
   private void executeEvents() {
-    if (cycles >= nextVTimeEventCycles) {
-      if (vTimeEventQueue.eventCount == 0) {
-        nextVTimeEventCycles = cycles + 10000;
-      } else {
-        TimeEvent te = vTimeEventQueue.popFirst();
-        long now = getTime();
-//        if (now > te.time) {
-//          System.out.println("VTimeEvent got delayed by: " + (now - te.time) + " at " +
-//              cycles + " target Time: " + te.time + " class: " + te.getClass().getName());
-//        }
-        te.execute(now);
-        if (vTimeEventQueue.eventCount > 0) {
-          nextVTimeEventCycles = convertVTime(vTimeEventQueue.nextTime);
-        } else {
-          nextVTimeEventCycles = cycles + 10000;          
+    TimeEvent te;
+    /* an event might change what a busy wait loop reads */
+    loopStart = -1;
+    while ((te = eventQueue.peekFirst()) != null && te.queueTime <= cycles) {
+      eventStatistics.executed(te, cycles - te.queueTime);
+      eventQueue.popFirst();
+      if (hostTime.enabled) {
+        long t = hostTime.startEvent();
+        try {
+          te.execute(te.virtualTime ? getTime() : cycles);
+        } finally {
+          hostTime.event(te, t);
         }
+      } else {
+        te.execute(te.virtualTime ? getTime() : cycles);
       }
     }
-    
-    if (cycles >= nextCycleEventCycles) {
-      if (cycleEventQueue.eventCount == 0) {
-        nextCycleEventCycles = cycles + 10000;
-      } else {
-        TimeEvent te = cycleEventQueue.popFirst();
-        te.execute(cycles);
-        if (cycleEventQueue.eventCount > 0) {
-          nextCycleEventCycles = cycleEventQueue.nextTime;
-        } else {
-          nextCycleEventCycles = cycles + 10000;          
-        }
+    nextEventCycles = eventQueue.eventCount > 0 ? eventQueue.nextTime : NO_EVENT;
+  }
+
+  /* Recalculates the cycle deadlines of the virtual time events after a
+   * change of the DCO frequency */
+  private void rescheduleTimeEvents() {
+    boolean changed = false;
+    for (int i = 0, n = eventQueue.eventCount; i < n; i++) {
+      TimeEvent te = eventQueue.get(i);
+      if (te.virtualTime) {
+        te.queueTime = convertVTime(te.time);
+        changed = true;
       }
     }
-    
-    // Pick the one with shortest time in the future.
-    nextEventCycles = nextCycleEventCycles < nextVTimeEventCycles ? 
-        nextCycleEventCycles : nextVTimeEventCycles;
+    if (changed) {
+      eventQueue.reorder();
+      nextEventCycles = eventQueue.nextTime;
+    }
   }
-  
+
   /**
    * Schedules a new Time event using the cycles counter
    * @param event
    * @param time
    */
   public void scheduleCycleEvent(TimeEvent event, long cycles) {
-    long currentNext = cycleEventQueue.nextTime;
-    cycleEventQueue.addEvent(event, cycles);
-    if (currentNext != cycleEventQueue.nextTime) {
-      nextCycleEventCycles = cycleEventQueue.nextTime;
-      if (nextEventCycles > nextCycleEventCycles) {
-        nextEventCycles = nextCycleEventCycles;
-      }
+    event.virtualTime = false;
+    eventQueue.addEvent(event, cycles, cycles);
+    if (nextEventCycles > cycles) {
+      nextEventCycles = eventQueue.nextTime;
     }
   }
 
@@ -682,17 +870,13 @@ public class MSP430Core extends Chip implements MSP430Constants {
    * @param time
    */
   public void scheduleTimeEvent(TimeEvent event, long time) {
-    long currentNext = vTimeEventQueue.nextTime;
-    vTimeEventQueue.addEvent(event, time);
-    if (currentNext != vTimeEventQueue.nextTime) {
-      // This is only valid when not having a cycle event queue also...
-      // if we have it needs to be checked also!
-      nextVTimeEventCycles = convertVTime(vTimeEventQueue.nextTime);
-      if (nextEventCycles > nextVTimeEventCycles) {
-        nextEventCycles = nextVTimeEventCycles;
-      }
+    long eventCycles = convertVTime(time);
+    event.virtualTime = true;
+    eventQueue.addEvent(event, time, eventCycles);
+    if (nextEventCycles > eventCycles) {
+      nextEventCycles = eventQueue.nextTime;
       /* Warn if someone schedules a time backwards in time... */
-      if (cycles > nextVTimeEventCycles) {
+      if (cycles > eventCycles) {
         logger.logw(this, WarningType.EMULATION_ERROR, "Scheduling time event backwards in time!!!");
         throw new IllegalStateException("Cycles are passed desired future time...");
       }
@@ -706,19 +890,53 @@ public class MSP430Core extends Chip implements MSP430Constants {
    * @param time
    */
   public long scheduleTimeEventMillis(TimeEvent event, double msec) {
-      /*    System.out.println("MAX_DCO " + bcs.getMaxDCOFrequency());*/
-    long time = (long) (getTime() + msec / 1000 * bcs.getMaxDCOFrequency());
+    long time = getTime() + timeClock.millisToCycles(msec);
 //    System.out.println("Scheduling at: " + time + " (" + msec + ") getTime: " + getTime());
     scheduleTimeEvent(event, time);
     return time;
   }
 
+  /**
+   * Schedules a Time event deltaCycles cycles from now
+   * @param event
+   * @param deltaCycles
+   */
+  public void scheduleCycleEventIn(TimeEvent event, long deltaCycles) {
+    scheduleCycleEvent(event, cycles + deltaCycles);
+  }
+
+  /**
+   * Schedules a Time event deltaTime virtual time units from now. The delta
+   * can be precomputed with millisToTime().
+   * @param event
+   * @param deltaTime
+   */
+  public void scheduleTimeEventIn(TimeEvent event, long deltaTime) {
+    scheduleTimeEvent(event, getTime() + deltaTime);
+  }
+
+  /* Converts milliseconds to virtual time units */
+  public long millisToTime(double msec) {
+    return timeClock.millisToCycles(msec);
+  }
+
+  public EventStatistics getEventStatistics() {
+    return eventStatistics;
+  }
+
+  public HostTimeStatistics getHostTimeStatistics() {
+    return hostTime;
+  }
+
+  /* Returns the running livelock detector or null if none */
+  public LivelockDetector getLivelockDetector() {
+    return livelockDetector;
+  }
+
   public void printEventQueues(PrintStream out) {
       out.println("Current cycles: " + cycles + "  virtual time:" + getTime());
-      out.println("Cycle event queue: (next time: " + nextCycleEventCycles + ")");
-      cycleEventQueue.print(out);
-      out.println("Virtual time event queue: (next time: " + nextVTimeEventCycles + ")");
-      vTimeEventQueue.print(out);
+      out.println("Event queue: (next event cycles: " + nextEventCycles + ")");
+      eventQueue.print(out);
   }
  
   // Should also return active units...
@@ -767,14 +985,17 @@ public class MSP430Core extends Chip implements MSP430Constants {
     interruptMax = -1;
     writeRegister(SR, 0);
    
-    cycleEventQueue.removeAll();
-    vTimeEventQueue.removeAll();
+    eventQueue.removeAll();
 
     for (Chip chip : chips) {
       chip.notifyReset();
     }
     // Needs to be last since these can add events...
     resetIOUnits();
+
+    if (livelockDetector != null) {
+      livelockDetector.cpuReset();
+    }
   
     if (profiler != null) {
         profiler.resetProfile();
@@ -853,7 +1074,9 @@ public class MSP430Core extends Chip implements MSP430Constants {
       if (function == null) {
           function = getFunction(map, dst);
       }
+      long t = hostTime.start();
       profiler.profileCall(function, cpuCycles, pc);
+      hostTime.monitor(t);
   }
   
   void printWarning(EmulationLogger.WarningType type, int address) throws EmulationException {
@@ -889,13 +1112,16 @@ public class MSP430Core extends Chip implements MSP430Constants {
   }
 
   private int serviceInterrupt(int pc) {
+    loopStart = -1;
     int pcBefore = pc;
     int spBefore = readRegister(SP);
     int sp = spBefore;
     int sr = readRegister(SR);
     
     if (profiler != null) {
+      long t = hostTime.start();
       profiler.profileInterrupt(interruptMax, cycles);
+      hostTime.monitor(t);
     }
         
     if (flash.blocksCPU()) {
@@ -910,21 +1136,25 @@ public class MSP430Core extends Chip implements MSP430Constants {
       // Push PC and SR to stack
       // store on stack - always move 2 steps (W) even if B.
       writeRegister(SP, sp = spBefore - 2);
-      currentSegment.write(sp, pc, AccessMode.WORD);
+      writeData(sp, pc, AccessMode.WORD);
 
       writeRegister(SP, sp = sp - 2);
-      currentSegment.write(sp, (sr & 0x0fff) | ((pc & 0xf0000) >> 4), AccessMode.WORD);
+      writeData(sp, (sr & 0x0fff) | ((pc & 0xf0000) >> 4), AccessMode.WORD);
     }
     // Clear SR
     writeRegister(SR, 0); // sr & ~CPUOFF & ~SCG1 & ~OSCOFF);
 
     // Jump to the address specified in the interrupt vector
-    pc = currentSegment.read(0xfffe - (MAX_INTERRUPT - interruptMax) * 2, AccessMode.WORD, AccessType.READ);
+    pc = readData(0xfffe - (MAX_INTERRUPT - interruptMax) * 2, AccessMode.WORD);
     writeRegister(PC, pc);
 
     servicedInterrupt = interruptMax;
     servicedInterruptUnit = interruptSource[servicedInterrupt];
 
+    if (livelockDetector != null) {
+      livelockDetector.interruptServiced(servicedInterrupt, servicedInterruptUnit);
+    }
+
     // Flag off this interrupt - for now - as soon as RETI is
     // executed things might change!
     reevaluateInterrupts();
@@ -957,6 +1187,202 @@ public class MSP430Core extends Chip implements MSP430Constants {
     return pc;
   }
 
+  private boolean isDecodeCacheable(int address) {
+      if (address >= MAX_MEM) {
+          return false;
+      }
+      Memory mem = memorySegments[address >> 8];
+      if (currentSegment instanceof GlobalWatchedMemory
+              && ((GlobalWatchedMemory) currentSegment).isFetchWatched(address >> 8)) {
+          return false;
+      }
+      return mem instanceof RAMSegment || mem instanceof FlashSegment;
+  }
+
+  /* Returns the decoded instruction at the specified address or null if
+   * the instruction must be fetched through the memory segments
+   * (watched memory, global monitors, flash busy, etc). */
+  private DecodedInstruction getDecodedInstruction(int address) {
+      if (isFlashBusy || (address & 1) != 0 || address >= MAX_MEM) {
+          return null;
+      }
+      final int seg = address >> 8;
+      DecodedInstruction[] decoded = decodedSegments[seg];
+      if (decoded != null) {
+          DecodedInstruction di = decoded[(address & 0xff) >> 1];
+          if (di != null) {
+              return di;
+          }
+      } else if (!isDecodeCacheable(address)) {
+          return null;
+      }
+
+      /* The full instruction must be in cacheable memory */
+      if (((address + DecodedInstruction.MAX_SIZE - 1) >> 8) != seg
+              && !isDecodeCacheable(address + DecodedInstruction.MAX_SIZE - 1)) {
+          return null;
+      }
+
+      int instruction = currentSegment.read(address, AccessMode.WORD, AccessType.EXECUTE);
+      int extWord = 0;
+      int argAddress = address + 2;
+      if ((instruction & 0xf800) == 0x1800) {
+          extWord = instruction;
+          instruction = currentSegment.read(argAddress, AccessMode.WORD, AccessType.EXECUTE);
+          argAddress += 2;
+      }
+      int argCount = DecodedInstruction.getArgumentCount(instruction);
+      int arg0 = argCount > 0 ? currentSegment.read(argAddress, AccessMode.WORD, AccessType.READ) : 0;
+      int arg1 = argCount > 1 ? currentSegment.read(argAddress + 2, AccessMode.WORD, AccessType.READ) : 0;
+      DecodedInstruction di = new DecodedInstruction(address, extWord, instruction, arg0, arg1);
+      if (decoded == null) {
+          decodedSegments[seg] = decoded = new DecodedInstruction[Memory.SEGMENT_SIZE / 2];
+      }
+      decoded[(address & 0xff) >> 1] = di;
+      return di;
+  }
+
+  /* Reads an argument word of the current instruction */
+  private int readArgument(DecodedInstruction di, int address) {
+      if (di != null) {
+          int index = address - di.argAddress;
+          if (index == 0 && di.argCount > 0) {
+              return di.arg0;
+          }
+          if (index == 2 && di.argCount > 1) {
+              return di.arg1;
+          }
+      }
+      return readData(address, AccessMode.WORD);
+  }
+
+  /* Data read - unmonitored RAM is read directly from memory and
+   * everything else goes through the memory segments. */
+  private int readData(int address, AccessMode mode) throws EmulationException {
+      if (isDirectAccess(address, mode)) {
+          return mode == AccessMode.BYTE ? memory.get(address) : memory.get(address, mode);
+      }
+      if (!unstableAccess && !isStableRead(address)) {
+          unstableAccess = true;
+      }
+      return currentSegment.read(address, mode, AccessType.READ);
+  }
+
+  /* Returns true if the access can go directly to memory. Both the first
+   * and the last byte must be in unmonitored RAM, since a word access at the
+   * end of a segment continues in the next one. */
+  private boolean isDirectAccess(int address, AccessMode mode) {
+      if (address >= MAX_MEM || !directRAM[address >> 8]) {
+          return false;
+      }
+      if (mode == AccessMode.BYTE) {
+          return true;
+      }
+      int end = address + mode.bytes - 1;
+      return (address & 1) == 0 && end < MAX_MEM && directRAM[end >> 8];
+  }
+
+  /* Returns true if the read has no side effects and the value can only be
+   * changed by a write or an event. A read seen by a global monitor is not
+   * stable, since the monitor must see every iteration of a loop. */
+  private boolean isStableRead(int address) {
+      if (address >= MAX_MEM) {
+          return false;
+      }
+      if (currentSegment instanceof GlobalWatchedMemory
+              && ((GlobalWatchedMemory) currentSegment).isDataWatched(address >> 8)) {
+          return false;
+      }
+      Memory mem = memorySegments[address >> 8];
+      if (mem instanceof RAMSegment || mem instanceof RAMOffsetSegment) {
+          return true;
+      }
+      if (mem instanceof FlashSegment) {
+          return !isFlashBusy;
+      }
+      if (mem instanceof IOSegment) {
+          return ((IOSegment) mem).isStableRead(address);
+      }
+      return false;
+  }
+
+  /* Data write - see readData */
+  private void writeData(int address, int data, AccessMode mode) throws EmulationException {
+      unstableAccess = true;
+      if (isDirectAccess(address, mode)) {
+          int seg = address >> 8;
+          if (decodedSegments[seg] != null || (address & 0xff) < DecodedInstruction.MAX_SIZE
+                  || ((address + mode.bytes - 1) >> 8) != seg) {
+              invalidateInstructions(address, mode.bytes);
+          }
+          memory.set(address, data, mode);
+          return;
+      }
+      currentSegment.write(address, data, mode);
+  }
+
+  /**
+   * Invalidates any decoded instructions covering the specified memory area.
+   * Must be called when memory that might contain code is modified.
+   */
+  public void invalidateInstructions(int address, int size) {
+      int start = (address - DecodedInstruction.MAX_SIZE + 2) & ~1;
+      if (start < 0) {
+          start = 0;
+      }
+      int end = address + size;
+      if (end > MAX_MEM) {
+          end = MAX_MEM;
+      }
+      for (int seg = start >> 8, last = (end - 1) >> 8; seg <= last; seg++) {
+          DecodedInstruction[] decoded = decodedSegments[seg];
+          if (decoded != null) {
+              int a = Math.max(start, seg << 8);
+              int segEnd = Math.min(end, (seg + 1) << 8);
+              for (; a < segEnd; a += 2) {
+                  decoded[(a & 0xff) >> 1] = null;
+              }
+          }
+      }
+  }
+
+  /**
+   * Removes all decoded instructions. Must be called when the memory
+   * has been modified without going through the memory segments, for
+   * example when loading new firmware.
+   */
+  public void flushInstructionCache() {
+      for (int i = 0, n = decodedSegments.length; i < n; i++) {
+          decodedSegments[i] = null;
+      }
+  }
+
+  /**
+   * Loads the programs of the ELF file into memory. The flash pages are
+   * mapped from an image shared with all nodes using the same firmware and
+   * are only copied when erased or programmed. Other memory is loaded
+   * directly from the ELF file.
+   */
+  public void loadFirmware(ELF elf) {
+      ByteMemory image = elf.getSharedImage(MAX_MEM);
+      int start = -1;
+      for (int address = 0; address < MAX_MEM; address += Memory.SEGMENT_SIZE) {
+          if (config.isFlash(address) || config.isInfoMem(address)) {
+              if (start >= 0) {
+                  elf.loadPrograms(memory, start, address);
+                  start = -1;
+              }
+              memory.map(image, address);
+          } else if (start < 0) {
+              start = address;
+          }
+      }
+      if (start >= 0) {
+          elf.loadPrograms(memory, start, MAX_MEM);
+      }
+      flushInstructionCache();
+  }
+
   /* returns true if any instruction was emulated - false if CpuOff */
   public int emulateOP(long maxCycles) throws EmulationException {
     //System.out.println("CYCLES BEFORE: " + cycles);
@@ -972,39 +1398,44 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
     /* Did not execute any instructions */
     if (cpuOff || flash.blocksCPU()) {
-      //       System.out.println("Jumping: " + (nextIOTickCycles - cycles));
-      // nextEventCycles must exist, otherwise CPU can not wake up!?
-
       // If CPU is not active we must run the events here!!!
-      // this can trigger interrupts that wake the CPU
-      // -------------------------------------------------------------------
-      // Event processing - note: This can trigger IRQs!
-      // -------------------------------------------------------------------
-      /* This can flag an interrupt! */
-      while (cycles >= nextEventCycles) {
-        executeEvents();
-      }
+      // this can trigger interrupts that wake the CPU.
+      // Time is advanced directly from event to event until the CPU can
+      // wake up or maxCycles is reached. Without maxCycles only the events
+      // at the next event time are executed, and without events nothing
+      // can wake the CPU so time is not advanced at all.
+      while (true) {
+        /* This can flag an interrupt! */
+        while (cycles >= nextEventCycles) {
+          executeEvents();
+        }
 
-      if (interruptsEnabled && interruptMax > 0) {
+        if (!(cpuOff || flash.blocksCPU()) || isStopping
+            || (interruptsEnabled && servicedInterrupt == -1 && interruptMax >= 0)) {
           /* can not allow for jumping to nextEventCycles since that would jump too far */
-          return -1;
-      }
+          break;
+        }
 
-      if (maxCycles >= 0 && maxCycles < nextEventCycles) {
-        // Should it just freeze or take on extra cycle step if cycles > max?
-        cycles = cycles < maxCycles ? maxCycles : cycles;
-      } else {
+        if (maxCycles >= 0 && maxCycles < nextEventCycles) {
+          // Should it just freeze or take on extra cycle step if cycles > max?
+          cycles = cycles < maxCycles ? maxCycles : cycles;
+          break;
+        }
+        if (nextEventCycles == NO_EVENT) {
+          break;
+        }
         cycles = nextEventCycles;
+        if (maxCycles < 0) {
+          while (cycles >= nextEventCycles) {
+            executeEvents();
+          }
+          break;
+        }
       }
       return -1;
     }
 
     int pcBefore = pc;
-    instruction = currentSegment.read(pc, AccessMode.WORD, AccessType.EXECUTE);
-    if (isStopping) {
-        // Signaled to stop the execution before performing the instruction
-        return -2;
-    }
     int ext3_0 = 0;
     int ext10_7 = 0;
     int extSrc = 0;
@@ -1012,8 +1443,29 @@ public class MSP430Core extends Chip implements MSP430Constants {
     boolean repeatsInDstReg = false;
     boolean wordx20 = false;
 
+    DecodedInstruction di = getDecodedInstruction(pc);
+    if (di != null) {
+        /* already decoded - no need to fetch again */
+        instruction = di.instruction;
+        extWord = di.extWord;
+        if (extWord != 0) {
+            ext3_0 = di.ext3_0;
+            extSrc = di.extSrc;
+            extDst = di.extDst;
+            repeatsInDstReg = di.repeatsInDstReg;
+            wordx20 = di.wordx20;
+            pc += 2;
+        }
+    } else {
+        instruction = currentSegment.read(pc, AccessMode.WORD, AccessType.EXECUTE);
+    }
+    if (isStopping) {
+        // Signaled to stop the execution before performing the instruction
+        return -2;
+    }
+
     /* check for extension words */
-    if ((instruction & 0xf800) == 0x1800) {
+    if (di == null && (instruction & 0xf800) == 0x1800) {
         extWord = instruction;
         ext3_0 = instruction & 0xf; /* bit 3 - 0 - either repeat count or dest 19-16 */
         ext10_7 = (instruction >> 7) & 0xf; /* bit 10 - 7 - src 19-16 */
@@ -1040,20 +1492,27 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	instruction = currentSegment.read(pc, AccessMode.WORD, AccessType.EXECUTE);
         /*System.out.println("*** Extension word!!! " + Utils.hex16(extWord) +
                 "  read the instruction too: " + Utils.hex16(instruction) + " at " + Utils.hex16(pc - 2));*/
-    } else {
+    } else if (di == null) {
         extWord = 0;
     }
     
-    op = instruction >> 12;
     int sp = 0;
     int sr = 0;
     int rval = 0; /* register value */
     int repeats = 1; /* msp430X can repeat some instructions in some cases */
     boolean zeroCarry = false; /* msp430X can zero carry in repeats */
-    boolean word = (instruction & 0x40) == 0;
-
-    /* NOTE: there is a mode when wordx20 = true & word = true that is resereved */
-    AccessMode mode = wordx20 ? AccessMode.WORD20 : (word ? AccessMode.WORD : AccessMode.BYTE);
+    boolean word;
+    AccessMode mode;
+    if (di != null) {
+        op = di.op;
+        word = di.word;
+        mode = di.mode;
+    } else {
+        op = instruction >> 12;
+        word = (instruction & 0x40) == 0;
+        /* NOTE: there is a mode when wordx20 = true & word = true that is resereved */
+        mode = wordx20 ? AccessMode.WORD20 : (word ? AccessMode.WORD : AccessMode.BYTE);
+    }
     
     //if (mode == AccessMode.WORD20) System.out.println("WORD20 not really supported...");
 
@@ -1081,8 +1540,8 @@ public class MSP430Core extends Chip implements MSP430Constants {
 //                " ins:" + Utils.hex16(instruction) + " PC = $" + getAddressAsString(pc - 2));
         int src = 0;
         /* data is either bit 19-16 or src register */
-        int srcData = (instruction & 0x0f00) >> 8;
-        int dstData = (instruction & 0x000f);
+        int srcData = di != null ? di.srcRegister : (instruction & 0x0f00) >> 8;
+        int dstData = di != null ? di.dstRegister : (instruction & 0x000f);
         boolean rrword = true;
         mode = AccessMode.WORD20;
 
@@ -1090,20 +1549,22 @@ public class MSP430Core extends Chip implements MSP430Constants {
         // 20 bit register write
         case MOVA_IND:
         	/* Read from address in src register (20-bit?), move to destination register (=20 bit). */
-        	writeRegister(dstData, currentSegment.read(readRegister(srcData), mode, AccessType.READ));
+        	writeRegister(dstData, readData(readRegister(srcData), mode));
         	updateStatus = false;
         	cycles += 3;
             break;
         case MOVA_IND_AUTOINC:
             if (profiler != null && instruction == 0x0110) {
+                long t = hostTime.start();
                 profiler.profileReturn(cpuCycles);
+                hostTime.monitor(t);
             }
             writeRegister(PC, pc);
             /* read from address in register */
             src = readRegister(srcData);
 //            System.out.println("Reading $" + getAddressAsString(src) +
 //                    " from register: " + srcData);
-            dst = currentSegment.read(src, mode, AccessType.READ);
+            dst = readData(src, mode);
 //            System.out.println("Reading from mem: $" + getAddressAsString(dst));
             writeRegister(srcData, src + 4);
 //            System.out.println("*** Writing $" + getAddressAsString(dst) + " to reg: " + dstData);
@@ -1112,11 +1573,11 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	    cycles += 3;
             break;
         case MOVA_ABS2REG:
-            src = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+            src = readArgument(di, pc);
             writeRegister(PC, pc += 2);
             dst = src + (srcData << 16);
             //System.out.println(Utils.hex20(pc) + " MOVA &ABS Reading from $" + getAddressAsString(dst) + " to reg: " + dstData);
-            dst = currentSegment.read(dst, mode,  AccessType.READ);
+            dst = readData(dst, mode);
             //System.out.println("   => $" + getAddressAsString(dst));
             writeRegister(dstData, dst);
             updateStatus = false;
@@ -1125,22 +1586,22 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	case MOVA_INDX2REG:
 		/* Read data from address in memory, indexed by source
 		 * register, and place into destination register. */
-		int index = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+		int index = readArgument(di, pc);
 		int indexModifier = readRegister(srcData);
 
 		index = convertTwoComplement16(index);
 		indexModifier = convertTwoComplement20(indexModifier);
 
-		writeRegister(dstData, currentSegment.read(indexModifier + index, mode, AccessType.READ));
+		writeRegister(dstData, readData(indexModifier + index, mode));
 		writeRegister(PC, pc += 2);
 		updateStatus = false;
 		cycles += 4;
 		break;
 
 	case MOVA_REG2ABS:
-            dst = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+            dst = readArgument(di, pc);
             writeRegister(PC, pc += 2);
-	    currentSegment.write(dst + (dstData << 16), readRegister(srcData), mode);
+	    writeData(dst + (dstData << 16), readRegister(srcData), mode);
             updateStatus = false;
 	    cycles += 4;
             break;
@@ -1148,20 +1609,20 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	case MOVA_REG2INDX:
 		/* Read data from register, write to address in memory,
 		 * indexed by source register. */
-		index = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+		index = readArgument(di, pc);
 		indexModifier = readRegister(dstData);
 
 		index = convertTwoComplement16(index);
 		indexModifier = convertTwoComplement20(indexModifier);
 
-		currentSegment.write(indexModifier + index, readRegister(srcData), mode);
+		writeData(indexModifier + index, readRegister(srcData), mode);
 		writeRegister(PC, pc += 2);
 		updateStatus = false;
 		cycles += 4;
 		break;
 
         case MOVA_IMM2REG:
-            src = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+            src = readArgument(di, pc);
             writeRegister(PC, pc += 2);
             dst = src + (srcData << 16);
 //            System.out.println("*** Writing $" + getAddressAsString(dst) + " to reg: " + dstData);
@@ -1177,13 +1638,13 @@ public class MSP430Core extends Chip implements MSP430Constants {
         	// the data is stored in the following word (PC + 2) and
         	// the high 4 bits in the instruction word, which we have
         	// masked out as srcData.
-        	int immData = currentSegment.read(pc, AccessMode.WORD, AccessType.READ) + (srcData << 16);
+        	int immData = readArgument(di, pc) + (srcData << 16);
         	writeRegister(PC, pc += 2);
         	int dstArg = readRegister(dstData);
         	dst = dstArg + immData;
 
         	sr = StatusRegister.updateSR(readRegister(SR), immData, dstArg, dst);
-    		writeRegister(SR, sr);
+    		writeFlags(sr);
     		updateStatus = false;
 
         	dst &= 0xfffff;
@@ -1199,7 +1660,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	       operand delivers a negative result, or if the subtraction of a positive source
 	       operand from a negative destination operand delivers a positive result, reset
 	       otherwise (no overflow) */
-		immData = currentSegment.read(pc, AccessMode.WORD, AccessType.READ) + (srcData << 16);
+		immData = readArgument(di, pc) + (srcData << 16);
 		writeRegister(PC, pc += 2);
 		sr = readRegister(SR);
 
@@ -1223,13 +1684,13 @@ public class MSP430Core extends Chip implements MSP430Constants {
 			sr |= OVERFLOW;
 		}
 
-		writeRegister(SR, sr);
+		writeFlags(sr);
 		updateStatus = false;
 		cycles += 3;
 		break;
 	}
         case SUBA_IMM:
-            immData = currentSegment.read(pc, AccessMode.WORD, AccessType.READ) + (srcData << 16);
+            immData = readArgument(di, pc) + (srcData << 16);
             writeRegister(PC, pc += 2);
 	    dst = readRegister(dstData) - immData;
 	    writeRegister(dstData, dst);
@@ -1266,7 +1727,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
         		sr |= OVERFLOW;
         	}
 
-        	writeRegister(SR, sr);
+        	writeFlags(sr);
         	updateStatus = false;
         	cycles += 1;
         	break;
@@ -1277,7 +1738,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	    dst = readRegister(dstData) + readRegisterCG(srcData, 2);
 	    writeRegister(dstData, dst);
     	sr = StatusRegister.updateSR(readRegister(SR), readRegisterCG(srcData, 2), dstData, dst);
-		writeRegister(SR, sr);
+		writeFlags(sr);
 		updateStatus = false;
 	    cycles += 1;
 	    break;
@@ -1353,7 +1814,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                 break;
             }
             /* clear overflow - set carry according to above OP */
-            writeRegister(SR, (sr & ~(CARRY | OVERFLOW)) | nxtCarry);
+            writeFlags((sr & ~(CARRY | OVERFLOW)) | nxtCarry);
             dst = dst & (rrword ? 0xffff : 0xfffff);
             writeRegister(dstData, dst);
             break;
@@ -1373,7 +1834,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
       // -------------------------------------------------------------------
 
       // Register
-      dstRegister = instruction & 0xf;
+      dstRegister = di != null ? di.dstRegister : instruction & 0xf;
       
       /* check if this is a MSP430X CALLA instruction */
       if ((op = instruction & CALLA_MASK) > RETI) {
@@ -1404,7 +1865,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
               /* what happens if wrapping here??? */
               /* read the index which is from -15 bit - +15 bit. - so extend sign to 20-bit */
-              int index = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+              int index = readArgument(di, pc);
               index = convertTwoComplement16(index);
 
 //              System.out.println("CALLA INDX: Reg = " + Utils.hex20(dst) + " INDX: " +  index);
@@ -1413,7 +1874,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
               dst &= 0xfffff;
 
 //              System.out.println("CALLA INDX => " + Utils.hex20(dst));
-              dst = currentSegment.read(dst, AccessMode.WORD20, AccessType.READ);
+              dst = readData(dst, AccessMode.WORD20);
 //              System.out.println("CALLA Read from INDX => " + Utils.hex20(dst));
               cycles += 5;
               pc += 2;
@@ -1423,7 +1884,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
               sp = readRegister(SP) - 2;
               writeRegister(SP, sp);
 
-              dst = (dstRegister << 16) | currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+              dst = (dstRegister << 16) | readArgument(di, pc);
               pc += 2;
               cycles += 5;
               break;
@@ -1433,7 +1894,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
               dstAddress = readRegister(dstRegister);
               
-              dst = currentSegment.read(dstAddress, AccessMode.WORD20, AccessType.READ);
+              dst = readData(dstAddress, AccessMode.WORD20);
               cycles += 5;
               break;
           case CALLA_ABS:
@@ -1441,8 +1902,8 @@ public class MSP430Core extends Chip implements MSP430Constants {
               writeRegister(SP, sp);
 
               /* read the address of where the address to call is */
-              dst = (dstRegister << 16) | currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
-              dst = currentSegment.read(dst, AccessMode.WORD20, AccessType.READ);
+              dst = (dstRegister << 16) | readArgument(di, pc);
+              dst = readData(dst, AccessMode.WORD20);
               pc += 2;
               cycles += 7;
               break;
@@ -1467,7 +1928,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
         		  for(int i = 0; i < n; i++) {
         			  sp -= size;
         			  cycles += 2;
-        			  currentSegment.write(sp, this.reg[regNo], type);
+        			  writeData(sp, this.reg[regNo], type);
         			  /*System.out.println("Saved reg: " + (regNo) + " was " + reg[regNo]);*/
         			  regNo--;
 
@@ -1487,7 +1948,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
         		  for(int i = 0; i < n; i++) {
         			  cycles += 2;
-        			  this.reg[regNo] = currentSegment.read(sp, type, AccessType.READ);
+        			  this.reg[regNo] = readData(sp, type);
         			  regNo++;
         			  //                      System.out.println("Restored reg: " + (regNo - 1) + " to " + reg[regNo - 1]);
         			  sp += size;
@@ -1506,9 +1967,9 @@ public class MSP430Core extends Chip implements MSP430Constants {
           // store current PC on stack. (current PC points to next instr.)
           /* store 20 bits on stack (costs two words) */
           if (dst != -1) {
-              currentSegment.write(sp, (pc >> 16) & 0xf, AccessMode.WORD);
+              writeData(sp, (pc >> 16) & 0xf, AccessMode.WORD);
               sp = sp - 2;
-              currentSegment.write(sp, pc & 0xffff, AccessMode.WORD);
+              writeData(sp, pc & 0xffff, AccessMode.WORD);
               writeRegister(SP, sp);
               writeRegister(PC, dst);
               
@@ -1518,7 +1979,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
           }
       } else {
           // Address mode of destination...
-          int ad = (instruction >> 4) & 3;
+          int ad = di != null ? di.as : (instruction >> 4) & 3;
           int nxtCarry = 0;
           op = instruction & 0xff80;
           if (op == PUSH || op == CALL) {
@@ -1553,7 +2014,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                      * "The operand address is the sum of the 20-bit CPU register
                      * content and the 20-bit index."
                      */
-                    dstAddress = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+                    dstAddress = readArgument(di, pc);
                     dstAddress += extDst;
                     dstAddress += rval;
                     dstAddress &= 0xfffff;
@@ -1565,7 +2026,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                        * after the addition of the CPU register Rn and the signed
                        * 16-bit index."
                        */
-                      dstAddress = convertTwoComplement16(currentSegment.read(pc, AccessMode.WORD, AccessType.READ));
+                      dstAddress = convertTwoComplement16(readArgument(di, pc));
                       dstAddress += rval;
                       dstAddress &= 0xffff;
                     } else {
@@ -1574,7 +2035,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                        * "The operand may be located in memory in the range Rn +-32
                        * KB, because the index, X, is a signed 16-bit value"
                        */
-                      dstAddress = convertTwoComplement16(currentSegment.read(pc, AccessMode.WORD, AccessType.READ));
+                      dstAddress = convertTwoComplement16(readArgument(di, pc));
                       dstAddress += rval;
                       dstAddress &= 0xfffff;
                     }
@@ -1596,7 +2057,14 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   if (dstRegister == PC) {
                       dstAddress = pc;
 
-                      dst = currentSegment.read(dstAddress, mode != AccessMode.BYTE ? AccessMode.WORD : AccessMode.BYTE, AccessType.READ);
+                      if (di != null) {
+                          dst = readArgument(di, dstAddress);
+                          if (mode == AccessMode.BYTE) {
+                              dst &= 0xff;
+                          }
+                      } else {
+                          dst = readData(dstAddress, mode != AccessMode.BYTE ? AccessMode.WORD : AccessMode.BYTE);
+                      }
                       
                       dst += extDst;
                       pc += 2;
@@ -1628,7 +2096,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 //                  System.out.println("*** Repeat " + repeats + " ZeroCarry: " + zeroCarry);
 //              }
           } else if (dst == -1) {
-              dst = currentSegment.read(dstAddress, mode, AccessType.READ);
+              dst = readData(dstAddress, mode);
           }
           
           /* TODO: test add the loop here! */
@@ -1651,7 +2119,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   // Indicate write to memory!!
                   write = true;
                   // Set the next carry!
-                  writeRegister(SR, (sr & ~(CARRY | OVERFLOW)) | nxtCarry);
+                  writeFlags((sr & ~(CARRY | OVERFLOW)) | nxtCarry);
                   break;
               case SWPB:
                   int tmp = dst;
@@ -1663,7 +2131,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   nxtCarry = (dst & 1) > 0 ? CARRY : 0;
                   dst = (dst & mode.msb) | dst >> 1;
                   write = true;
-                  writeRegister(SR, (sr & ~(CARRY | OVERFLOW)) | nxtCarry);
+                  writeFlags((sr & ~(CARRY | OVERFLOW)) | nxtCarry);
                   break;
               case SXT:
                   // Extend Sign (bit 8-15 => same as bit 7)
@@ -1673,14 +2141,14 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   if (dst != 0) {
                       sr |= CARRY;
                   }
-                  writeRegister(SR, sr);
+                  writeFlags(sr);
                   break;
               case PUSH:
                   if (mode == AccessMode.WORD20) {
                       sp = readRegister(SP) - 2;
                       writeRegister(SP, sp);
                   }
-                  currentSegment.write(sp, dst, mode);
+                  writeData(sp, dst, mode);
 
                   /* if REG or INDIRECT AUTOINC then add 2 cycles, otherwise 1 */
                   cycles += (ad == AM_REG || ad == AM_IND_AUTOINC) ? 2 : 1;
@@ -1693,7 +2161,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
                   //	memory[sp] = pc & 0xff;
                   //	memory[sp + 1] = pc >> 8;
-                  currentSegment.write(sp, pc, AccessMode.WORD);
+                  writeData(sp, pc, AccessMode.WORD);
                   writeRegister(PC, dst);
 
                   /* Additional cycles: REG => 3, AM_IND_AUTO => 2, other => 1 */
@@ -1711,13 +2179,13 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   // Put Top of stack to Status DstRegister (TOS -> SR)
                   servicedInterrupt = -1; /* needed before write to SR!!! */
                   sp = readRegister(SP);
-                  sr = currentSegment.read(sp, AccessMode.WORD, AccessType.READ);
+                  sr = readData(sp, AccessMode.WORD);
                   writeRegister(SR, sr & 0x0fff);
                   sp = sp + 2;
                   //	writeRegister(SR, memory[sp++] + (memory[sp++] << 8));
                   // TOS -> PC
                   //	writeRegister(PC, memory[sp++] + (memory[sp++] << 8));
-                  writeRegister(PC, currentSegment.read(sp, AccessMode.WORD, AccessType.READ) | (sr & 0xf000) << 4);
+                  writeRegister(PC, readData(sp, AccessMode.WORD) | (sr & 0xf000) << 4);
                   sp = sp + 2;
                   writeRegister(SP, sp);
                   write = false;
@@ -1730,7 +2198,9 @@ public class MSP430Core extends Chip implements MSP430Constants {
                               " SP after: " + reg[SP]);
                   }        
                   if (profiler != null) {
+                      long t = hostTime.start();
                       profiler.profileRETI(cycles);
+                      hostTime.monitor(t);
                   }
 
                   // This assumes that all interrupts will get back using RETI!
@@ -1798,12 +2268,22 @@ public class MSP430Core extends Chip implements MSP430Constants {
       // ---------------------------------------------------------------
       // Double operand instructions!
       // ---------------------------------------------------------------
-      dstRegister = instruction & 0xf;
-      int srcRegister = (instruction >> 8) & 0xf;
-      int as = (instruction >> 4) & 3;
-
-      // AD: 0 => register direct, 1 => register index, e.g. X(Rn)
-      dstRegMode = ((instruction >> 7) & 1) == 0;
+      int srcRegister;
+      int as;
+      if (di != null) {
+        dstRegister = di.dstRegister;
+        srcRegister = di.srcRegister;
+        as = di.as;
+        dstRegMode = di.dstRegMode;
+        cycles += di.cycles;
+      } else {
+        dstRegister = instruction & 0xf;
+        srcRegister = (instruction >> 8) & 0xf;
+        as = (instruction >> 4) & 3;
+        // AD: 0 => register direct, 1 => register index, e.g. X(Rn)
+        dstRegMode = ((instruction >> 7) & 1) == 0;
+        cycles += DecodedInstruction.getDoubleOperandCycles(instruction);
+      }
       dstAddress = -1;
       int srcAddress = -1;
       src = 0;
@@ -1812,7 +2292,6 @@ public class MSP430Core extends Chip implements MSP430Constants {
       if ((srcRegister == CG1 && as > AM_INDEX) || srcRegister == CG2) {
         src = CREG_VALUES[srcRegister - 2][as];
         src &= mode.mask;
-        cycles += dstRegMode ? 1 : 4;
       } else {
 	switch(as) {
 	  // Operand in register!
@@ -1820,10 +2299,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	  // CG handled above!
 	  src = readRegister(srcRegister);
 	  src &= mode.mask;
-	  cycles += dstRegMode ? 1 : 4;
-	  /* add cycle if destination register = PC */
-          if (dstRegister == PC) cycles++;
-          
+
           if (dstRegMode) {
               /* possible to have repeat, etc... */
               /* TODO: decode the # also */
@@ -1851,7 +2327,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	     * "The operand address is the sum of the 20-bit CPU register
 	     * content and the 20-bit index."
 	     */
-	    srcAddress = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+	    srcAddress = readArgument(di, pc);
 	    srcAddress += extSrc;
 	    srcAddress += sval;
 	    srcAddress &= 0xfffff;
@@ -1863,7 +2339,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	       * after the addition of the CPU register Rn and the signed
 	       * 16-bit index."
 	       */
-	      srcAddress = convertTwoComplement16(currentSegment.read(pc, AccessMode.WORD, AccessType.READ));
+	      srcAddress = convertTwoComplement16(readArgument(di, pc));
 	      srcAddress += sval;
 	      srcAddress &= 0xffff;
 	    } else {
@@ -1872,7 +2348,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	       * "The operand may be located in memory in the range Rn +-32
 	       * KB, because the index, X, is a signed 16-bit value"
 	       */
-	      srcAddress = convertTwoComplement16(currentSegment.read(pc, AccessMode.WORD, AccessType.READ));
+	      srcAddress = convertTwoComplement16(readArgument(di, pc));
 	      srcAddress += sval;
 	      srcAddress &= 0xfffff;
 	    }
@@ -1880,38 +2356,28 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
 	  pc += 2;
 	  writeRegister(PC, pc);
-	  cycles += dstRegMode ? 3 : 6;
 	  break;
 	}
 	  // Indirect register
 	case AM_IND_REG:
 	  srcAddress = readRegister(srcRegister);
-	  cycles += dstRegMode ? 2 : 5;
 	  break;
 	case AM_IND_AUTOINC:
 		if (srcRegister == PC) {
 			/* PC is always handled as word */
 			if (mode == AccessMode.BYTE) {
-				src = currentSegment.read(pc, AccessMode.BYTE,
-						AccessType.READ);
+				src = di != null ? readArgument(di, pc) & 0xff
+				        : readData(pc, AccessMode.BYTE);
 			} else {
-				src = currentSegment.read(pc, AccessMode.WORD,
-						AccessType.READ);
+				src = readArgument(di, pc);
 			}
 			src += extSrc;
 
 			pc += 2;
 			writeRegister(PC, pc);
-			cycles += dstRegMode ? 2 : 5;
 		} else {
 			srcAddress = readRegister(srcRegister);
 			incRegister(srcRegister, mode.bytes);
-			cycles += dstRegMode ? 2 : 5;
-		}
-
-		/* If destination register is PC another cycle is consumed */
-		if (dstRegister == PC) {
-			cycles++;
 		}
 		break;
 	}
@@ -1929,7 +2395,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
         if (dstRegister == 2) {
           /* absolute mode */
-          dstAddress = currentSegment.read(pc, AccessMode.WORD, AccessType.READ); //memory[pc] + (memory[pc + 1] << 8);
+          dstAddress = readArgument(di, pc); //memory[pc] + (memory[pc + 1] << 8);
           dstAddress += extDst;
         } else {
           // CG here - probably not!???
@@ -1945,7 +2411,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
              * "The operand address is the sum of the 20-bit CPU register
              * content and the 20-bit index."
              */
-            dstAddress = currentSegment.read(pc, AccessMode.WORD, AccessType.READ);
+            dstAddress = readArgument(di, pc);
             dstAddress += extDst;
             dstAddress += rval;
             dstAddress &= 0xfffff;
@@ -1957,7 +2423,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                * after the addition of the CPU register Rn and the signed
                * 16-bit index."
                */
-              dstAddress = convertTwoComplement16(currentSegment.read(pc, AccessMode.WORD, AccessType.READ));
+              dstAddress = convertTwoComplement16(readArgument(di, pc));
               dstAddress += rval;
               dstAddress &= 0xffff;
             } else {
@@ -1966,7 +2432,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                * "The operand may be located in memory in the range Rn +-32
                * KB, because the index, X, is a signed 16-bit value"
                */
-              dstAddress = convertTwoComplement16(currentSegment.read(pc, AccessMode.WORD, AccessType.READ));
+              dstAddress = convertTwoComplement16(readArgument(di, pc));
               dstAddress += rval;
               dstAddress &= 0xfffff;
             }
@@ -1974,7 +2440,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
         }
 
         if (op != MOV) {
-        	dst = currentSegment.read(dstAddress, mode, AccessType.READ);
+        	dst = readData(dstAddress, mode);
         }
         pc += 2;
         incRegister(PC, 2);
@@ -1987,7 +2453,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 //            System.out.println("SrcAddress is: " + Utils.hex20(srcAddress));
 //        }
 //	srcAddress = srcAddress & 0xffff;
-        src = currentSegment.read(srcAddress, mode, AccessType.READ);
+        src = readData(srcAddress, mode);
 
 //	src = currentSegment.read(srcAddress, word ? AccessMode.WORD : AccessMode.BYTE, AccessType.READ);
 
@@ -2017,7 +2483,9 @@ public class MSP430Core extends Chip implements MSP430Constants {
               updateStatus = false;
 
               if (instruction == RETURN && profiler != null) {
+                  long t = hostTime.start();
                   profiler.profileReturn(cpuCycles);
+                  hostTime.monitor(t);
               }
 
               break;
@@ -2053,7 +2521,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
               // 	  System.out.println(Utils.hex16(dst) + " [SR=" +
               // 			     Utils.hex16(reg[SR]) + "]");
-              writeRegister(SR, sr);
+              writeFlags(sr);
               write = true;
               break;
           case CMP: // CMP
@@ -2066,7 +2534,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
               if (((src ^ tmp) & b) == 0 && (((src ^ dst) & b) != 0)) {
                   sr |= OVERFLOW;
               }
-              writeRegister(SR, sr);
+              writeFlags(sr);
               // Must set dst to the result to set the rest of the status register
               dst = tmp;
               break;
@@ -2086,7 +2554,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
               if (dst != 0) {
                   sr |= CARRY;
               }
-              writeRegister(SR, sr);
+              writeFlags(sr);
               break;
           case BIC: // BIC
               // No status reg change
@@ -2115,7 +2583,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   sr |= CARRY;
               }
               write = true;
-              writeRegister(SR, sr);
+              writeFlags(sr);
               break;
           case AND: // AND
               sr = sr & ~(CARRY | OVERFLOW);
@@ -2124,7 +2592,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   sr |= CARRY;
               }
               write = true;
-              writeRegister(SR, sr);
+              writeFlags(sr);
               break;
           default:
               String address = getAddressAsString(pc);
@@ -2153,7 +2621,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
       if (dstRegMode) {
 	writeRegister(dstRegister, dst);
       } else {
-        currentSegment.write(dstAddress, dst, mode);
+        writeData(dstAddress, dst, mode);
       }
     }
     if (updateStatus) {
@@ -2162,11 +2630,15 @@ public class MSP430Core extends Chip implements MSP430Constants {
       sr = readRegister(SR);
       sr = (sr & ~(ZERO | NEGATIVE)) |
 	((dst == 0) ? ZERO : 0) | ((dst & mode.msb) > 0 ? NEGATIVE : 0);
-      writeRegister(SR, sr);
+      writeFlags(sr);
     }
 
     //System.out.println("CYCLES AFTER: " + cycles);
 
+    if (busyWaitActive) {
+      followLoop(di, maxCycles);
+    }
+
     // -------------------------------------------------------------------
     // Event processing (when CPU is awake)
     // -------------------------------------------------------------------
@@ -2179,6 +2651,77 @@ public class MSP430Core extends Chip implements MSP430Constants {
     /* return the address that was executed */
     return pcBefore;
   }
+
+  /* Follows the interpreted execution from one taken backward jump to the
+   * next. When a jump goes back to the start of the iteration that is
+   * followed, the iteration is a candidate for fast forwarding. Calls,
+   * returns and other changes of the program flow end the iteration. */
+  private void followLoop(DecodedInstruction di, long maxCycles) {
+    if (di == null) {
+      /* not cached - the code is watched or being modified */
+      loopStart = -1;
+      return;
+    }
+    boolean jump = di.op == 2 || di.op == 3;
+    if (loopStart >= 0) {
+      if (loopLength == MAX_LOOP_INSTRUCTIONS || (!jump && di.changesFlow())) {
+        loopStart = -1;
+      } else {
+        loopAddresses[loopLength++] = di.address;
+      }
+    }
+    int pc = reg[PC];
+    if (jump && pc <= di.address) {
+      if (pc == loopStart && !unstableAccess) {
+        long iterations = skipBusyWait(cycles - loopStartCycles, maxCycles);
+        if (iterations > 0 && execCounter != null) {
+          for (int i = 0; i < loopLength; i++) {
+            execCounter[loopAddresses[i]] += iterations;
+          }
+        }
+      }
+      /* start following the next iteration */
+      loopStart = pc;
+      loopStartCycles = cycles;
+      loopLength = 0;
+      unstableAccess = false;
+      System.arraycopy(reg, 0, loopRegs, 0, 16);
+    }
+  }
+
+  /* Called after a loop iteration that did not write memory and only read
+   * memory that is stable until the next event. If the iteration did not
+   * change any register, the following iterations will do exactly the same
+   * thing until an event is executed, so the loop can be fast forwarded to
+   * the last iteration boundary before the next event. Returns the number
+   * of skipped iterations. */
+  private long skipBusyWait(long iterationCycles, long maxCycles) {
+    int[] reg = this.reg;
+    for (int i = 0; i < 16; i++) {
+      if (reg[i] != loopRegs[i]) {
+        return 0;
+      }
+    }
+    if (iterationCycles <= 0 || registerMonitors || isStopping
+        || (interruptsEnabled && servicedInterrupt == -1 && interruptMax >= 0)) {
+      return 0;
+    }
+    long limit = nextEventCycles;
+    if (maxCycles >= 0 && maxCycles < limit) {
+      limit = maxCycles;
+    } else if (limit == NO_EVENT) {
+      /* only a stop or input from outside can end the loop */
+      return 0;
+    }
+    /* skip whole iterations that end before the limit */
+    long iterations = (limit - cycles - 1) / iterationCycles;
+    if (iterations <= 0) {
+      return 0;
+    }
+    cycles += iterations * iterationCycles;
+    skippedIterations += iterations;
+    return iterations;
+  }
   
   private static int convertTwoComplement16(int index) {
 	  if(index > 0x8000) {
@@ -2208,6 +2751,26 @@ public class MSP430Core extends Chip implements MSP430Constants {
       return currentSegment;
   }
 
+  /* Returns the stored value at the address without notifying any monitors
+   * or IO units. IO addresses return the value in the IO register storage. */
+  public int peekMemory(int address) {
+      if (address < MAX_MEM_IO) {
+          return ioMemory[address];
+      }
+      return memory.get(address);
+  }
+
+  /* Stores a byte at the address without notifying any monitors or IO
+   * units. IO addresses change the value in the IO register storage. */
+  public void pokeMemory(int address, int value) {
+      if (address < MAX_MEM_IO) {
+          ioMemory[address] = value;
+      } else {
+          memory.set(address, value);
+          invalidateInstructions(address, 1);
+      }
+  }
+
   public int getPC() {
     return reg[PC];
   }
@@ -40,6 +40,9 @@ import se.sics.mspsim.util.ProxySupport;
 
 public interface MemoryMonitor {
 
+  /* The accesses notified for a watched range */
+  public enum WatchType { READ, WRITE, READ_WRITE };
+
   public void notifyReadBefore(int addr, Memory.AccessMode mode, Memory.AccessType type);
   public void notifyReadAfter(int addr, Memory.AccessMode mode, Memory.AccessType type);
 
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * PeriodicEvent
+ *
+ * A time event that reschedules itself with a fixed period in virtual
+ * time. The period is converted once when the event is started so the
+ * event can run without any allocation or conversion per period.
+ *
+ * Periodic events are used by commands and tools and are not part of the
+ * state of the node - they stay scheduled when a snapshot is restored.
+ */
+
+package se.sics.mspsim.core;
+
+@NotState
+public abstract class PeriodicEvent extends TimeEvent {
+
+  private final MSP430Core cpu;
+  private long period;
+
+  public PeriodicEvent(MSP430Core cpu, String name) {
+    super(0, name);
+    this.cpu = cpu;
+  }
+
+  public void start(double periodMillis) {
+    period = cpu.millisToTime(periodMillis);
+    if (period <= 0) {
+      period = 1;
+    }
+    cpu.scheduleTimeEventIn(this, period);
+  }
+
+  public void stop() {
+    remove();
+  }
+
+  public long getPeriod() {
+    return period;
+  }
+
+  @Override
+  public final void execute(long t) {
+    /* Schedule before executing to allow the event to stop itself */
+    long next = time + period;
+    cpu.scheduleTimeEvent(this, next > t ? next : t + period);
+    trigger(t);
+  }
+
+  protected abstract void trigger(long t);
+
+}
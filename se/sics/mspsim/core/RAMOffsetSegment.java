@@ -42,7 +42,7 @@ import se.sics.mspsim.core.EmulationLogger.WarningType;
 class RAMOffsetSegment implements Memory {
 
     private final MSP430Core core;
-    private final int memory[];
+    private final ByteMemory memory;
     private final int offset;
 
     RAMOffsetSegment(MSP430Core core, int offset) {
@@ -54,33 +54,19 @@ class RAMOffsetSegment implements Memory {
     @Override public int read(int address, AccessMode mode, AccessType type)
             throws EmulationException {
         address += offset;
-        int val = memory[address] & 0xff;
-        if (mode != AccessMode.BYTE) {
-            val |= (memory[address + 1] << 8);
-            if ((address & 1) != 0) {
-                core.printWarning(WarningType.MISALIGNED_READ, address);
-            }
-            if (mode == AccessMode.WORD20) {
-                val |= (memory[address + 2] << 16) | (memory[address + 3] << 24);
-            }
-            val &= mode.mask;
+        if (mode != AccessMode.BYTE && (address & 1) != 0) {
+            core.printWarning(WarningType.MISALIGNED_READ, address);
         }
-        return val;
+        return memory.get(address, mode);
     }
 
     @Override public void write(int dstAddress, int dst, AccessMode mode)
             throws EmulationException {
         dstAddress += offset;
-        memory[dstAddress] = dst & 0xff;
-        if (mode != AccessMode.BYTE) {
-            memory[dstAddress + 1] = (dst >> 8) & 0xff;
-            if ((dstAddress & 1) != 0) {
-                core.printWarning(WarningType.MISALIGNED_WRITE, dstAddress);
-            }
-            if (mode != AccessMode.WORD) {
-                memory[dstAddress + 2] = (dst >> 16) & 0xff;
-                memory[dstAddress + 3] = (dst >> 24) & 0xff;
-            }
+        core.invalidateInstructions(dstAddress, mode.bytes);
+        memory.set(dstAddress, dst, mode);
+        if (mode != AccessMode.BYTE && (dstAddress & 1) != 0) {
+            core.printWarning(WarningType.MISALIGNED_WRITE, dstAddress);
         }
     }
 
@@ -2,10 +2,11 @@ package se.sics.mspsim.core;
 
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 
+@State
 public class RAMSegment implements Memory {
 
     private final MSP430Core core;
-    private final int memory[];
+    private final ByteMemory memory;
 
     public RAMSegment(MSP430Core core) {
         this.core = core;
@@ -14,36 +15,20 @@ public class RAMSegment implements Memory {
 
     @Override
     public int read(int address, AccessMode mode, AccessType type) throws EmulationException {
-        int val = memory[address] & 0xff;
-        if (mode != AccessMode.BYTE) {
-            val |= (memory[address + 1] << 8);
-            if ((address & 1) != 0) {
-                core.printWarning(WarningType.MISALIGNED_READ, address);
-            }
-            if (mode == AccessMode.WORD20) {
-                /* will the read really get data from the full word? CHECK THIS */
-                val |= (memory[address + 2] << 16) | (memory[address + 3] << 24);
-                val &= 0xfffff;
-            } else {
-                val &= 0xffff;
-            }
+        if (mode != AccessMode.BYTE && (address & 1) != 0) {
+            core.printWarning(WarningType.MISALIGNED_READ, address);
         }
-        return val;
+        /* will the read really get data from the full word? CHECK THIS */
+        return memory.get(address, mode);
     }
 
     @Override
     public void write(int dstAddress, int dst, AccessMode mode) throws EmulationException {
         // assume RAM
-        memory[dstAddress] = dst & 0xff;
-        if (mode != AccessMode.BYTE) {
-            memory[dstAddress + 1] = (dst >> 8) & 0xff;
-            if ((dstAddress & 1) != 0) {
-                core.printWarning(WarningType.MISALIGNED_WRITE, dstAddress);
-            }
-            if (mode != AccessMode.WORD) {
-                memory[dstAddress + 2] = (dst >> 16) & 0xff; /* should be 0x0f ?? */
-                memory[dstAddress + 3] = (dst >> 24) & 0xff; /* will be only zeroes*/
-            }
+        core.invalidateInstructions(dstAddress, mode.bytes);
+        memory.set(dstAddress, dst, mode);
+        if (mode != AccessMode.BYTE && (dstAddress & 1) != 0) {
+            core.printWarning(WarningType.MISALIGNED_WRITE, dstAddress);
         }
     }
 
@@ -107,7 +107,7 @@ public class RTC extends IOUnit {
 	 *           CPU core
 	 */
 	public RTC(MSP430Core cpu, int offset, RtcType r, int intVector) {
-		super("RTC", cpu, cpu.memory, offset);
+		super("RTC", cpu, cpu.ioMemory, offset);
 		type = r;
 		rtcIntVector = intVector;
 		DEBUG = true;
@@ -245,7 +245,7 @@ public class RTC extends IOUnit {
 	/**
 	 * Timer to generate the interrupts and handle the calendar
 	 */
-	private TimeEvent rtcTimer = new TimeEvent(0) {
+	private TimeEvent rtcTimer = new TimeEvent(0, this) {
 
 		public void execute(long t) {
 			if (!rtcHold) {
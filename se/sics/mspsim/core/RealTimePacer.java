@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * RealTimePacer
+ *
+ * Keeps the simulated time in pace with the real time multiplied by a
+ * speed factor. The CPU calls pace() at short intervals of simulated time
+ * and the pacer waits until the real time has caught up by parking the
+ * thread. Optionally the last part of the wait is spent spinning for better
+ * precision, at the cost of keeping a host core busy. The pacer never tries
+ * to catch up when the simulation is too slow - instead it restarts the
+ * pacing from the current time.
+ */
+
+package se.sics.mspsim.core;
+import java.util.concurrent.locks.LockSupport;
+
+public class RealTimePacer {
+
+  public static final double MIN_RATE = 0.01;
+  /* Rate used for running as fast as possible */
+  public static final double UNLIMITED = 0.0;
+
+  // Max lag behind the real time before the pacing is restarted
+  private static final long MAX_DRIFT_NANOS = 50000000;
+
+  private final double nanosPerTime;
+
+  private volatile double rate;
+  private volatile boolean restart = true;
+  // The last part of a wait that is spent spinning - 0 disables spinning
+  private volatile long spinNanos;
+
+  private long startNanos;
+  private long startTime;
+
+  // Drift statistics - nanoseconds after the target real time
+  private long samples;
+  private long totalDrift;
+  private long maxDrift;
+  private long lastDrift;
+  private int restarts;
+
+  public RealTimePacer(int timeFrequency, double rate) {
+    this.nanosPerTime = 1000000000.0 / timeFrequency;
+    setRate(rate);
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  /* Sets the speed factor - UNLIMITED disables the pacing */
+  public void setRate(double rate) {
+    if (rate != UNLIMITED && !(rate >= MIN_RATE)) {
+      throw new IllegalArgumentException("speed factor must be at least " + MIN_RATE);
+    }
+    this.rate = rate;
+    this.restart = true;
+  }
+
+  public boolean isUnlimited() {
+    return rate == UNLIMITED;
+  }
+
+  public long getSpinNanos() {
+    return spinNanos;
+  }
+
+  /* Sets how much of each wait to spend spinning instead of parking */
+  public void setSpinNanos(long spinNanos) {
+    if (spinNanos < 0) {
+      throw new IllegalArgumentException("spin time can not be negative");
+    }
+    this.spinNanos = spinNanos;
+  }
+
+  /* Restarts the pacing from the specified simulated time */
+  public void restart() {
+    restart = true;
+  }
+
+  /**
+   * Waits until the real time has reached the specified simulated time.
+   * @param time the current virtual time of the CPU
+   */
+  public void pace(long time) {
+    double rate = this.rate;
+    if (rate == UNLIMITED) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (restart) {
+      restart = false;
+      startNanos = now;
+      startTime = time;
+      return;
+    }
+    long target = startNanos + (long) ((time - startTime) * nanosPerTime / rate);
+    long spinNanos = this.spinNanos;
+    long wait;
+    while ((wait = target - now) > spinNanos) {
+      LockSupport.parkNanos(wait - spinNanos);
+      now = System.nanoTime();
+    }
+    while (wait > 0) {
+      now = System.nanoTime();
+      wait = target - now;
+    }
+
+    long drift = now - target;
+    samples++;
+    totalDrift += drift;
+    lastDrift = drift;
+    if (drift > maxDrift) {
+      maxDrift = drift;
+    }
+    if (drift > MAX_DRIFT_NANOS) {
+      /* too slow to keep up - do not burst to catch up */
+      restarts++;
+      startNanos = now;
+      startTime = time;
+    }
+  }
+
+  /* Returns the average drift after the target real time in milliseconds */
+  public double getAverageDrift() {
+    return samples > 0 ? totalDrift / (samples * 1000000.0) : 0.0;
+  }
+
+  public double getMaxDrift() {
+    return maxDrift / 1000000.0;
+  }
+
+  public double getLastDrift() {
+    return lastDrift / 1000000.0;
+  }
+
+  /* Returns the number of times the pacing restarted because the simulation could not keep up */
+  public int getRestarts() {
+    return restarts;
+  }
+
+  public void resetStatistics() {
+    samples = 0;
+    totalDrift = 0;
+    maxDrift = 0;
+    lastDrift = 0;
+    restarts = 0;
+  }
+
+  public String getStatistics() {
+    if (rate == UNLIMITED) {
+      return "Speed is unlimited";
+    }
+    return String.format("Drift: avg %.3f ms  max %.3f ms  last %.3f ms  restarts: %d",
+        getAverageDrift(), getMaxDrift(), getLastDrift(), restarts);
+  }
+
+}
@@ -0,0 +1,1040 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * Snapshot
+ *
+ * A checkpoint of the complete state of a node: registers, memory, the
+ * pending events with their times and the state of all IOUnits and Chips.
+ * The state is found by walking the fields of the CPU and the objects
+ * reachable from it. Primitive values are stored in a compact binary form
+ * and references as ids of the objects of the node.
+ *
+ * IOUnits, Chips, TimeEvents, FIFOs, the memory and classes marked @State
+ * are state, and so are the arrays and java.util collections they hold.
+ * Their contents are saved. Strings, enums, boxed numbers and booleans are
+ * saved as values, and instances of classes marked @NotState are only
+ * referenced. Any other object found in the state is an error, so a new
+ * field must either hold state or be marked @NotState. Fields marked
+ * @NotState and fields holding listeners or monitors, also in arrays and
+ * collections, are not part of the state, so debugging tools, loggers and
+ * the configuration stay with the node when a snapshot is restored.
+ *
+ * The fields of a class are stored sorted by name. The stream written by
+ * write() holds a hash of the field names and types of each class, and
+ * read() rejects a snapshot if a class has changed since it was written.
+ *
+ * A snapshot can be restored any number of times into the node it was
+ * taken from. It can also be written to a stream and read back for a newly
+ * built node of the same type with the same firmware, for example to start
+ * test runs from a state after boot. When read, the objects are matched to
+ * the objects of the new node by their place in the state. Objects created
+ * after the snapshot are dropped on restore. Events of classes marked
+ * @NotState (periodic events, the livelock detector) stay scheduled with
+ * the time they had left. File backed storage is not restored.
+ *
+ * The same walk is used to copy the state to another node of the same type
+ * when a node is forked.
+ */
+
+package se.sics.mspsim.core;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import se.sics.mspsim.util.ArrayFIFO;
+
+public class Snapshot {
+
+  private static final int NULL = -1;
+
+  /* The stream format */
+  private static final int MAGIC = 0x4d535053;
+  private static final int VERSION = 1;
+
+  /* Kinds of referenced objects that are not part of the state */
+  private static final int OWN = 0;
+  private static final int STRING = 1;
+  private static final int ENUM = 2;
+  private static final int INTEGER = 3;
+  private static final int LONG = 4;
+  private static final int DOUBLE = 5;
+  private static final int BOOLEAN = 6;
+
+  /* The fields that are part of the state, per class */
+  private static final HashMap<Class<?>, Field[]> stateFields = new HashMap<Class<?>, Field[]>();
+  /* The hash of the stored fields, per class */
+  private static final HashMap<Class<?>, Long> layouts = new HashMap<Class<?>, Long>();
+
+  private static final Comparator<Field> FIELD_ORDER = new Comparator<Field>() {
+    public int compare(Field f1, Field f2) {
+      int c = f1.getName().compareTo(f2.getName());
+      return c != 0 ? c : f1.getDeclaringClass().getName().compareTo(f2.getDeclaringClass().getName());
+    }
+  };
+
+  private final MSP430Core cpu;
+  private final long cycles;
+  private final byte[] data;
+  /* The state objects in the order they are stored */
+  private final Object[] objects;
+  /* The objects that are referenced but not part of the state */
+  private final Object[] externals;
+
+  private Snapshot(MSP430Core cpu, long cycles, byte[] data, Object[] objects, Object[] externals) {
+    this.cpu = cpu;
+    this.cycles = cycles;
+    this.data = data;
+    this.objects = objects;
+    this.externals = externals;
+  }
+
+  public MSP430Core getCPU() {
+    return cpu;
+  }
+
+  /* Returns the cycle count of the CPU when the snapshot was taken */
+  public long getCycles() {
+    return cycles;
+  }
+
+  /* Returns the size of the stored state in bytes */
+  public int size() {
+    return data.length;
+  }
+
+  public int getObjectCount() {
+    return objects.length;
+  }
+
+  /* Saves the state of the CPU and everything reachable from it */
+  static Snapshot save(MSP430Core cpu) {
+    Writer writer = new Writer();
+    try {
+      writer.writeRef(cpu);
+      for (int i = 0; i < writer.objects.size(); i++) {
+        writer.writeState(writer.objects.get(i));
+      }
+      writer.out.close();
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to save state", e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("failed to save state", e);
+    }
+    return new Snapshot(cpu, cpu.cycles, writer.bytes.toByteArray(), writer.objects.toArray(),
+        writer.externals.toArray());
+  }
+
+  /**
+   * Writes the snapshot to a stream. First the classes of the objects are
+   * written with the hash of their stored fields. Then for each object its
+   * class, and for IOUnits and Chips also their creation order. Referenced
+   * objects that are not part of the state are written if they are values -
+   * the node that reads the snapshot keeps its own tool events.
+   */
+  public void write(OutputStream output) throws IOException {
+    DataOutputStream out = new DataOutputStream(output);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(cycles);
+    IdentityHashMap<Object,Integer> loggables = new IdentityHashMap<Object,Integer>();
+    Loggable[] ls = cpu.getLoggables();
+    for (int i = 0; i < ls.length; i++) {
+      loggables.put(ls[i], i);
+    }
+    HashMap<Class<?>,Integer> classes = new HashMap<Class<?>,Integer>();
+    ArrayList<Class<?>> classList = new ArrayList<Class<?>>();
+    for (Object o : objects) {
+      if (!classes.containsKey(o.getClass())) {
+        classes.put(o.getClass(), classList.size());
+        classList.add(o.getClass());
+      }
+    }
+    out.writeInt(classList.size());
+    for (Class<?> type : classList) {
+      out.writeUTF(type.getName());
+      out.writeLong(getLayout(type));
+    }
+    out.writeInt(objects.length);
+    for (Object o : objects) {
+      Integer index = loggables.get(o);
+      out.writeInt(classes.get(o.getClass()));
+      out.writeInt(index != null ? index : NULL);
+      out.writeInt(o.getClass().isArray() ? Array.getLength(o) : NULL);
+    }
+    out.writeInt(externals.length);
+    for (Object o : externals) {
+      if (o instanceof String) {
+        out.writeByte(STRING);
+        out.writeUTF((String) o);
+      } else if (o instanceof Enum<?>) {
+        out.writeByte(ENUM);
+        out.writeUTF(((Enum<?>) o).getDeclaringClass().getName());
+        out.writeUTF(((Enum<?>) o).name());
+      } else if (o instanceof Integer) {
+        out.writeByte(INTEGER);
+        out.writeInt((Integer) o);
+      } else if (o instanceof Long) {
+        out.writeByte(LONG);
+        out.writeLong((Long) o);
+      } else if (o instanceof Double) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) o);
+      } else if (o instanceof Boolean) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean((Boolean) o);
+      } else {
+        /* an instance of a class marked @NotState */
+        out.writeByte(OWN);
+      }
+    }
+    out.writeInt(data.length);
+    out.write(data);
+    out.flush();
+  }
+
+  /**
+   * Reads a snapshot written by write() for the specified CPU. The CPU
+   * must belong to a node of the same type as the one the snapshot was
+   * taken from, set up with the same firmware, and must not be running.
+   * A snapshot written before a class of the node gained, lost or changed
+   * a stored field is rejected.
+   * The returned snapshot is restored with MSP430.restoreState().
+   */
+  public static Snapshot read(InputStream input, MSP430Core cpu) throws IOException {
+    DataInputStream in = new DataInputStream(input);
+    if (in.readInt() != MAGIC) {
+      throw new IOException("not a snapshot");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported snapshot version " + version);
+    }
+    long cycles = in.readLong();
+    String[] classes = new String[in.readInt()];
+    for (int i = 0; i < classes.length; i++) {
+      classes[i] = in.readUTF();
+      long layout = in.readLong();
+      Class<?> type;
+      try {
+        type = Class.forName(classes[i], false, cpu.getClass().getClassLoader());
+      } catch (ClassNotFoundException e) {
+        throw new IOException("snapshot of another version", e);
+      }
+      if (getLayout(type) != layout) {
+        throw new IOException("snapshot of another version: the fields of " + classes[i] + " differ");
+      }
+    }
+    int count = in.readInt();
+    String[] types = new String[count];
+    int[] loggables = new int[count];
+    int[] lengths = new int[count];
+    for (int i = 0; i < count; i++) {
+      int type = in.readInt();
+      if (type < 0 || type >= classes.length) {
+        throw new IOException("corrupt snapshot");
+      }
+      types[i] = classes[type];
+      loggables[i] = in.readInt();
+      lengths[i] = in.readInt();
+    }
+    Object[] externals = new Object[in.readInt()];
+    boolean[] own = new boolean[externals.length];
+    for (int i = 0; i < externals.length; i++) {
+      int kind = in.readByte();
+      switch (kind) {
+      case OWN:
+        own[i] = true;
+        break;
+      case STRING:
+        externals[i] = in.readUTF();
+        break;
+      case ENUM:
+        externals[i] = readEnum(cpu, in.readUTF(), in.readUTF());
+        break;
+      case INTEGER:
+        externals[i] = in.readInt();
+        break;
+      case LONG:
+        externals[i] = in.readLong();
+        break;
+      case DOUBLE:
+        externals[i] = in.readDouble();
+        break;
+      case BOOLEAN:
+        externals[i] = in.readBoolean();
+        break;
+      default:
+        throw new IOException("unknown kind of object " + kind);
+      }
+    }
+    byte[] data = new byte[in.readInt()];
+    in.readFully(data);
+
+    Loader loader = new Loader(cpu, types, lengths, externals, own);
+    try {
+      loader.load(loggables, data);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("snapshot of another version", e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("failed to read state", e);
+    }
+    return new Snapshot(cpu, cycles, data, loader.objects, externals);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Object readEnum(MSP430Core cpu, String type, String name) throws IOException {
+    try {
+      return Enum.valueOf((Class) Class.forName(type, false, cpu.getClass().getClassLoader()), name);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("snapshot of another version", e);
+    }
+  }
+
+  /* Restores the state of the CPU and everything reachable from it */
+  void restore() {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    try {
+      in.readInt();
+      for (Object o : objects) {
+        readState(in, o);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to restore state", e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("failed to restore state", e);
+    }
+  }
+
+  static boolean isState(Object o) {
+    if (o instanceof Enum<?> || o.getClass().isAnnotationPresent(NotState.class)) {
+      return false;
+    }
+    if (o.getClass().isArray() || o instanceof Collection<?> || o instanceof Map<?,?>) {
+      return true;
+    }
+    return o instanceof IOUnit || o instanceof Chip || o instanceof TimeEvent
+        || o instanceof ArrayFIFO || o instanceof ByteMemory
+        || o.getClass().isAnnotationPresent(State.class);
+  }
+
+  /* Values are stored as they are - see write() */
+  private static boolean isValue(Object o) {
+    return o instanceof String || o instanceof Enum<?> || o instanceof Integer
+        || o instanceof Long || o instanceof Double || o instanceof Boolean;
+  }
+
+  /* Fails for objects that are neither state, values nor marked @NotState */
+  private static void checkReference(Object o, Object owner) {
+    if (!isValue(o) && !o.getClass().isAnnotationPresent(NotState.class)) {
+      throw new IllegalStateException(o.getClass().getName() + " in "
+          + (owner != null ? owner.getClass().getName() : "the state")
+          + " is not state - mark the field @NotState or the class @State");
+    }
+  }
+
+  /* Returns true if the state of the objects of the class is in their fields */
+  private static boolean hasStateFields(Class<?> type) {
+    return !type.isArray() && !ByteMemory.class.isAssignableFrom(type)
+        && !Collection.class.isAssignableFrom(type) && !Map.class.isAssignableFrom(type);
+  }
+
+  /* Returns a hash of the names and types of the stored fields of the class */
+  private static synchronized long getLayout(Class<?> type) {
+    Long layout = layouts.get(type);
+    if (layout == null) {
+      StringBuilder sb = new StringBuilder(type.getName());
+      if (hasStateFields(type)) {
+        for (Field f : getStateFields(type)) {
+          sb.append(';').append(f.getDeclaringClass().getName()).append('.').append(f.getName())
+            .append(':').append(f.getType().getName());
+        }
+      }
+      try {
+        byte[] hash = MessageDigest.getInstance("SHA-1").digest(sb.toString().getBytes("UTF-8"));
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+          value = (value << 8) | (hash[i] & 0xff);
+        }
+        layout = value;
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("no SHA-1", e);
+      } catch (IOException e) {
+        throw new IllegalStateException("no UTF-8", e);
+      }
+      layouts.put(type, layout);
+    }
+    return layout;
+  }
+
+  private static synchronized Field[] getStateFields(Class<?> type) {
+    Field[] fields = stateFields.get(type);
+    if (fields == null) {
+      ArrayList<Field> list = new ArrayList<Field>();
+      /* only the fields declared by the simulator classes */
+      for (Class<?> c = type; c != null && c.getName().startsWith("se.sics.mspsim."); c = c.getSuperclass()) {
+        for (Field f : c.getDeclaredFields()) {
+          int modifiers = f.getModifiers();
+          if (Modifier.isStatic(modifiers) || f.isAnnotationPresent(NotState.class)
+              || isListener(f)) {
+            continue;
+          }
+          f.setAccessible(true);
+          list.add(f);
+        }
+      }
+      /* getDeclaredFields() returns the fields in no particular order */
+      Collections.sort(list, FIELD_ORDER);
+      fields = list.toArray(new Field[list.size()]);
+      stateFields.put(type, fields);
+    }
+    return fields;
+  }
+
+  /* Listeners and monitors are attached by tools and not part of the state.
+   * Arrays and collections of them are not part of the state either. */
+  private static boolean isListener(Field f) {
+    if (isListener(f.getType())) {
+      return true;
+    }
+    return f.getGenericType() instanceof ParameterizedType
+        && hasListenerArgument((ParameterizedType) f.getGenericType());
+  }
+
+  private static boolean hasListenerArgument(ParameterizedType type) {
+    for (Type arg : type.getActualTypeArguments()) {
+      if (arg instanceof WildcardType) {
+        Type[] bounds = ((WildcardType) arg).getUpperBounds();
+        arg = bounds.length > 0 ? bounds[0] : Object.class;
+      }
+      if (arg instanceof Class<?> ? isListener((Class<?>) arg)
+          : arg instanceof ParameterizedType && hasListenerArgument((ParameterizedType) arg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isListener(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    String name = type.getSimpleName();
+    return type.isInterface() && (name.endsWith("Listener") || name.endsWith("Monitor"));
+  }
+
+  /* Returns the number of bytes a primitive field is stored in */
+  private static int sizeOf(Class<?> type) {
+    if (type == byte.class || type == boolean.class) {
+      return 1;
+    }
+    if (type == char.class || type == short.class) {
+      return 2;
+    }
+    if (type == int.class || type == float.class) {
+      return 4;
+    }
+    return 8;
+  }
+
+  private static class Writer {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    final ArrayList<Object> objects = new ArrayList<Object>();
+    final ArrayList<Object> externals = new ArrayList<Object>();
+    private final IdentityHashMap<Object,Integer> ids = new IdentityHashMap<Object,Integer>();
+    /* The object whose state is being written */
+    private Object owner;
+
+    /* State objects have positive ids and other objects negative ids */
+    void writeRef(Object o) throws IOException {
+      if (o == null) {
+        out.writeInt(NULL);
+        return;
+      }
+      Integer id = ids.get(o);
+      if (id == null) {
+        if (isState(o)) {
+          id = objects.size();
+          objects.add(o);
+        } else {
+          checkReference(o, owner);
+          id = NULL - 1 - externals.size();
+          externals.add(o);
+        }
+        ids.put(o, id);
+      }
+      out.writeInt(id);
+    }
+
+    void writeState(Object o) throws IOException, IllegalAccessException {
+      Class<?> type = o.getClass();
+      owner = o;
+      if (o instanceof ByteMemory) {
+        ((ByteMemory) o).save(out);
+      } else if (type.isArray()) {
+        writeArray(o);
+      } else if (o instanceof Collection<?>) {
+        Collection<?> c = (Collection<?>) o;
+        out.writeInt(c.size());
+        for (Object e : c) {
+          writeRef(e);
+        }
+      } else if (o instanceof Map<?,?>) {
+        Map<?,?> m = (Map<?,?>) o;
+        out.writeInt(m.size());
+        for (Map.Entry<?,?> e : m.entrySet()) {
+          writeRef(e.getKey());
+          writeRef(e.getValue());
+        }
+      } else {
+        for (Field f : getStateFields(type)) {
+          Class<?> t = f.getType();
+          if (t == int.class) {
+            out.writeInt(f.getInt(o));
+          } else if (t == long.class) {
+            out.writeLong(f.getLong(o));
+          } else if (t == boolean.class) {
+            out.writeBoolean(f.getBoolean(o));
+          } else if (t == double.class) {
+            out.writeDouble(f.getDouble(o));
+          } else if (t == byte.class) {
+            out.writeByte(f.getByte(o));
+          } else if (t == char.class) {
+            out.writeChar(f.getChar(o));
+          } else if (t == short.class) {
+            out.writeShort(f.getShort(o));
+          } else if (t == float.class) {
+            out.writeFloat(f.getFloat(o));
+          } else {
+            writeRef(f.get(o));
+          }
+        }
+      }
+    }
+
+    private void writeArray(Object array) throws IOException {
+      Class<?> t = array.getClass().getComponentType();
+      if (t == byte.class) {
+        byte[] a = (byte[]) array;
+        out.writeInt(a.length);
+        out.write(a);
+      } else if (t == int.class) {
+        int[] a = (int[]) array;
+        out.writeInt(a.length);
+        for (int v : a) {
+          out.writeInt(v);
+        }
+      } else if (t == boolean.class) {
+        boolean[] a = (boolean[]) array;
+        out.writeInt(a.length);
+        for (boolean v : a) {
+          out.writeBoolean(v);
+        }
+      } else if (t == long.class) {
+        long[] a = (long[]) array;
+        out.writeInt(a.length);
+        for (long v : a) {
+          out.writeLong(v);
+        }
+      } else if (t.isPrimitive()) {
+        /* the other primitive arrays are rarely used - store them as doubles */
+        int length = Array.getLength(array);
+        out.writeInt(length);
+        for (int i = 0; i < length; i++) {
+          out.writeDouble(((Number) (t == char.class ? Integer.valueOf(Array.getChar(array, i))
+              : Array.get(array, i))).doubleValue());
+        }
+      } else {
+        Object[] a = (Object[]) array;
+        out.writeInt(a.length);
+        for (Object v : a) {
+          writeRef(v);
+        }
+      }
+    }
+  }
+
+  private Object readRef(DataInputStream in) throws IOException {
+    int id = in.readInt();
+    if (id == NULL) {
+      return null;
+    }
+    return id >= 0 ? objects[id] : externals[NULL - 1 - id];
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readState(DataInputStream in, Object o) throws IOException, IllegalAccessException {
+    Class<?> type = o.getClass();
+    if (o instanceof ByteMemory) {
+      ((ByteMemory) o).restore(in);
+    } else if (type.isArray()) {
+      readArray(in, o);
+    } else if (o instanceof Collection<?>) {
+      int size = in.readInt();
+      ArrayList<Object> list = new ArrayList<Object>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(readRef(in));
+      }
+      Collection<Object> c = (Collection<Object>) o;
+      c.clear();
+      c.addAll(list);
+    } else if (o instanceof Map<?,?>) {
+      int size = in.readInt();
+      Map<Object,Object> m = (Map<Object,Object>) o;
+      m.clear();
+      for (int i = 0; i < size; i++) {
+        Object key = readRef(in);
+        m.put(key, readRef(in));
+      }
+    } else {
+      for (Field f : getStateFields(type)) {
+        /* final fields are never changed but their contents are restored */
+        boolean set = !Modifier.isFinal(f.getModifiers());
+        Class<?> t = f.getType();
+        if (t == int.class) {
+          int v = in.readInt();
+          if (set) f.setInt(o, v);
+        } else if (t == long.class) {
+          long v = in.readLong();
+          if (set) f.setLong(o, v);
+        } else if (t == boolean.class) {
+          boolean v = in.readBoolean();
+          if (set) f.setBoolean(o, v);
+        } else if (t == double.class) {
+          double v = in.readDouble();
+          if (set) f.setDouble(o, v);
+        } else if (t == byte.class) {
+          byte v = in.readByte();
+          if (set) f.setByte(o, v);
+        } else if (t == char.class) {
+          char v = in.readChar();
+          if (set) f.setChar(o, v);
+        } else if (t == short.class) {
+          short v = in.readShort();
+          if (set) f.setShort(o, v);
+        } else if (t == float.class) {
+          float v = in.readFloat();
+          if (set) f.setFloat(o, v);
+        } else {
+          Object v = readRef(in);
+          if (set) f.set(o, v);
+        }
+      }
+    }
+  }
+
+  private void readArray(DataInputStream in, Object array) throws IOException {
+    Class<?> t = array.getClass().getComponentType();
+    int length = in.readInt();
+    if (t == byte.class) {
+      in.readFully((byte[]) array);
+    } else if (t == int.class) {
+      int[] a = (int[]) array;
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readInt();
+      }
+    } else if (t == boolean.class) {
+      boolean[] a = (boolean[]) array;
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readBoolean();
+      }
+    } else if (t == long.class) {
+      long[] a = (long[]) array;
+      for (int i = 0; i < length; i++) {
+        a[i] = in.readLong();
+      }
+    } else if (t.isPrimitive()) {
+      for (int i = 0; i < length; i++) {
+        double v = in.readDouble();
+        if (t == char.class) {
+          Array.setChar(array, i, (char) v);
+        } else if (t == short.class) {
+          Array.setShort(array, i, (short) v);
+        } else if (t == float.class) {
+          Array.setFloat(array, i, (float) v);
+        } else {
+          Array.setDouble(array, i, v);
+        }
+      }
+    } else {
+      Object[] a = (Object[]) array;
+      for (int i = 0; i < length; i++) {
+        a[i] = readRef(in);
+      }
+    }
+  }
+
+  /**
+   * Finds the objects of a snapshot that has been read among the objects of
+   * the CPU it is read for. The stored state is walked in the order it was
+   * written and each object is matched to the object the CPU has at the
+   * same place.
+   */
+  private static class Loader {
+    private final MSP430Core cpu;
+    private final String[] types;
+    private final int[] lengths;
+    final Object[] objects;
+    private final Object[] externals;
+    private final boolean[] own;
+    private final IdentityHashMap<Object,Object> used = new IdentityHashMap<Object,Object>();
+
+    Loader(MSP430Core cpu, String[] types, int[] lengths, Object[] externals, boolean[] own) {
+      this.cpu = cpu;
+      this.types = types;
+      this.lengths = lengths;
+      this.objects = new Object[types.length];
+      this.externals = externals;
+      this.own = own.clone();
+    }
+
+    void load(int[] loggables, byte[] data) throws IOException, IllegalAccessException,
+        ClassNotFoundException {
+      map(0, cpu);
+      /* the IO units and chips (the CPU is one too) are matched by creation order */
+      Loggable[] ls = cpu.getLoggables();
+      for (int i = 0; i < loggables.length; i++) {
+        if (loggables[i] != NULL) {
+          if (loggables[i] >= ls.length) {
+            throw new IllegalStateException("the target node has a different setup");
+          }
+          if (objects[i] == null) {
+            map(i, ls[loggables[i]]);
+          } else if (objects[i] != ls[loggables[i]]) {
+            throw new IllegalStateException("the target node has a different setup");
+          }
+        }
+      }
+      /* an object may be stored before the field that finds its copy (the
+         event queue before the timer that owns the event) - pass over the
+         state until no more objects are found */
+      boolean[] done = new boolean[objects.length];
+      boolean found;
+      do {
+        found = false;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.readInt();
+        for (int i = 0; i < objects.length; i++) {
+          Object o = objects[i];
+          if (o == null && types[i].equals(ByteMemory.class.getName())) {
+            /* the size of the memory is not stored */
+            break;
+          }
+          Class<?> type = o != null ? o.getClass()
+              : Class.forName(types[i], false, cpu.getClass().getClassLoader());
+          boolean resolve = o != null && !done[i];
+          skipState(in, type, o, resolve);
+          if (resolve) {
+            done[i] = true;
+            found = true;
+          }
+        }
+      } while (found);
+      for (int i = 0; i < objects.length; i++) {
+        if (objects[i] == null) {
+          throw new IllegalStateException("no copy of " + types[i] + " in the target node");
+        }
+      }
+    }
+
+    private void map(int id, Object o) {
+      if (!o.getClass().getName().equals(types[id]) || used.containsKey(o)) {
+        throw new IllegalStateException("the target node has a different setup");
+      }
+      objects[id] = o;
+      used.put(o, o);
+    }
+
+    private Object get(int id) {
+      if (id == NULL) {
+        return null;
+      }
+      return id >= 0 ? objects[id] : externals[NULL - 1 - id];
+    }
+
+    /* Finds the object for a reference - current is the value the CPU has
+       there. References that do not match are left to a later pass. */
+    private void resolve(int id, Object current, boolean reuse) throws ClassNotFoundException {
+      if (id == NULL) {
+        return;
+      }
+      if (id < 0) {
+        int index = NULL - 1 - id;
+        if (own[index]) {
+          /* the CPU keeps its own loggers, configuration, ... */
+          externals[index] = current;
+          own[index] = false;
+        }
+        return;
+      }
+      if (objects[id] != null) {
+        return;
+      }
+      if (current != null && current.getClass().getName().equals(types[id])
+          && !used.containsKey(current)
+          && (lengths[id] == NULL || Array.getLength(current) == lengths[id])) {
+        map(id, current);
+      } else if (lengths[id] != NULL && !reuse) {
+        Class<?> type = Class.forName(types[id], false, cpu.getClass().getClassLoader());
+        map(id, Array.newInstance(type.getComponentType(), lengths[id]));
+      }
+    }
+
+    /* Reads past the state of an object (null when it is not found yet) and
+       resolves its references if asked to */
+    private void skipState(DataInputStream in, Class<?> type, Object o, boolean resolve)
+        throws IOException, IllegalAccessException, ClassNotFoundException {
+      if (o instanceof ByteMemory) {
+        ((ByteMemory) o).skip(in);
+      } else if (type.isArray()) {
+        int length = in.readInt();
+        Class<?> t = type.getComponentType();
+        if (t.isPrimitive()) {
+          in.skipBytes(length * (t == int.class || t == long.class || t == byte.class
+              || t == boolean.class ? sizeOf(t) : 8));
+        } else if (!resolve) {
+          in.skipBytes(length * 4);
+        } else {
+          Object[] a = (Object[]) o;
+          for (int i = 0; i < length; i++) {
+            resolve(in.readInt(), a[i], false);
+          }
+        }
+      } else if (!resolve && (Collection.class.isAssignableFrom(type)
+          || Map.class.isAssignableFrom(type))) {
+        int size = in.readInt();
+        in.skipBytes(size * (Map.class.isAssignableFrom(type) ? 8 : 4));
+      } else if (o instanceof Collection<?>) {
+        int size = in.readInt();
+        Object[] current = ((Collection<?>) o).toArray();
+        for (int i = 0; i < size; i++) {
+          resolve(in.readInt(), i < current.length ? current[i] : null, false);
+        }
+      } else if (o instanceof Map<?,?>) {
+        int size = in.readInt();
+        Map<?,?> m = (Map<?,?>) o;
+        /* keys are matched by position like the elements of collections */
+        Object[] keys = m.keySet().toArray();
+        for (int i = 0; i < size; i++) {
+          int key = in.readInt();
+          resolve(key, i < keys.length ? keys[i] : null, false);
+          resolve(in.readInt(), m.get(get(key)), false);
+        }
+      } else {
+        for (Field f : getStateFields(type)) {
+          Class<?> t = f.getType();
+          if (t.isPrimitive()) {
+            in.skipBytes(sizeOf(t));
+          } else if (!resolve) {
+            in.readInt();
+          } else {
+            /* final fields are never set so their objects must be reused */
+            resolve(in.readInt(), f.get(o), Modifier.isFinal(f.getModifiers()));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the state of the source CPU to the target CPU. The target must
+   * belong to a node of the same type, set up with the same firmware. The
+   * state is copied into the objects of the target, and it is an error if
+   * the target has no matching object. The memory pages are shared
+   * copy-on-write.
+   */
+  static void copy(MSP430Core source, MSP430Core target) {
+    try {
+      Copier copier = new Copier();
+      /* the IO units and chips are created by the node setup - match them
+         by creation order before they are found in any field */
+      Loggable[] from = source.getLoggables();
+      Loggable[] to = target.getLoggables();
+      if (from.length != to.length) {
+        throw new IllegalStateException("the target node has a different setup");
+      }
+      for (int i = 0; i < from.length; i++) {
+        if (from[i].getClass() != to[i].getClass()) {
+          throw new IllegalStateException("the target node has a different setup");
+        }
+        copier.map(from[i], to[i]);
+      }
+      copier.copy(source, target);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("failed to copy state", e);
+    }
+  }
+
+  private static class Copier {
+    private final IdentityHashMap<Object,Object> copies = new IdentityHashMap<Object,Object>();
+    private final IdentityHashMap<Object,Object> used = new IdentityHashMap<Object,Object>();
+    private final ArrayList<Object> sources = new ArrayList<Object>();
+    /* The object whose state is being copied */
+    private Object owner;
+
+    void copy(Object source, Object target) throws IllegalAccessException {
+      map(source, target);
+      for (int i = 0; i < sources.size(); i++) {
+        Object o = sources.get(i);
+        copyState(o, copies.get(o));
+      }
+    }
+
+    private void map(Object source, Object target) {
+      Object copy = copies.get(source);
+      if (copy == target) {
+        return;
+      }
+      if (copy != null || used.containsKey(target)) {
+        throw new IllegalStateException("inconsistent copy of " + source.getClass().getName());
+      }
+      copies.put(source, target);
+      used.put(target, source);
+      sources.add(source);
+    }
+
+    /* Returns the copy of a value - current is the value in the target if any */
+    private Object copyOf(Object value, Object current) {
+      if (value == null) {
+        return null;
+      }
+      if (!isState(value)) {
+        checkReference(value, owner);
+        /* the target keeps its own tool events */
+        return current == null || isValue(value) ? value : current;
+      }
+      Object copy = copies.get(value);
+      if (copy == null) {
+        if (current != null && current.getClass() == value.getClass() && !used.containsKey(current)
+            && (!value.getClass().isArray() || Array.getLength(current) == Array.getLength(value))) {
+          copy = current;
+        } else {
+          copy = create(value);
+        }
+        map(value, copy);
+      }
+      return copy;
+    }
+
+    /* Only arrays are created - all other objects must already exist in the target */
+    private static Object create(Object o) {
+      Class<?> type = o.getClass();
+      if (!type.isArray()) {
+        throw new IllegalStateException("no copy of " + type.getName() + " in the target node");
+      }
+      return Array.newInstance(type.getComponentType(), Array.getLength(o));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void copyState(Object source, Object target) throws IllegalAccessException {
+      Class<?> type = source.getClass();
+      owner = source;
+      if (source instanceof ByteMemory) {
+        ((ByteMemory) source).copyTo((ByteMemory) target);
+      } else if (type.isArray()) {
+        int length = Array.getLength(source);
+        if (Array.getLength(target) != length) {
+          throw new IllegalStateException("array size differs in target");
+        }
+        if (type.getComponentType().isPrimitive()) {
+          System.arraycopy(source, 0, target, 0, length);
+        } else {
+          Object[] from = (Object[]) source;
+          Object[] to = (Object[]) target;
+          for (int i = 0; i < length; i++) {
+            to[i] = copyOf(from[i], to[i]);
+          }
+        }
+      } else if (source instanceof Collection<?>) {
+        Collection<Object> c = (Collection<Object>) target;
+        ArrayList<Object> current = new ArrayList<Object>(c);
+        ArrayList<Object> list = new ArrayList<Object>();
+        for (Object e : (Collection<?>) source) {
+          list.add(copyOf(e, list.size() < current.size() ? current.get(list.size()) : null));
+        }
+        c.clear();
+        c.addAll(list);
+      } else if (source instanceof Map<?,?>) {
+        Map<Object,Object> m = (Map<Object,Object>) target;
+        HashMap<Object,Object> current = new HashMap<Object,Object>(m);
+        /* keys are matched by position like the elements of collections */
+        Object[] keys = m.keySet().toArray();
+        m.clear();
+        int i = 0;
+        for (Map.Entry<?,?> e : ((Map<?,?>) source).entrySet()) {
+          Object key = copyOf(e.getKey(), i < keys.length ? keys[i] : null);
+          m.put(key, copyOf(e.getValue(), current.get(key)));
+          i++;
+        }
+      } else {
+        for (Field f : getStateFields(type)) {
+          Object value = f.get(source);
+          if (Modifier.isFinal(f.getModifiers())) {
+            /* final fields are set up by the target itself */
+            if (value != null && isState(value)) {
+              Object current = f.get(target);
+              if (current == null || current.getClass() != value.getClass()) {
+                throw new IllegalStateException("can not copy " + type.getName() + "." + f.getName());
+              }
+              map(value, current);
+            } else if (value != null) {
+              checkReference(value, source);
+            }
+          } else if (f.getType().isPrimitive()) {
+            f.set(target, value);
+          } else {
+            f.set(target, copyOf(value, f.get(target)));
+          }
+        }
+      }
+    }
+  }
+
+}
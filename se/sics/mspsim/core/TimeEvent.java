@@ -42,9 +42,19 @@
 package se.sics.mspsim.core;
 
 public abstract class TimeEvent {
-  // For linking events...
-  TimeEvent nextEvent;
-  TimeEvent prevEvent;
+  // Position in the event queue heap and scheduling order for equal times
+  int heapIndex = -1;
+  long sequence;
+  // Time used for ordering in the event queue
+  long queueTime;
+  // True if the event time is in virtual time and not in cycles
+  boolean virtualTime;
+  // Statistics entry for this event - looked up when first used
+  @NotState EventStatistics.Entry statEntry;
+  // Host time accounting entry for the owner of this event
+  @NotState HostTimeStatistics.Entry hostTimeEntry;
+  // The IOUnit or Chip that uses this event, if any
+  @NotState final Loggable owner;
 
   // Keeps track of where this is scheduled
   EventQueue scheduledIn = null;
@@ -53,12 +63,21 @@ public abstract class TimeEvent {
   protected long time;
 
   public TimeEvent(long time) {
-    this.time = time;
+    this(time, null, null);
   }
 
   public TimeEvent(long time, String name) {
+    this(time, name, null);
+  }
+
+  public TimeEvent(long time, Loggable owner) {
+    this(time, null, owner);
+  }
+
+  public TimeEvent(long time, String name, Loggable owner) {
     this.time = time;
     this.name = name;
+    this.owner = owner;
   }
 
   public final long getTime() {
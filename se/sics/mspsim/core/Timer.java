@@ -220,7 +220,7 @@ public class Timer extends IOUnit {
       final int index;
 
       public CCR(long time, String name, int vector, int index) {
-          super(time, name);
+          super(time, name, Timer.this);
           interruptVector = vector;
           this.index = index;
       }
@@ -348,9 +348,27 @@ public class Timer extends IOUnit {
           }
       }
 
+      /* Compares without interrupt enabled are not scheduled - the interrupt
+       * flag is instead updated when the control register is read */
+      boolean needsEvent() {
+          return captureOn || (tcctl & CC_IE) != 0;
+      }
+
+      void updateCompare(long cycles) {
+          if (!needsEvent() && mode != STOP && expCaptureTime != -1 && cycles >= expCaptureTime) {
+              long wrap = (long) (0x10000 * cyclesMultiplicator);
+              tcctl |= CC_IFG;
+              expCaptureTime += ((cycles - expCaptureTime) / wrap + 1) * wrap;
+          }
+      }
+
       public void update() {
+          if (!needsEvent()) {
+              remove();
+              return;
+          }
           /* schedule this capture register for update*/
-          if (expCaptureTime != -1 && expCaptureTime != time) {
+          if (expCaptureTime != -1 && (expCaptureTime != time || !isScheduled())) {
               if (DEBUG) log(cpu.cycles + ":" + ">> SCHEDULING " + getName() + " = " + tccr +
                       " TR: " + counter + " at: " + expCaptureTime);
               cpu.scheduleCycleEvent(this, expCaptureTime);
@@ -384,7 +402,33 @@ public class Timer extends IOUnit {
 
   }
 
-  private TimeEvent counterTrigger = new TimeEvent(0, "Timer Counter Trigger") {
+  /* The counter overflow is only scheduled when it can trigger an interrupt -
+   * otherwise the interrupt flag is updated when the control register is read */
+  private void updateOverflow(long cycles) {
+      if (!interruptEnable && mode != STOP && cycles >= nextTimerTrigger) {
+          long wrap = (long) (0x10000 * cyclesMultiplicator);
+          interruptPending = true;
+          nextTimerTrigger += ((cycles - nextTimerTrigger) / wrap + 1) * wrap;
+      }
+  }
+
+  /* Updates the interrupt flags of the compares that are not scheduled.
+   * Must be called before the mode, clock or compare values change. */
+  private void updateCompares(long cycles) {
+      for (int i = 0; i < noCompare; i++) {
+          ccr[i].updateCompare(cycles);
+      }
+  }
+
+  private void scheduleOverflow() {
+      if (interruptEnable && mode != STOP) {
+          cpu.scheduleCycleEvent(counterTrigger, nextTimerTrigger);
+      } else {
+          counterTrigger.remove();
+      }
+  }
+
+  private TimeEvent counterTrigger = new TimeEvent(0, "Timer Counter Trigger", this) {
       public void execute(long t) {
           interruptPending = true;
           /* and can be something else if mode is another... */
@@ -493,6 +537,7 @@ public class Timer extends IOUnit {
 //      System.out.println(getName() + " TR read => " + val);
       break;
     case TCTL:
+      updateOverflow(cycles);
       val = tctl;
       if (interruptPending) {
         val |= 1;
@@ -544,6 +589,48 @@ public class Timer extends IOUnit {
     return val & 0xffff;
   }
 
+  /* The interrupt flags without a scheduled event are updated when read, so
+   * these registers are only stable while their flag can not be raised. */
+  @Override
+  public boolean isStableRead(int address) {
+    if (address == tiv) {
+      /* reading the vector clears the flag */
+      return false;
+    }
+    int index = address - offset;
+    switch (index) {
+    case TCTL:
+      return interruptEnable || interruptPending || mode == STOP;
+    case TCCTL0:
+    case TCCTL1:
+    case TCCTL2:
+    case TCCTL3:
+    case TCCTL4:
+    case TCCTL5:
+    case TCCTL6: {
+      int i = (index - TCCTL0) / 2;
+      if (i >= noCompare) {
+        return false;
+      }
+      CCR reg = ccr[i];
+      /* the input bit follows ACLK */
+      return reg.inputSrc != SRC_ACLK && (reg.needsEvent() || mode == STOP
+          || reg.expCaptureTime == -1 || (reg.tcctl & CC_IFG) != 0);
+    }
+    case TCCR0:
+    case TCCR1:
+    case TCCR2:
+    case TCCR3:
+    case TCCR4:
+    case TCCR5:
+    case TCCR6:
+      return (index - TCCR0) / 2 < noCompare;
+    default:
+      /* the counter changes all the time */
+      return false;
+    }
+  }
+
   /* here we need to update things such as CCI / Capture/Compare Input value
    * and other dynamic values
    */
@@ -566,6 +653,7 @@ public class Timer extends IOUnit {
         input = true;
       }
     }
+    ccr[cctl].updateCompare(cycles);
     ccr[cctl].tcctl = (ccr[cctl].tcctl & ~CC_I) | (input ? CC_I : 0);    
   }
 
@@ -625,6 +713,8 @@ public class Timer extends IOUnit {
       if (DEBUG) {
         log("wrote to TCTL: " + Utils.hex16(data));
       }
+      updateOverflow(cycles);
+      updateCompares(cycles);
       inputDivider = 1 << ((data >> 6) & 3);
       clockSource = srcMap[(data >> 8) & 3];
 
@@ -645,8 +735,6 @@ public class Timer extends IOUnit {
         // recalculation
         resetCounter(cycles);
         
-        // Wait until full wrap before setting the IRQ flag!
-        nextTimerTrigger = (long) (cycles + cyclesMultiplicator * ((0xffff - counter) & 0xffff));
         if (DEBUG) {
           log("Starting timer!");
         }
@@ -693,7 +781,7 @@ public class Timer extends IOUnit {
       for (int i = 0; i < noCompare; i++) {
           ccr[i].updateCaptures(cycles);
       }
-      
+      scheduleOverflow();
       break;
     case TCCTL0:
     case TCCTL1:
@@ -705,6 +793,7 @@ public class Timer extends IOUnit {
       // Control register...
       int index = (iAddress - TCCTL0) / 2;
       CCR reg = ccr[index];
+      reg.updateCompare(cycles);
       reg.tcctl = data;
       reg.outMode = (data >> 5)& 7;
       boolean oldCapture = reg.captureOn;
@@ -737,6 +826,9 @@ public class Timer extends IOUnit {
 
       reg.updateCaptures(cycles);
 //      updateCaptures(index, cycles);
+      if (!reg.captureOn) {
+          reg.update();
+      }
       break;
       // Write to compare register!
     case TCCR0:
@@ -748,6 +840,9 @@ public class Timer extends IOUnit {
     case TCCR6:
       // update of compare register
       index = (iAddress - TCCR0) / 2;
+      if (ccr[index] == null)
+          logw(WarningType.VOID_IO_WRITE, "Timer write to " + Utils.hex16(address));
+      ccr[index].updateCompare(cycles);
       updateCounter(cycles);
       if (index == 0) {
         // Reset the counter to bring it down to a smaller value...
@@ -757,8 +852,6 @@ public class Timer extends IOUnit {
           resetCounter(cycles);
         }
       }
-      if (ccr[index] == null)
-          logw(WarningType.VOID_IO_WRITE, "Timer write to " + Utils.hex16(address));
       ccr[index].tccr = data;
 
       int diff = data - counter;
@@ -826,7 +919,9 @@ public class Timer extends IOUnit {
       log("Counter reset at " + cycles +  " cycMul: " + cyclesMultiplicator);
     }
 
-    cpu.scheduleCycleEvent(counterTrigger, cycles + (long)((0x10000 - counter) * cyclesMultiplicator));
+    // Wait until full wrap before setting the IRQ flag!
+    nextTimerTrigger = cycles + (long)((0x10000 - counter) * cyclesMultiplicator);
+    scheduleOverflow();
 //    System.out.println("(re)Scheduling counter trigger..." + counterTrigger.time + " now = " + cycles + " ctr: " + counter);
 
   }
@@ -970,6 +1065,7 @@ public class Timer extends IOUnit {
   @Override
   public String info() {
       StringBuilder sb = new StringBuilder();
+      updateOverflow(cpu.cycles);
       sb.append("  Source: " + getSourceName(clockSource) + "  Speed: " + clockSpeed
               + " Hz  inDiv: " + inputDivider + "  Multiplier: " + cyclesMultiplicator + '\n'
               + "  Mode: " + modeNames[mode] + "  IEn: " + interruptEnable
@@ -115,14 +115,14 @@ public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource
   /* DMA controller that needs to be called at certain times */
   private DMA dma;
   
-  private TimeEvent txTrigger = new TimeEvent(0) {
+  private TimeEvent txTrigger = new TimeEvent(0, this) {
     public void execute(long t) {
         // Ready to transmit new byte!
         handleTransmit(t);
     }
   };
 
-  private TimeEvent rxTrigger = new TimeEvent(0) {
+  private TimeEvent rxTrigger = new TimeEvent(0, this) {
       public void execute(long t) {
           handleReceive();
       }
@@ -342,6 +342,12 @@ public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource
     return 0;
   }
 
+  /* Reading the receive buffer clears the receive flag */
+  @Override
+  public boolean isStableRead(int address) {
+    return address - offset != URXBUF;
+  }
+
   private void updateBaudRate() {
     int div = ubr0 + (ubr1 << 8);
     if (div == 0) {
@@ -428,7 +434,7 @@ public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource
     nextRXByte = b & 0xff;
     if (!receiving) {
       receiving = true;
-      cpu.scheduleCycleEvent(rxTrigger, cpu.cycles + 1);
+      cpu.scheduleCycleEventIn(rxTrigger, 1);
     }
   }
 
@@ -126,7 +126,7 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
   
   private boolean usciA = true; /* if this is an USCI A or B */
   
-  private TimeEvent txTrigger = new TimeEvent(0) {
+  private TimeEvent txTrigger = new TimeEvent(0, this) {
     public void execute(long t) {
         // Ready to transmit new byte!
         handleTransmit(t);
@@ -379,6 +379,16 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
     return 0;
   }
 
+  /* Reading the receive buffer clears the receive flag */
+  @Override
+  public boolean isStableRead(int address) {
+    if (address == ieAddress || address == ifgAddress) {
+      return true;
+    }
+    address = address - offset;
+    return address != UAxRXBUF && address != UBxRXBUF;
+  }
+
   private void updateBaudRate() {
     int div = ubr0 + (ubr1 << 8);
     if (div == 0) {
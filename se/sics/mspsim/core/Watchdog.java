@@ -81,7 +81,7 @@ public class Watchdog extends IOUnit implements SFRModule {
   // Timer or WDT mode
   private boolean timerMode = false;
   
-  private TimeEvent wdtTrigger = new TimeEvent(0, "Watchdog") {
+  private TimeEvent wdtTrigger = new TimeEvent(0, "Watchdog", this) {
     public void execute(long t) {
 //      System.out.println(getName() + " **** executing update timers at " + t + " cycles=" + core.cycles);
       triggerWDT(t);
@@ -89,7 +89,7 @@ public class Watchdog extends IOUnit implements SFRModule {
   };
 
   public Watchdog(MSP430Core cpu, int address) {
-    super("Watchdog", cpu, cpu.memory, address);
+    super("Watchdog", cpu, cpu.ioMemory, address);
 
     resetVector = cpu.MAX_INTERRUPT;
     
@@ -160,7 +160,8 @@ public class Watchdog extends IOUnit implements SFRModule {
   private void scheduleTimer() {
       if (sourceACLK) {
           if (DEBUG) log("setting delay in ms (ACLK): " + 1000.0 * delay / cpu.aclkFrq);
-          targetTime = cpu.scheduleTimeEventMillis(wdtTrigger, 1000.0 * delay / cpu.aclkFrq);
+          targetTime = cpu.getTime() + cpu.getACLK().toTime(delay);
+          cpu.scheduleTimeEvent(wdtTrigger, targetTime);
       } else {
           if (DEBUG) log("setting delay in cycles");
           cpu.scheduleCycleEvent(wdtTrigger, targetTime = cpu.cycles + delay);
@@ -1,25 +1,71 @@
 package se.sics.mspsim.core;
 
+import se.sics.mspsim.core.MemoryMonitor.WatchType;
+import se.sics.mspsim.util.ArrayUtils;
+
 public class WatchedMemory implements Memory {
 
+    /* A watched address range - shared by all segments it overlaps */
+    static final class Range {
+        final int start;
+        final int end;
+        final WatchType type;
+        final MemoryMonitor monitor;
+
+        Range(int start, int end, WatchType type, MemoryMonitor monitor) {
+            this.start = start;
+            this.end = end;
+            this.type = type;
+            this.monitor = monitor;
+        }
+
+        boolean overlaps(int address, AccessMode mode) {
+            return address < end && address + mode.bytes > start;
+        }
+    }
+
+    private static final Range[] NO_RANGES = new Range[0];
+
+    /* Max number of bytes of an access */
+    private static final int MAX_ACCESS_SIZE = 4;
+
     private final int start;
     private final Memory wrappedMemory;
-    private final MemoryMonitor watchPoints[] = new MemoryMonitor[Memory.SEGMENT_SIZE];
+    private final HostTimeStatistics hostTime;
+    /* Allocated when the first single address watch point is added */
+    private MemoryMonitor watchPoints[];
+
+    private Range[] ranges = NO_RANGES;
+    /* One bit per address in the segment for accesses that might hit a range */
+    private final long[] readRangeBits = new long[Memory.SEGMENT_SIZE / 64];
+    private final long[] writeRangeBits = new long[Memory.SEGMENT_SIZE / 64];
 
-    WatchedMemory(int start, Memory wrapped) {
+    WatchedMemory(int start, Memory wrapped, HostTimeStatistics hostTime) {
         this.start = start;
         this.wrappedMemory = wrapped;
+        this.hostTime = hostTime;
+    }
+
+    public Memory getWatchedMemory() {
+        return wrappedMemory;
     }
 
     @Override
     public int read(int address, AccessMode mode, AccessType type) throws EmulationException {
         final int a = address - start;
+        if ((readRangeBits[a >> 6] & (1L << a)) != 0) {
+            return readRanges(address, mode, type);
+        }
         int val;
-        MemoryMonitor mon = watchPoints[a];
+        MemoryMonitor mon = watchPoints != null ? watchPoints[a] : null;
         if (mon != null) {
+            long t = hostTime.start();
             mon.notifyReadBefore(address, mode, type);
+            hostTime.monitor(t);
             val = wrappedMemory.read(address, mode, type);
+            t = hostTime.start();
             mon.notifyReadAfter(address, mode, type);
+            hostTime.monitor(t);
         } else {
             val = wrappedMemory.read(address, mode, type);
         }
@@ -29,16 +75,77 @@ public class WatchedMemory implements Memory {
     @Override
     public void write(int dstAddress, int dst, AccessMode mode) throws EmulationException {
         final int a = dstAddress - start;
-        final MemoryMonitor mon = watchPoints[a];
+        if ((writeRangeBits[a >> 6] & (1L << a)) != 0) {
+            writeRanges(dstAddress, dst, mode);
+            return;
+        }
+        final MemoryMonitor mon = watchPoints != null ? watchPoints[a] : null;
         if (mon != null) {
+            long t = hostTime.start();
             mon.notifyWriteBefore(dstAddress, dst, mode);
+            hostTime.monitor(t);
             wrappedMemory.write(dstAddress, dst, mode);
+            t = hostTime.start();
             mon.notifyWriteAfter(dstAddress, dst, mode);
+            hostTime.monitor(t);
         } else {
             wrappedMemory.write(dstAddress, dst, mode);
         }
     }
 
+    private int readRanges(int address, AccessMode mode, AccessType type) throws EmulationException {
+        final MemoryMonitor mon = watchPoints != null ? watchPoints[address - start] : null;
+        final Range[] ranges = this.ranges;
+        long t = hostTime.start();
+        if (mon != null) {
+            mon.notifyReadBefore(address, mode, type);
+        }
+        for (Range r : ranges) {
+            if (r.type != WatchType.WRITE && r.overlaps(address, mode)) {
+                r.monitor.notifyReadBefore(address, mode, type);
+            }
+        }
+        hostTime.monitor(t);
+        int val = wrappedMemory.read(address, mode, type);
+        t = hostTime.start();
+        if (mon != null) {
+            mon.notifyReadAfter(address, mode, type);
+        }
+        for (Range r : ranges) {
+            if (r.type != WatchType.WRITE && r.overlaps(address, mode)) {
+                r.monitor.notifyReadAfter(address, mode, type);
+            }
+        }
+        hostTime.monitor(t);
+        return val;
+    }
+
+    private void writeRanges(int dstAddress, int dst, AccessMode mode) throws EmulationException {
+        final MemoryMonitor mon = watchPoints != null ? watchPoints[dstAddress - start] : null;
+        final Range[] ranges = this.ranges;
+        long t = hostTime.start();
+        if (mon != null) {
+            mon.notifyWriteBefore(dstAddress, dst, mode);
+        }
+        for (Range r : ranges) {
+            if (r.type != WatchType.READ && r.overlaps(dstAddress, mode)) {
+                r.monitor.notifyWriteBefore(dstAddress, dst, mode);
+            }
+        }
+        hostTime.monitor(t);
+        wrappedMemory.write(dstAddress, dst, mode);
+        t = hostTime.start();
+        if (mon != null) {
+            mon.notifyWriteAfter(dstAddress, dst, mode);
+        }
+        for (Range r : ranges) {
+            if (r.type != WatchType.READ && r.overlaps(dstAddress, mode)) {
+                r.monitor.notifyWriteAfter(dstAddress, dst, mode);
+            }
+        }
+        hostTime.monitor(t);
+    }
+
     @Override
     public int get(int address, AccessMode mode) {
         return wrappedMemory.get(address, mode);
@@ -49,19 +156,89 @@ public class WatchedMemory implements Memory {
         wrappedMemory.set(address, data, mode);
     }
 
+    /* Returns true if any watch point or range remains in this segment */
+    public boolean isWatched() {
+        if (ranges.length > 0) {
+            return true;
+        }
+        if (watchPoints != null) {
+            for (MemoryMonitor mon : watchPoints) {
+                if (mon != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public boolean hasWatchPoint(int address) {
-        MemoryMonitor mon = watchPoints[address - start];
-        return mon != null;
+        if (watchPoints != null && watchPoints[address - start] != null) {
+            return true;
+        }
+        for (Range r : ranges) {
+            if (address >= r.start && address < r.end) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public synchronized void addWatchPoint(int address, MemoryMonitor mon) {
         final int a = address - start;
+        if (watchPoints == null) {
+            watchPoints = new MemoryMonitor[Memory.SEGMENT_SIZE];
+        }
         watchPoints[a] = MemoryMonitor.Proxy.INSTANCE.add(watchPoints[a], mon);
     }
 
     public synchronized void removeWatchPoint(int address, MemoryMonitor mon) {
         final int a = address - start;
-        watchPoints[a] = MemoryMonitor.Proxy.INSTANCE.remove(watchPoints[a], mon);
+        if (watchPoints != null) {
+            watchPoints[a] = MemoryMonitor.Proxy.INSTANCE.remove(watchPoints[a], mon);
+        }
+    }
+
+    synchronized void addRange(Range range) {
+        Range[] ranges = ArrayUtils.add(Range.class, this.ranges, range);
+        // The ranges must be in place before an access can hit them
+        this.ranges = ranges;
+        updateRangeBits(ranges);
+    }
+
+    synchronized void removeRange(int rangeStart, int rangeEnd, MemoryMonitor mon) {
+        Range[] ranges = this.ranges;
+        for (Range r : this.ranges) {
+            if (r.start == rangeStart && r.end == rangeEnd && r.monitor == mon) {
+                ranges = ArrayUtils.remove(ranges, r);
+            }
+        }
+        if (ranges == null) {
+            ranges = NO_RANGES;
+        }
+        updateRangeBits(ranges);
+        this.ranges = ranges;
+    }
+
+    private void updateRangeBits(Range[] ranges) {
+        long[] readBits = new long[readRangeBits.length];
+        long[] writeBits = new long[writeRangeBits.length];
+        for (Range r : ranges) {
+            /* accesses starting up to three bytes before the range can overlap
+               it. The range is also added to the previous segment when these
+               bytes are there, so each segment only marks its own addresses. */
+            int from = Math.max(r.start - (MAX_ACCESS_SIZE - 1), start) - start;
+            int to = Math.min(r.end, start + Memory.SEGMENT_SIZE) - start;
+            for (int a = from; a < to; a++) {
+                if (r.type != WatchType.WRITE) {
+                    readBits[a >> 6] |= 1L << a;
+                }
+                if (r.type != WatchType.READ) {
+                    writeBits[a >> 6] |= 1L << a;
+                }
+            }
+        }
+        System.arraycopy(readBits, 0, readRangeBits, 0, readBits.length);
+        System.arraycopy(writeBits, 0, writeRangeBits, 0, writeBits.length);
     }
 
 }
@@ -41,6 +41,7 @@
 package se.sics.mspsim.net;
 
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 
 import se.sics.jipv6.core.AbstractPacketHandler;
 import se.sics.jipv6.core.Packet;
@@ -68,8 +69,41 @@ public class CC2420PacketHandler extends AbstractPacketHandler implements RFList
   int sfdSearch = 0;
   
   MSP430Core cpu;
+
+  private static class PendingPacket {
+    final Packet packet;
+    final long time;
+
+    PendingPacket(Packet packet, long time) {
+      this.packet = packet;
+      this.time = time;
+    }
+  }
+
+  /* packets waiting to be sent in the order they are due */
+  private final ArrayDeque<PendingPacket> sendQueue = new ArrayDeque<PendingPacket>();
+  private final long sendDelay;
+  private final TimeEvent sendEvent = new TimeEvent(0, "CC2420 Packet Send") {
+    public void execute(long t) {
+      PendingPacket pending;
+      while ((pending = sendQueue.peekFirst()) != null && pending.time <= t) {
+        sendQueue.removeFirst();
+        byte[] buffer = pending.packet.getBytes();
+        for (int i = 0; i < buffer.length; i++) {
+          out.print(Utils.hex8(buffer[i]));
+        }
+        /* send to output + two additional bytes...! */
+        out.println();
+      }
+      if (pending != null) {
+        cpu.scheduleTimeEvent(this, pending.time);
+      }
+    }
+  };
+
   public CC2420PacketHandler(MSP430Core cpu) {
     this.cpu = cpu;
+    sendDelay = cpu.millisToTime(10);
   }
   
   public void receivedByte(byte data) {
@@ -121,33 +155,22 @@ public class CC2420PacketHandler extends AbstractPacketHandler implements RFList
   }
 
   public void sendPacket(Packet packet) {
-    final Packet sendPacket = packet;
     byte[] size = new byte[1];
     byte[] crc = new byte[2];
     size[0] = (byte) ((packet.getTotalLength() + 2)& 0xff);
     packet.prependBytes(size);
     packet.prependBytes(PREAMBLE);
     packet.appendBytes(crc);
-    byte[] data = packet.getBytes();
     System.out.println("Should send packet to radio!!!! " + packet.getTotalLength());
     // Stuff to send to radio!!!
-    TimeEvent te = new TimeEvent(0) {
-      public void execute(long t) {
-        System.out.println("CC2420: Packet to send: ");
-        byte[] buffer = sendPacket.getBytes();
-        for (int i = 0; i < buffer.length; i++) {
-          System.out.print(Utils.hex8(buffer[i]));
-          out.print(Utils.hex8(buffer[i]));
-        }
-        /* send to output + two additional bytes...! */
-        out.println();
-      }
-    };
     /* schedule packet delivery in 10 ms */
-    cpu.scheduleTimeEventMillis(te, 10);
+    long time = cpu.getTime() + sendDelay;
+    sendQueue.addLast(new PendingPacket(packet, time));
+    if (!sendEvent.isScheduled()) {
+      cpu.scheduleTimeEvent(sendEvent, time);
+    }
   }
 
-
   public void setOutput(PrintStream out) {
     this.out = out;
   }
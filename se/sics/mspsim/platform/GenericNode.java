@@ -55,6 +55,8 @@ import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.MSP430;
 import se.sics.mspsim.core.MSP430Config;
 import se.sics.mspsim.core.MSP430Constants;
+import se.sics.mspsim.core.NotState;
+import se.sics.mspsim.core.Snapshot;
 import se.sics.mspsim.extutil.highlight.HighlightSourceViewer;
 import se.sics.mspsim.ui.ConsoleUI;
 import se.sics.mspsim.ui.ControlUI;
@@ -76,12 +78,12 @@ public abstract class GenericNode extends Chip implements Runnable {
   private static final String PROMPT = "MSPSim>";
 
   protected final MSP430 cpu;
-  protected final ComponentRegistry registry;
-  protected ConfigManager config;
+  @NotState protected final ComponentRegistry registry;
+  @NotState protected ConfigManager config;
 
   protected String firmwareFile = null;
-  protected ELF elf;
-  protected OperatingModeStatistics stats;
+  @NotState protected ELF elf;
+  @NotState protected OperatingModeStatistics stats;
 
 
   public GenericNode(String id, MSP430Config config) {
@@ -138,9 +140,9 @@ public abstract class GenericNode extends Chip implements Runnable {
 
     if (firmwareFile.endsWith("ihex")) {
       // IHEX Reading
-      int[] memory = cpu.memory;
       IHexReader reader = new IHexReader();
-      reader.readFile(memory, firmwareFile);
+      reader.readFile(cpu.memory, firmwareFile);
+      cpu.flushInstructionCache();
     } else {
       loadFirmware(firmwareFile);
     }
@@ -296,11 +298,55 @@ public abstract class GenericNode extends Chip implements Runnable {
     }
   }
 
+  /* Saves the state of the node - see MSP430.saveState() */
+  public Snapshot saveState() {
+    return cpu.saveState();
+  }
+
+  public void restoreState(Snapshot snapshot) {
+    cpu.restoreState(snapshot);
+  }
+
+  /**
+   * Creates an independent node of the same type in the current state of
+   * this node, for example to explore alternative inputs from the same
+   * point. The memory pages are shared copy-on-write so the nodes can run
+   * in different threads. The fork has no GUI and its own command handler.
+   * The node may be running: it is then paused on its own thread while the
+   * state is copied, and continues afterwards. The fork is not started.
+   */
+  public GenericNode fork() {
+    GenericNode node;
+    try {
+      node = getClass().getConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("failed to create node", e);
+    }
+    node.setCommandHandler(new CommandHandler(System.out, System.err));
+    if (elf != null) {
+      node.firmwareFile = firmwareFile;
+      node.loadFirmware(elf);
+    }
+    ConfigManager forkConfig = config != null ? new ConfigManager(config) : new ConfigManager();
+    forkConfig.setProperty("nogui", "true");
+    node.setup(forkConfig);
+    cpu.copyStateTo(node.cpu);
+    return node;
+  }
+
   public ELF loadFirmware(URL url) throws IOException {
-      return loadFirmware(url, cpu.memory);
+    return loadFirmware(readELF(url));
   }
 
+  /**
+   * @deprecated the CPU memory is no longer an int array. Loads the
+   * firmware into the given array only, as before.
+   */
   @Deprecated public ELF loadFirmware(URL url, int[] memory) throws IOException {
+    return loadFirmware(readELF(url), memory);
+  }
+
+  private static ELF readELF(URL url) throws IOException {
     DataInputStream inputStream = new DataInputStream(url.openStream());
     ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
     byte[] firmwareData = new byte[2048];
@@ -311,33 +357,50 @@ public abstract class GenericNode extends Chip implements Runnable {
     inputStream.close();
     ELF elf = new ELF(byteStream.toByteArray());
     elf.readAll();
-    return loadFirmware(elf, memory);
+    return elf;
   }
 
   public ELF loadFirmware(String name) throws IOException {
-      return loadFirmware(name, cpu.memory);
+    return loadFirmware(ELF.readELF(firmwareFile = name));
   }
 
+  /**
+   * @deprecated the CPU memory is no longer an int array. Loads the
+   * firmware into the given array only, as before.
+   */
   @Deprecated public ELF loadFirmware(String name, int[] memory) throws IOException {
     return loadFirmware(ELF.readELF(firmwareFile = name), memory);
   }
 
   public ELF loadFirmware(ELF elf) {
-      return loadFirmware(elf, cpu.memory);
+    if (cpu.isRunning()) {
+        stop();
+    }
+    cpu.loadFirmware(elf);
+    setFirmware(elf);
+    return elf;
   }
 
+  /**
+   * @deprecated the CPU memory is no longer an int array. Loads the
+   * firmware into the given array only, as before.
+   */
   @Deprecated public ELF loadFirmware(ELF elf, int[] memory) {
     if (cpu.isRunning()) {
         stop();
     }
-    this.elf = elf;
     elf.loadPrograms(memory);
+    setFirmware(elf);
+    return elf;
+  }
+
+  private void setFirmware(ELF elf) {
+    this.elf = elf;
     MapTable map = elf.getMap();
     cpu.getDisAsm().setMap(map);
     cpu.setMap(map);
     registry.registerComponent("elf", elf);
     registry.registerComponent("mapTable", map);
-    return elf;
   }
 
   public int getConfiguration(int param) {
@@ -46,6 +46,7 @@ import se.sics.mspsim.config.MSP430f149Config;
 import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.NotState;
 import se.sics.mspsim.core.PortListener;
 import se.sics.mspsim.core.USART;
 import se.sics.mspsim.extutil.jfreechart.DataChart;
@@ -81,7 +82,7 @@ public class ESBNode extends GenericNode implements PortListener {
 
   private TR1001 radio;
   private Beeper beeper;
-  private ESBGui gui;
+  @NotState private ESBGui gui;
 
   /**
    * Creates a new <code>ESBNode</code> instance.
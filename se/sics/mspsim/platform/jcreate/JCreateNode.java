@@ -48,6 +48,7 @@ import se.sics.mspsim.chip.MMA7260QT;
 import se.sics.mspsim.core.ADC12;
 import se.sics.mspsim.core.ADCInput;
 import se.sics.mspsim.core.IOPort;
+import se.sics.mspsim.core.NotState;
 import se.sics.mspsim.core.USARTSource;
 import se.sics.mspsim.platform.sky.CC2420Node;
 import se.sics.mspsim.util.ArgumentManager;
@@ -69,7 +70,7 @@ public class JCreateNode extends CC2420Node {
     private MMA7260QT accelerometer;
     private M25P80 flash;
 
-    private JCreateGui gui;
+    @NotState private JCreateGui gui;
 
     public JCreateNode() {
         super("Sentilla JCreate");
@@ -45,6 +45,7 @@ import se.sics.mspsim.chip.FileStorage;
 import se.sics.mspsim.chip.Leds;
 import se.sics.mspsim.chip.M25P80;
 import se.sics.mspsim.core.IOPort;
+import se.sics.mspsim.core.NotState;
 import se.sics.mspsim.core.USARTSource;
 import se.sics.mspsim.platform.sky.CC2420Node;
 import se.sics.mspsim.util.ArgumentManager;
@@ -64,7 +65,7 @@ public class SentillaUSBNode extends CC2420Node {
     public static final int RED_LED = 0x10;
 
     private M25P80 flash;
-    private SentillaUSBGui gui;
+    @NotState private SentillaUSBGui gui;
 
     private Leds leds;
     boolean redLed;
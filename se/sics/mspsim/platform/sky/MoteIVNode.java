@@ -3,6 +3,7 @@ import se.sics.mspsim.chip.Button;
 import se.sics.mspsim.chip.Leds;
 import se.sics.mspsim.chip.SHT11;
 import se.sics.mspsim.core.IOPort;
+import se.sics.mspsim.core.NotState;
 
 public abstract class MoteIVNode extends CC2420Node {
 
@@ -33,7 +34,7 @@ public abstract class MoteIVNode extends CC2420Node {
   private Button button;
   public SHT11 sht11;
 
-  public SkyGui gui;
+  @NotState public SkyGui gui;
 
   public MoteIVNode(String id) {
     super(id);
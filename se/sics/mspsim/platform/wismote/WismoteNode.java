@@ -44,6 +44,7 @@ import se.sics.mspsim.config.MSP430f5437Config;
 import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.IOUnit;
+import se.sics.mspsim.core.NotState;
 import se.sics.mspsim.core.PortListener;
 import se.sics.mspsim.core.USARTListener;
 import se.sics.mspsim.core.USARTSource;
@@ -92,7 +93,7 @@ public class WismoteNode extends GenericNode implements PortListener, USARTListe
     private CC2520 radio;
     private Leds leds;
     private Button button;
-    private WismoteGui gui;
+    @NotState private WismoteGui gui;
     private DS2411 ds2411;
 
     public WismoteNode() {
@@ -10,6 +10,7 @@ import se.sics.mspsim.config.MSP430f2617Config;
 import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.IOUnit;
+import se.sics.mspsim.core.NotState;
 import se.sics.mspsim.core.PortListener;
 import se.sics.mspsim.core.USARTListener;
 import se.sics.mspsim.core.USARTSource;
@@ -68,7 +69,7 @@ public class Z1Node extends GenericNode implements PortListener, USARTListener {
 
     private Leds leds;
     private Button button;
-    private Z1Gui gui;
+    @NotState private Z1Gui gui;
 
     private CC2420 radio;
 //    private TMP102 tmp102;
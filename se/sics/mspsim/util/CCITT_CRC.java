@@ -34,7 +34,10 @@
 
 package se.sics.mspsim.util;
 
+import se.sics.mspsim.core.State;
+
 /* basic CRC-CCITT code */
+@State
 public class CCITT_CRC {
   int crc;
 
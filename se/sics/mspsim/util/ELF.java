@@ -43,8 +43,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 
+import se.sics.mspsim.core.ByteMemory;
 import se.sics.mspsim.debug.DwarfReader;
 import se.sics.mspsim.debug.StabDebug;
 
@@ -74,6 +81,11 @@ public class ELF {
 
   byte[] elfData;
   private int pos = 0;
+  private String contentHash;
+
+  // Shared memory images by content hash and memory size
+  private static final HashMap<String, WeakReference<ByteMemory>> sharedImages =
+      new HashMap<String, WeakReference<ByteMemory>>();
 
   private ELFSection sections[];
   private ELFProgram programs[];
@@ -316,32 +328,100 @@ public class ELF {
     }
   }
 
+  public void loadPrograms(ByteMemory memory) {
+    loadPrograms(memory, 0, memory.size());
+  }
+
+  /* Loads the programs into an array with one byte per element */
   public void loadPrograms(int[] memory) {
     for (int i = 0, n = phnum; i < n; i++) {
-      // paddr or vaddr???
       loadBytes(memory, programs[i].offset, programs[i].paddr,
 		programs[i].fileSize, programs[i].memSize);
     }
   }
 
-  private void loadBytes(int[] memory, int offset, int addr, int len,
-			 int fill) {
+  /* Loads the parts of the programs that are within start - end */
+  public void loadPrograms(ByteMemory memory, int start, int end) {
+    for (int i = 0, n = phnum; i < n; i++) {
+      // paddr or vaddr???
+      loadBytes(memory, programs[i].offset, programs[i].paddr,
+		programs[i].fileSize, programs[i].memSize, start, end);
+    }
+  }
+
+  private void loadBytes(ByteMemory memory, int offset, int addr, int len,
+			 int fill, int start, int end) {
     if (DEBUG) {
       System.out.println("Loading " + len + " bytes into " +
              Integer.toString(addr, 16) + " fill " + fill);
     }
-    for (int i = 0, n = len; i < n; i++) {
-      memory[addr++] = elfData[offset++] & 0xff;
+    if (end > memory.size()) {
+      end = memory.size();
+    }
+    int from = Math.max(addr, start);
+    int to = Math.min(addr + len, end);
+    if (from < to) {
+      memory.set(from, elfData, offset + from - addr, to - from);
     }
     if (fill > len) {
-      int n = fill - len;
-      if (n + addr > memory.length) {
-	n = memory.length - addr;
+      from = Math.max(addr + len, start);
+      to = Math.min(addr + fill, end);
+      if (from < to) {
+        memory.fill(from, to, 0);
       }
-      for (int i = 0; i < n; i++) {
-	memory[addr++] = 0;
+    }
+  }
+
+  private void loadBytes(int[] memory, int offset, int addr, int len,
+			 int fill) {
+    for (int i = 0; i < len && addr < memory.length; i++) {
+      memory[addr++] = elfData[offset++] & 0xff;
+    }
+    for (int i = len; i < fill && addr < memory.length; i++) {
+      memory[addr++] = 0;
+    }
+  }
+
+  /**
+   * Returns a memory image with the programs loaded. The image is shared
+   * by all ELF files with the same content and must not be modified.
+   */
+  public ByteMemory getSharedImage(int size) {
+    String key = getContentHash() + '/' + size;
+    synchronized (sharedImages) {
+      ByteMemory image = null;
+      WeakReference<ByteMemory> ref = sharedImages.get(key);
+      if (ref != null) {
+        image = ref.get();
+      }
+      if (image == null) {
+        // Forget images no longer used by any node
+        Iterator<WeakReference<ByteMemory>> iterator = sharedImages.values().iterator();
+        while (iterator.hasNext()) {
+          if (iterator.next().get() == null) {
+            iterator.remove();
+          }
+        }
+        image = new ByteMemory(size);
+        // Only mapped into flash - unprogrammed bytes read as erased flash
+        image.setFlash(0, size);
+        loadPrograms(image);
+        sharedImages.put(key, new WeakReference<ByteMemory>(image));
+      }
+      return image;
+    }
+  }
+
+  public String getContentHash() {
+    if (contentHash == null) {
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        contentHash = new BigInteger(1, digest.digest(elfData)).toString(16);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-1 not available", e);
       }
     }
+    return contentHash;
   }
 
   public ELFDebug getDebug() {
@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * Expression
+ *
+ * A small C like expression language for conditional breakpoints and
+ * watches. An expression is compiled once into a tree of nodes that can be
+ * evaluated directly in a monitor without going through the CLI.
+ *
+ * Operands are numbers (decimal, 0x or $ hex), the registers pc, sp, sr
+ * and r0 - r15, cycles, hits (number of times the monitor has been hit),
+ * address and value (the accessed address and data of a watch) and
+ * symbols from the map table. A symbol evaluates to the variable contents
+ * and &symbol to its address. A symbol hides a register or keyword with
+ * the same name. Memory is read with *address (word), byte(address) and
+ * word(address) without notifying any monitors or IO units.
+ */
+
+package se.sics.mspsim.util;
+import java.util.Arrays;
+
+import se.sics.mspsim.core.MSP430Constants;
+import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.Memory.AccessMode;
+
+public abstract class Expression {
+
+  /* The state an expression is evaluated against - updated by the monitor */
+  public static class Context {
+    public final MSP430Core cpu;
+    public long hits;
+    public int address;
+    public int value;
+
+    public Context(MSP430Core cpu) {
+      this.cpu = cpu;
+    }
+  }
+
+  public abstract long evaluate(Context context);
+
+  public boolean isTrue(Context context) {
+    return evaluate(context) != 0;
+  }
+
+  /**
+   * Compiles the expression. Symbols are looked up in the map table, which
+   * may be null. Throws IllegalArgumentException if the expression is not
+   * valid.
+   */
+  public static Expression compile(String source, MapTable map) {
+    Parser parser = new Parser(source, map);
+    Expression e = parser.parseExpression();
+    if (parser.token != null) {
+      throw parser.error("unexpected '" + parser.token + "'");
+    }
+    return e;
+  }
+
+  // -------------------------------------------------------------------
+  // Expression nodes
+  // -------------------------------------------------------------------
+
+  private static class Constant extends Expression {
+    private final long value;
+    Constant(long value) {
+      this.value = value;
+    }
+    public long evaluate(Context context) {
+      return value;
+    }
+  }
+
+  private static class Register extends Expression {
+    private final int register;
+    Register(int register) {
+      this.register = register;
+    }
+    public long evaluate(Context context) {
+      return context.cpu.reg[register];
+    }
+  }
+
+  private static class MemoryRead extends Expression {
+    private final Expression address;
+    private final AccessMode mode;
+    MemoryRead(Expression address, AccessMode mode) {
+      this.address = address;
+      this.mode = mode;
+    }
+    public long evaluate(Context context) {
+      int a = (int) address.evaluate(context);
+      MSP430Core cpu = context.cpu;
+      if (a < 0 || a + mode.bytes > cpu.MAX_MEM) {
+        return 0;
+      }
+      /* peek to avoid side effects such as clearing flags in IO units */
+      int value = cpu.peekMemory(a);
+      if (mode != AccessMode.BYTE) {
+        value |= cpu.peekMemory(a + 1) << 8;
+      }
+      return value;
+    }
+  }
+
+  private static class Unary extends Expression {
+    private final char op;
+    private final Expression e;
+    Unary(char op, Expression e) {
+      this.op = op;
+      this.e = e;
+    }
+    public long evaluate(Context context) {
+      long v = e.evaluate(context);
+      switch (op) {
+      case '-': return -v;
+      case '~': return ~v;
+      default: return v == 0 ? 1 : 0;
+      }
+    }
+  }
+
+  private static class Binary extends Expression {
+    private final String op;
+    private final int code;
+    private final Expression left;
+    private final Expression right;
+    Binary(String op, Expression left, Expression right) {
+      this.op = op;
+      this.code = Arrays.asList(BINARY_OPERATORS).indexOf(op);
+      this.left = left;
+      this.right = right;
+    }
+    public long evaluate(Context context) {
+      long l = left.evaluate(context);
+      /* the logical operators only evaluate the right side when needed */
+      if (code == AND) {
+        return l != 0 && right.evaluate(context) != 0 ? 1 : 0;
+      }
+      if (code == OR) {
+        return l != 0 || right.evaluate(context) != 0 ? 1 : 0;
+      }
+      long r = right.evaluate(context);
+      switch (code) {
+      case EQ: return l == r ? 1 : 0;
+      case NE: return l != r ? 1 : 0;
+      case LE: return l <= r ? 1 : 0;
+      case GE: return l >= r ? 1 : 0;
+      case LT: return l < r ? 1 : 0;
+      case GT: return l > r ? 1 : 0;
+      case SHL: return l << r;
+      case SHR: return l >> r;
+      case BITOR: return l | r;
+      case BITXOR: return l ^ r;
+      case BITAND: return l & r;
+      case ADD: return l + r;
+      case SUB: return l - r;
+      case MUL: return l * r;
+      case DIV: return r == 0 ? 0 : l / r;
+      case MOD: return r == 0 ? 0 : l % r;
+      default: throw new IllegalStateException("unknown operator " + op);
+      }
+    }
+  }
+
+  /* The binary operators - the index is used as operator code */
+  private static final String[] BINARY_OPERATORS = {
+    "||", "&&", "==", "!=", "<=", ">=", "<", ">", "<<", ">>",
+    "|", "^", "&", "+", "-", "*", "/", "%"
+  };
+  private static final int OR = 0, AND = 1, EQ = 2, NE = 3, LE = 4, GE = 5,
+    LT = 6, GT = 7, SHL = 8, SHR = 9, BITOR = 10, BITXOR = 11, BITAND = 12,
+    ADD = 13, SUB = 14, MUL = 15, DIV = 16, MOD = 17;
+
+  /* Binary operators by precedence, lowest first */
+  private static final String[][] PRECEDENCE = {
+    { "||" }, { "&&" }, { "|" }, { "^" }, { "&" },
+    { "==", "!=" }, { "<=", ">=", "<", ">" }, { "<<", ">>" },
+    { "+", "-" }, { "*", "/", "%" }
+  };
+
+  // -------------------------------------------------------------------
+  // Parser
+  // -------------------------------------------------------------------
+
+  private static class Parser {
+    private final String source;
+    private final MapTable map;
+    private int pos;
+    private int tokenPos;
+    String token;
+
+    Parser(String source, MapTable map) {
+      this.source = source;
+      this.map = map;
+      next();
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + (tokenPos + 1)
+          + " in '" + source + "'");
+    }
+
+    private void next() {
+      int n = source.length();
+      while (pos < n && Character.isWhitespace(source.charAt(pos))) {
+        pos++;
+      }
+      tokenPos = pos;
+      if (pos >= n) {
+        token = null;
+        return;
+      }
+      char c = source.charAt(pos);
+      if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$') {
+        pos++;
+        while (pos < n && (Character.isLetterOrDigit(source.charAt(pos))
+            || source.charAt(pos) == '_' || source.charAt(pos) == '.')) {
+          pos++;
+        }
+      } else if (pos + 1 < n && isTwoCharOperator(source.substring(pos, pos + 2))) {
+        pos += 2;
+      } else {
+        pos++;
+      }
+      token = source.substring(tokenPos, pos);
+    }
+
+    private static boolean isTwoCharOperator(String op) {
+      return "||".equals(op) || "&&".equals(op) || "==".equals(op) || "!=".equals(op)
+          || "<=".equals(op) || ">=".equals(op) || "<<".equals(op) || ">>".equals(op);
+    }
+
+    private void expect(String expected) {
+      if (!expected.equals(token)) {
+        throw error(token == null ? "missing '" + expected + "'" : "expected '" + expected + "'");
+      }
+      next();
+    }
+
+    Expression parseExpression() {
+      return parseBinary(0);
+    }
+
+    private Expression parseBinary(int level) {
+      if (level >= PRECEDENCE.length) {
+        return parseUnary();
+      }
+      Expression e = parseBinary(level + 1);
+      String op;
+      while ((op = getOperator(PRECEDENCE[level])) != null) {
+        next();
+        e = new Binary(op, e, parseBinary(level + 1));
+      }
+      return e;
+    }
+
+    private String getOperator(String[] operators) {
+      for (String op : operators) {
+        if (op.equals(token)) {
+          return op;
+        }
+      }
+      return null;
+    }
+
+    private Expression parseUnary() {
+      if (token == null) {
+        throw error("unexpected end of expression");
+      }
+      if ("-".equals(token) || "~".equals(token) || "!".equals(token)) {
+        char op = token.charAt(0);
+        next();
+        return new Unary(op, parseUnary());
+      }
+      if ("*".equals(token)) {
+        next();
+        return new MemoryRead(parseUnary(), AccessMode.WORD);
+      }
+      if ("&".equals(token)) {
+        next();
+        MapEntry entry = getSymbol(token);
+        next();
+        return new Constant(entry.getAddress());
+      }
+      return parsePrimary();
+    }
+
+    private Expression parsePrimary() {
+      String t = token;
+      if ("(".equals(t)) {
+        next();
+        Expression e = parseExpression();
+        expect(")");
+        return e;
+      }
+      char c = t.charAt(0);
+      if (Character.isDigit(c) || c == '$') {
+        next();
+        try {
+          return new Constant(Utils.decodeInt(t));
+        } catch (NumberFormatException e) {
+          throw error("illegal number '" + t + "'");
+        }
+      }
+      if (!Character.isLetter(c) && c != '_' && c != '.') {
+        throw error("unexpected '" + t + "'");
+      }
+      String name = t.toLowerCase();
+      int symbolPos = tokenPos;
+      next();
+      if (("byte".equals(name) || "word".equals(name)) && "(".equals(token)) {
+        next();
+        Expression address = parseExpression();
+        expect(")");
+        return new MemoryRead(address, "byte".equals(name) ? AccessMode.BYTE : AccessMode.WORD);
+      }
+      MapEntry entry = map != null ? map.getEntry(t) : null;
+      if (entry != null) {
+        return new MemoryRead(new Constant(entry.getAddress()),
+            entry.getSize() == 1 ? AccessMode.BYTE : AccessMode.WORD);
+      }
+      int register = getRegister(name);
+      if (register >= 0) {
+        return new Register(register);
+      }
+      if ("cycles".equals(name)) {
+        return new Expression() {
+          public long evaluate(Context context) {
+            return context.cpu.cycles;
+          }
+        };
+      }
+      if ("hits".equals(name)) {
+        return new Expression() {
+          public long evaluate(Context context) {
+            return context.hits;
+          }
+        };
+      }
+      if ("address".equals(name)) {
+        return new Expression() {
+          public long evaluate(Context context) {
+            return context.address;
+          }
+        };
+      }
+      if ("value".equals(name)) {
+        return new Expression() {
+          public long evaluate(Context context) {
+            return context.value;
+          }
+        };
+      }
+      tokenPos = symbolPos;
+      throw error("unknown symbol '" + t + "'");
+    }
+
+    private MapEntry getSymbol(String name) {
+      if (name == null) {
+        throw error("missing symbol");
+      }
+      MapEntry entry = map != null ? map.getEntry(name) : null;
+      if (entry == null) {
+        throw error("unknown symbol '" + name + "'");
+      }
+      return entry;
+    }
+
+    private static int getRegister(String name) {
+      if (name.length() > 1 && name.charAt(0) == 'r') {
+        try {
+          int r = Integer.parseInt(name.substring(1));
+          return r >= 0 && r < 16 ? r : -1;
+        } catch (NumberFormatException e) {
+          return -1;
+        }
+      }
+      for (int i = 0; i < MSP430Constants.REGISTER_NAMES.length; i++) {
+        if (MSP430Constants.REGISTER_NAMES[i].equalsIgnoreCase(name)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+}
@@ -45,6 +45,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.ByteMemory;
 import se.sics.mspsim.core.MSP430;
 
 public class IHexReader {
@@ -59,7 +60,38 @@ public class IHexReader {
   public IHexReader() {
   }
 
-  public boolean readFile(int memory[], String file) {
+  public boolean readFile(ByteMemory memory, String file) {
+    if (!readFile(file)) {
+      return false;
+    }
+    // Write all data that we got in to the real memory!!!
+    System.out.println("Writing to memory!");
+    for (int i = 0, n = tmpMemory.length; i < n; i++) {
+      if (tmpMemory[i] != -1) {
+	memory.set(i, tmpMemory[i]);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @deprecated the CPU memory is no longer an int array. Writes the data of
+   * the file into the given array with one byte per element.
+   */
+  @Deprecated public boolean readFile(int memory[], String file) {
+    if (!readFile(file)) {
+      return false;
+    }
+    System.out.println("Writing to memory!");
+    for (int i = 0, n = Math.min(tmpMemory.length, memory.length); i < n; i++) {
+      if (tmpMemory[i] != -1) {
+	memory[i] = tmpMemory[i];
+      }
+    }
+    return true;
+  }
+
+  private boolean readFile(String file) {
     for (int i = 0, n = tmpMemory.length; i < n; i++) {
       tmpMemory[i] = -1;
     }
@@ -98,15 +130,6 @@ public class IHexReader {
 	}
       }
       bInput.close();
-
-      // Write all data that we got in to the real memory!!!
-      System.out.println("Writing to memory!");
-      for (int i = 0, n = tmpMemory.length; i < n; i++) {
-	if (tmpMemory[i] != -1) {
-	  memory[i] = tmpMemory[i];
-	}
-      }
-
       return true;
     } catch (IOException ioe) {
       ioe.printStackTrace();
@@ -139,7 +162,7 @@ public class IHexReader {
 // 		       " T ^ F => " + (false ^ true));
 
     MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
-    int[] memory = cpu.memory;
+    ByteMemory memory = cpu.memory;
     reader.readFile(memory, args[0]);
     cpu.reset();
     cpu.cpuloop();
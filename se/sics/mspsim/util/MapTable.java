@@ -248,6 +248,16 @@ public class MapTable {
     return -1;
   }
 
+  /* Returns the first entry with the specified name or null if none */
+  public MapEntry getEntry(String name) {
+      for (MapEntry entry : entries) {
+        if (name.equals(entry.getName())) {
+          return entry;
+        }
+      }
+      return null;
+  }
+
   public int getStackStart() {
       return stackStartAddress;
   }
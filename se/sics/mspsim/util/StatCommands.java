@@ -49,7 +49,7 @@ import se.sics.mspsim.cli.CommandContext;
 import se.sics.mspsim.cli.CommandHandler;
 import se.sics.mspsim.core.Loggable;
 import se.sics.mspsim.core.MSP430Core;
-import se.sics.mspsim.core.TimeEvent;
+import se.sics.mspsim.core.PeriodicEvent;
 
 public class StatCommands implements CommandBundle {
 
@@ -135,7 +135,7 @@ public class StatCommands implements CommandBundle {
     });
     
     handler.registerCommand("duty", new BasicAsyncCommand("add a duty cycle sampler for operating modes to the specified chips",
-        "<frequency> <chip> [chips...]") {
+        "<frequency> <chip[.mode]|events.value|hosttime.value> [...]") {
 
       private PrintStream out;
       private Object[] sources;
@@ -153,7 +153,13 @@ public class StatCommands implements CommandBundle {
           String sName = context.getArgument(i + 1);
           if (sName.indexOf('.') >= 0) {
             String[] parts = sName.split("\\.");
-            sources[i] = statistics.getDataSource(parts[0], parts[1]); 
+            if ("events".equals(parts[0])) {
+              sources[i] = cpu.getEventStatistics().getDataSource(parts[1]);
+            } else if ("hosttime".equals(parts[0])) {
+              sources[i] = cpu.getHostTimeStatistics().getDataSource(parts[1]);
+            } else {
+              sources[i] = statistics.getDataSource(parts[0], parts[1]);
+            }
             if (sources[i] == null) {
               context.err.println("could not find chip / mode combination " + sName);
               return 1;
@@ -168,12 +174,13 @@ public class StatCommands implements CommandBundle {
         }
         this.out = context.out;
 
-        cpu.scheduleTimeEventMillis(new TimeEvent(0) {
+        new PeriodicEvent(cpu, "duty") {
 
           @Override
-          public void execute(long t) {
-            if (isRunning) {
-              cpu.scheduleTimeEventMillis(this, 1000.0 / frequency);
+          protected void trigger(long t) {
+            if (!isRunning) {
+              stop();
+            } else {
               for (int j = 0, n = sources.length; j < n; j++) {
                 Object s = sources[j];
                 if (j > 0) out.print(' ');
@@ -190,7 +197,7 @@ public class StatCommands implements CommandBundle {
               out.println();
             }
           }
-        }, 1000.0 / frequency);
+        }.start(1000.0 / frequency);
         return 0;
       }
 
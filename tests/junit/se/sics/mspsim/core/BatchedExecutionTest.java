@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * BatchedExecutionTest
+ *
+ * Tests that the execution loops for the plain, exec counting and trace
+ * cases give the same result as executing one instruction at a time.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BatchedExecutionTest {
+
+  private static final long MICROS = 200000;
+
+  private static void run(MSP430 cpu) {
+    cpu.stepMicros(0, 1000);
+    for (long t = 1000; t < MICROS; t += 1000) {
+      cpu.stepMicros(1000, 1000);
+    }
+  }
+
+  private static int[] getMemory(MSP430 cpu) {
+    int[] memory = new int[cpu.MAX_MEM];
+    for (int i = 0; i < memory.length; i++) {
+      memory[i] = cpu.memory.get(i);
+    }
+    return memory;
+  }
+
+  private static void assertSameState(MSP430 expected, MSP430 actual) {
+    assertEquals(expected.cycles, actual.cycles);
+    assertEquals(expected.cpuCycles, actual.cpuCycles);
+    assertArrayEquals(expected.reg, actual.reg);
+    assertArrayEquals(getMemory(expected), getMemory(actual));
+  }
+
+  @Test
+  public void executionLoopsGiveTheSameResult() throws IOException {
+    MSP430 plain = TestNodes.createSkyNode().getCPU();
+    run(plain);
+
+    MSP430 counting = TestNodes.createSkyNode().getCPU();
+    counting.setMonitorExec(true);
+    run(counting);
+    assertSameState(plain, counting);
+
+    MSP430 tracing = TestNodes.createSkyNode().getCPU();
+    tracing.setTrace(1000);
+    run(tracing);
+    assertSameState(plain, tracing);
+  }
+
+  @Test
+  public void batchedExecutionMatchesSingleSteps() throws IOException {
+    MSP430 batched = TestNodes.createSkyNode().getCPU();
+    batched.setMonitorExec(true);
+    run(batched);
+    long instructions = 0;
+    for (int i = 0; i < batched.MAX_MEM; i++) {
+      instructions += batched.getExecCount(i);
+    }
+
+    MSP430 stepped = TestNodes.createSkyNode().getCPU();
+    for (long left = instructions; left > 0; left -= 1000) {
+      stepped.stepInstructions((int) Math.min(left, 1000));
+    }
+    assertEquals(batched.reg[MSP430Constants.PC], stepped.reg[MSP430Constants.PC]);
+    assertEquals(batched.cpuCycles, stepped.cpuCycles);
+  }
+
+}
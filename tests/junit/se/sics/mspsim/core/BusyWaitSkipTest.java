@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * BusyWaitSkipTest
+ *
+ * Tests that fast forwarding a busy wait loop gives the same cycle count,
+ * event timing and exec counts as executing every iteration, both when
+ * polling RAM and when polling a timer flag.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+
+public class BusyWaitSkipTest {
+
+  private static final int FLAG = 0x1200;
+  private static final long FLAG_CYCLES = 100003;
+  private static final long END_CYCLES = 300000;
+
+  private static final int[] PROGRAM = {
+    0x93c2, FLAG,           // poll: cmp.b #0, &FLAG
+    0x27fd,                 // jz poll
+    0x5317,                 // count: add #1, r7
+    0x3ffe                  // jmp count
+  };
+
+  private static final int[] TIMER_PROGRAM = {
+    0x40b2, 0x4e20, 0x0174, // mov #20000, &TACCR1
+    0x40b2, 0x0010, 0x0164, // mov #CCIE, &TACCTL1
+    0x40b2, 0x0220, 0x0160, // mov #TASSEL_2|MC_2, &TACTL
+    0xb392, 0x0164,         // poll: bit #CCIFG, &TACCTL1
+    0x27fd,                 // jz poll
+    0x5317,                 // count: add #1, r7
+    0x3ffe                  // jmp count
+  };
+
+  private long flagSetCycles;
+
+  private MSP430 run(int[] program, boolean busyWaitSkip) {
+    final MSP430 cpu = TestNodes.loadProgram(program);
+    cpu.setBusyWaitSkip(busyWaitSkip);
+    cpu.setMonitorExec(true);
+    cpu.memory.set(FLAG, 0, AccessMode.WORD);
+    cpu.scheduleCycleEvent(new TimeEvent(0, "Flag") {
+      public void execute(long t) {
+        flagSetCycles = cpu.cycles;
+        cpu.memory.set(FLAG, 1, AccessMode.BYTE);
+      }
+    }, FLAG_CYCLES);
+    cpu.stepMicros(0, 100);
+    while (cpu.cycles < END_CYCLES) {
+      cpu.stepMicros(100, 100);
+    }
+    return cpu;
+  }
+
+  private void assertSameExecution(int[] program, MSP430 expected, MSP430 actual) {
+    assertEquals(0, expected.skippedIterations);
+    assertTrue(actual.skippedIterations > 0);
+    assertEquals(expected.cycles, actual.cycles);
+    assertEquals(expected.cpuCycles, actual.cpuCycles);
+    assertArrayEquals(expected.reg, actual.reg);
+    for (int address = TestNodes.RAM; address < TestNodes.PROGRAM + program.length * 2; address += 2) {
+      assertEquals(expected.getExecCount(address), actual.getExecCount(address));
+    }
+  }
+
+  @Test
+  public void skippedLoopIsCycleExact() {
+    MSP430 expected = run(PROGRAM, false);
+    long expectedFlagCycles = flagSetCycles;
+    MSP430 actual = run(PROGRAM, true);
+    assertEquals(expectedFlagCycles, flagSetCycles);
+    assertSameExecution(PROGRAM, expected, actual);
+  }
+
+  @Test
+  public void timerFlagPollIsSkipped() {
+    MSP430 expected = run(TIMER_PROGRAM, false);
+    MSP430 actual = run(TIMER_PROGRAM, true);
+    assertSameExecution(TIMER_PROGRAM, expected, actual);
+  }
+
+}
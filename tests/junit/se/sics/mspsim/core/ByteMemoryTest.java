@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * ByteMemoryTest
+ *
+ * Tests the unallocated pages and the copy-on-write sharing of pages.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.Memory.AccessType;
+import se.sics.mspsim.platform.GenericNode;
+
+public class ByteMemoryTest {
+
+    private static final int SIZE = 0x10000;
+
+    @Test
+    public void erasedPagesReadAsAllOnes() {
+        ByteMemory memory = new ByteMemory(SIZE);
+        memory.setFlash(0xf000, SIZE);
+        assertEquals(0xff, memory.get(0xf000, AccessMode.BYTE));
+        assertEquals(0xffff, memory.get(0xf000, AccessMode.WORD));
+        assertEquals(0xfffff, memory.get(0xf000, AccessMode.WORD20));
+        /* crossing into an unallocated page */
+        memory.set(0xf0fe, 0x1234, AccessMode.WORD);
+        assertEquals(0xffff, memory.get(0xf0ff + 1, AccessMode.WORD));
+        assertEquals(0xff12, memory.get(0xf0ff, AccessMode.WORD));
+        assertFalse(memory.isAllocated(0xf100));
+    }
+
+    @Test
+    public void erasingFreesPages() {
+        ByteMemory memory = new ByteMemory(SIZE);
+        memory.setFlash(0xf000, SIZE);
+        memory.set(0xf010, 0x55);
+        assertEquals(1, memory.getAllocatedPages());
+        memory.fill(0xf000, 0xf100, ByteMemory.ERASED);
+        assertEquals(0, memory.getAllocatedPages());
+        assertEquals(0xffff, memory.get(0xf010, AccessMode.WORD));
+        assertEquals(0xfffff, memory.get(0xf010, AccessMode.WORD20));
+    }
+
+    @Test
+    public void pagesOutsideFlashReadAsZero() {
+        ByteMemory memory = new ByteMemory(SIZE);
+        memory.setFlash(0xf000, SIZE);
+        assertEquals(0, memory.get(0x0200));
+        assertEquals(0, memory.get(0x0200, AccessMode.WORD));
+        assertEquals(0, memory.get(0xeff0, AccessMode.WORD20));
+        /* crossing from a hole into flash */
+        assertEquals(0xff00, memory.get(0xefff, AccessMode.WORD));
+        memory.set(0x1100, 0x42);
+        assertEquals(0, memory.get(0x1101));
+        memory.fill(0x1100, 0x1200, 0);
+        assertEquals(0, memory.getAllocatedPages());
+    }
+
+    @Test
+    public void accessThroughMemoryInterface() {
+        Memory memory = new ByteMemory(SIZE);
+        memory.write(0x1100, 0x1234, AccessMode.WORD);
+        assertEquals(0x34, memory.read(0x1100, AccessMode.BYTE, AccessType.READ));
+        assertEquals(0x12, memory.get(0x1101, AccessMode.BYTE));
+        memory.set(0x1101, 0x56, AccessMode.BYTE);
+        assertEquals(0x5634, memory.get(0x1100, AccessMode.WORD));
+    }
+
+    @Test
+    public void mappedPagesAreCopiedOnWrite() {
+        ByteMemory image = new ByteMemory(SIZE);
+        image.set(0x4000, 0xabcd, AccessMode.WORD);
+        ByteMemory memory = new ByteMemory(SIZE);
+        memory.map(image, 0x4000);
+        assertTrue(memory.isShared(0x4000));
+        assertEquals(0xabcd, memory.get(0x4000, AccessMode.WORD));
+
+        memory.set(0x4000, 0x1111, AccessMode.WORD);
+        assertFalse(memory.isShared(0x4000));
+        assertEquals(0x1111, memory.get(0x4000, AccessMode.WORD));
+        assertEquals(0xabcd, image.get(0x4000, AccessMode.WORD));
+    }
+
+    @Test
+    public void copiesShareAllPages() {
+        ByteMemory memory = new ByteMemory(SIZE);
+        memory.set(0x1100, 0x42);
+        ByteMemory copy = new ByteMemory(SIZE);
+        memory.copyTo(copy);
+        assertTrue(memory.isShared(0x1100));
+        assertTrue(copy.isShared(0x1100));
+
+        copy.set(0x1100, 0x17);
+        memory.set(0x1101, 0x99);
+        assertEquals(0x42, memory.get(0x1100));
+        assertEquals(0x17, copy.get(0x1100));
+        assertEquals(0, copy.get(0x1101));
+        assertEquals(0x99, memory.get(0x1101));
+    }
+
+    @Test
+    public void peekAndPokeReachRegistersAndMemory() throws IOException {
+        GenericNode node = TestNodes.createSkyNode();
+        MSP430 cpu = node.getCPU();
+        cpu.pokeMemory(0x1100, 0x42);
+        assertEquals(0x42, cpu.memory.get(0x1100));
+        assertEquals(0x42, cpu.peekMemory(0x1100));
+        cpu.pokeMemory(0x0072, 0x17);
+        assertEquals(0x17, cpu.ioMemory[0x0072]);
+        assertEquals(0x17, cpu.peekMemory(0x0072));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void deprecatedLoadOnlyFillsTheGivenArray() throws IOException {
+        GenericNode node = TestNodes.createSkyNode();
+        MSP430 cpu = node.getCPU();
+        int reset = cpu.getPC();
+        int value = cpu.peekMemory(reset);
+        cpu.pokeMemory(reset, value ^ 0xff);
+        int[] memory = new int[cpu.MAX_MEM];
+        node.loadFirmware(TestNodes.SKY_FIRMWARE, memory);
+        assertEquals(value, memory[reset]);
+        assertEquals(value ^ 0xff, cpu.peekMemory(reset));
+    }
+
+}
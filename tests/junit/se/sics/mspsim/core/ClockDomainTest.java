@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * ClockDomainTest
+ *
+ * Tests that the fixed point clock domain conversions, also from
+ * milliseconds, give the exact rounded down quotient, and that they stay within one unit of the double
+ * DCO factor and the conversion through milliseconds used before.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ClockDomainTest {
+
+  private static final int MAX_DCO = 4915200;
+  private static final int[] FREQUENCIES = {
+    MAX_DCO, 3900000, 2457600, 1785440, 1000000, 735000, 508896, 100003, 32768, 12000
+  };
+
+  private static long exact(long value, long multiplier, long divisor) {
+    return BigInteger.valueOf(value).multiply(BigInteger.valueOf(multiplier))
+        .divide(BigInteger.valueOf(divisor)).longValue();
+  }
+
+  private static void assertWithinOne(long expected, long actual) {
+    assertTrue("expected " + expected + " but was " + actual,
+        Math.abs(expected - actual) <= 1);
+  }
+
+  @Test
+  public void conversionsAreExact() {
+    Random random = new Random(4711);
+    for (int frequency : FREQUENCIES) {
+      ClockDomain clock = new ClockDomain("MCLK", MAX_DCO, frequency);
+      for (int i = 0; i < 100000; i++) {
+        long value = (random.nextLong() >>> 1) % 100000000000L;
+        assertEquals(exact(value, MAX_DCO, frequency), clock.toTime(value));
+        assertEquals(exact(value, frequency, MAX_DCO), clock.toCycles(value));
+      }
+      for (long cycles = 1; cycles < 100000; cycles++) {
+        /* the first time unit that converts to the given cycles */
+        long time = (cycles * MAX_DCO + frequency - 1) / frequency;
+        assertEquals(cycles, clock.toCycles(time));
+        assertEquals(cycles - 1, clock.toCycles(time - 1));
+      }
+      assertEquals(MAX_DCO, clock.toTime(frequency));
+      assertEquals(frequency, clock.toCycles(MAX_DCO));
+    }
+  }
+
+  @Test
+  public void longRunsAreConverted() {
+    ClockDomain clock = new ClockDomain("ACLK", MAX_DCO, 32768);
+    long time = 1L << 50;
+    assertEquals(exact(time, 32768, MAX_DCO), clock.toCycles(time));
+    long cycles = 1L << 40;
+    assertEquals(exact(cycles, MAX_DCO, 32768), clock.toTime(cycles));
+  }
+
+  @Test
+  public void negativeValuesAreRoundedTowardsZero() {
+    ClockDomain clock = new ClockDomain("SMCLK", MAX_DCO, 1000000);
+    assertEquals(-clock.toCycles(12345), clock.toCycles(-12345));
+    assertEquals(-clock.toTime(12345), clock.toTime(-12345));
+  }
+
+  @Test
+  public void conversionsAreWithinOneOfTheDCOFactor() {
+    Random random = new Random(4711);
+    for (int frequency : FREQUENCIES) {
+      ClockDomain clock = new ClockDomain("MCLK", MAX_DCO, frequency);
+      double dcoFactor = 1.0 * MAX_DCO / frequency;
+      for (int i = 0; i < 100000; i++) {
+        long value = (random.nextLong() >>> 1) % 100000000000L;
+        assertWithinOne((long) (value * dcoFactor), clock.toTime(value));
+        assertWithinOne((long) (value / dcoFactor), clock.toCycles(value));
+      }
+    }
+  }
+
+  private static long exactMillis(double msec, long frequency) {
+    return new BigDecimal(msec).multiply(BigDecimal.valueOf(frequency))
+        .divide(BigDecimal.valueOf(1000)).longValue();
+  }
+
+  @Test
+  public void millisAreConvertedExactly() {
+    Random random = new Random(4711);
+    for (int frequency : FREQUENCIES) {
+      ClockDomain clock = new ClockDomain("MCLK", MAX_DCO, frequency);
+      for (int i = 0; i < 100000; i++) {
+        double msec = random.nextDouble() * 100000;
+        assertEquals(exactMillis(msec, frequency), clock.millisToCycles(msec));
+      }
+      for (long millis = 0; millis < 100000; millis += 3) {
+        assertEquals(exactMillis(millis, frequency), clock.millisToCycles(millis));
+      }
+      /* a day of whole milliseconds does not drift */
+      assertEquals(exactMillis(86400000, frequency), clock.millisToCycles(86400000));
+      assertEquals(-clock.millisToCycles(12.5), clock.millisToCycles(-12.5));
+    }
+  }
+
+  @Test
+  public void clockDelaysAreWithinOneTimeUnitOfMillis() {
+    for (int frequency : FREQUENCIES) {
+      ClockDomain clock = new ClockDomain("ACLK", MAX_DCO, frequency);
+      for (long delay = 1; delay < 1 << 20; delay += 7) {
+        double msec = 1000.0 * delay / frequency;
+        assertWithinOne((long) (msec / 1000 * MAX_DCO), clock.toTime(delay));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * DecodeCacheTest
+ *
+ * Tests that decoded instructions are invalidated when the code is
+ * modified by writes to RAM or by programming the flash.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+
+public class DecodeCacheTest implements MSP430Constants {
+
+  private static final int PROGRAM = TestNodes.PROGRAM;
+  private static final int FLASH = 0x4000;
+
+  private MSP430 cpu;
+
+  private void run(int pc, int instructions) {
+    cpu.writeRegister(PC, pc);
+    cpu.stepInstructions(instructions);
+  }
+
+  @Test
+  public void ramWriteInvalidatesDecodedInstruction() {
+    cpu = TestNodes.loadProgram(
+        0x4035, 0x1234,              // mov #0x1234, r5
+        0x40b2, 0x5678, PROGRAM + 2, // mov #0x5678, &PROGRAM+2
+        0x3ffa);                     // jmp PROGRAM
+    run(PROGRAM, 1);
+    assertEquals(0x1234, cpu.readRegister(5));
+    cpu.stepInstructions(3);
+    assertEquals(0x5678, cpu.readRegister(5));
+  }
+
+  @Test
+  public void flashWriteInvalidatesDecodedInstruction() {
+    cpu = TestNodes.loadProgram(
+        0x40b2, 0xa500, 0x012c,  // mov #FWKEY, &FCTL3 - unlock
+        0x40b2, 0xa540, 0x0128,  // mov #FWKEY|WRT, &FCTL1
+        0x40b2, 0x00aa, FLASH + 2, // mov #0x00aa, &FLASH+2
+        0x3fff);                 // jmp $
+    TestNodes.load(cpu, FLASH,
+        0x4036, 0xffff,          // mov #0xffff, r6
+        0x3fff);                 // jmp $
+    run(FLASH, 1);
+    assertEquals(0xffff, cpu.readRegister(6));
+    run(PROGRAM, 3);
+    /* wait for the flash write to complete */
+    for (int i = 0; i < 1000 && cpu.isFlashBusy; i++) {
+      cpu.stepInstructions(1);
+    }
+    assertFalse(cpu.isFlashBusy);
+    assertEquals(0x00aa, cpu.memory.get(FLASH + 2, AccessMode.WORD));
+    run(FLASH, 1);
+    assertEquals(0x00aa, cpu.readRegister(6));
+  }
+
+  private long[] cycles(int pc, int instructions) {
+    long[] cycles = new long[instructions];
+    cpu.writeRegister(PC, pc);
+    for (int i = 0; i < instructions; i++) {
+      long before = cpu.cycles;
+      cpu.stepInstructions(1);
+      cycles[i] = cpu.cycles - before;
+    }
+    return cycles;
+  }
+
+  @Test
+  public void decodedInstructionsTakeTheSameCycles() {
+    int data = PROGRAM + 0x100;
+    cpu = TestNodes.loadProgram(
+        0x4506,                  // mov r5, r6
+        0x4035, data,            // mov #data, r5
+        0x4036, data,            // mov #data, r6
+        0x4527,                  // mov @r5, r7
+        0x4537,                  // mov @r5+, r7
+        0x4517, 0x0002,          // mov 2(r5), r7
+        0x4586, 0x0002,          // mov r5, 2(r6)
+        0x4292, data, data + 2,  // mov &data, &data+2
+        0x4317,                  // mov #1, r7
+        0x4030, PROGRAM + 34,    // br #PROGRAM+34
+        0x3fff);                 // jmp $
+    long[] expected = { 1, 2, 2, 2, 2, 3, 4, 6, 1, 3, 2 };
+    /* decoded and cached on first execution */
+    assertArrayEquals(expected, cycles(PROGRAM, expected.length));
+    assertArrayEquals(expected, cycles(PROGRAM, expected.length));
+    /* fetched through the memory segments */
+    cpu.addGlobalMonitor(new MemoryMonitor.Adapter());
+    assertArrayEquals(expected, cycles(PROGRAM, expected.length));
+  }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * EventQueueTest
+ *
+ * Tests the ordering, removal and rescheduling of events.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EventQueueTest {
+
+  private static class Event extends TimeEvent {
+    Event(String name) {
+      super(0, name);
+    }
+
+    @Override
+    public void execute(long t) {
+    }
+  }
+
+  @Test
+  public void eventsArePoppedInTimeOrder() {
+    EventQueue queue = new EventQueue();
+    Random random = new Random(4711);
+    for (int i = 0; i < 100; i++) {
+      queue.addEvent(new Event("e" + i), random.nextInt(1000));
+    }
+    assertEquals(100, queue.eventCount);
+    long last = -1;
+    for (int i = 0; i < 100; i++) {
+      long next = queue.nextTime;
+      TimeEvent event = queue.popFirst();
+      assertEquals(next, event.getTime());
+      assertTrue(event.getTime() >= last);
+      assertFalse(event.isScheduled());
+      last = event.getTime();
+    }
+    assertEquals(0, queue.eventCount);
+    assertNull(queue.popFirst());
+  }
+
+  @Test
+  public void eventsWithEqualTimesArePoppedInScheduleOrder() {
+    EventQueue queue = new EventQueue();
+    Event[] events = new Event[40];
+    for (int i = 0; i < events.length; i++) {
+      events[i] = new Event("e" + i);
+      queue.addEvent(events[i], i % 2 == 0 ? 50 : 10);
+    }
+    for (int i = 1; i < events.length; i += 2) {
+      assertSame(events[i], queue.popFirst());
+    }
+    for (int i = 0; i < events.length; i += 2) {
+      assertSame(events[i], queue.popFirst());
+    }
+  }
+
+  @Test
+  public void removedEventsAreNotPopped() {
+    EventQueue queue = new EventQueue();
+    Event[] events = new Event[20];
+    for (int i = 0; i < events.length; i++) {
+      events[i] = new Event("e" + i);
+      queue.addEvent(events[i], 100 - i);
+    }
+    assertEquals(81, queue.nextTime);
+    assertTrue(events[19].remove());
+    assertFalse(events[19].remove());
+    assertFalse(events[19].isScheduled());
+    assertEquals(82, queue.nextTime);
+    for (int i = 0; i < 19; i += 3) {
+      assertTrue(queue.removeEvent(events[i]));
+    }
+    for (int i = 18; i >= 0; i--) {
+      if (i % 3 != 0) {
+        assertSame(events[i], queue.popFirst());
+      }
+    }
+    assertNull(queue.popFirst());
+    assertEquals(0, queue.eventCount);
+  }
+
+  @Test
+  public void rescheduledEventMovesInTheQueue() {
+    EventQueue queue = new EventQueue();
+    Event a = new Event("a");
+    Event b = new Event("b");
+    Event c = new Event("c");
+    queue.addEvent(a, 10);
+    queue.addEvent(b, 20);
+    queue.addEvent(c, 30);
+    queue.addEvent(a, 25);
+    assertEquals(3, queue.eventCount);
+    assertEquals(20, queue.nextTime);
+    /* rescheduling at an equal time places the event after the others */
+    queue.addEvent(b, 30);
+    assertSame(a, queue.popFirst());
+    assertSame(c, queue.popFirst());
+    assertSame(b, queue.popFirst());
+    assertNull(queue.popFirst());
+  }
+
+  @Test
+  public void eventIsMovedFromAnotherQueue() {
+    EventQueue first = new EventQueue();
+    EventQueue second = new EventQueue();
+    Event a = new Event("a");
+    first.addEvent(a, 10);
+    second.addEvent(a, 20);
+    assertEquals(0, first.eventCount);
+    assertNull(first.popFirst());
+    assertSame(a, second.popFirst());
+  }
+
+  @Test
+  public void staleEventIsRescheduledWithoutRemovingOthers() {
+    EventQueue queue = new EventQueue();
+    Event a = new Event("a");
+    Event b = new Event("b");
+    queue.addEvent(a, 10);
+    /* a is detached without being removed, as when a restored snapshot
+       overwrites the heap, and b takes its place */
+    queue.removeAll();
+    a.scheduledIn = queue;
+    a.heapIndex = 0;
+    queue.addEvent(b, 20);
+    queue.addEvent(a, 30);
+    assertEquals(2, queue.eventCount);
+    assertSame(b, queue.popFirst());
+    assertSame(a, queue.popFirst());
+    assertNull(queue.popFirst());
+  }
+
+  @Test
+  public void sleepingCPUWithoutEventsIsNotPolled() {
+    MSP430 cpu = TestNodes.loadProgram(
+        0xd032, 0x0010,         // bis #CPUOFF, SR
+        0x3fff);                // jmp $
+    cpu.stepMicros(0, 1000);
+    assertTrue(cpu.cpuOff);
+    assertEquals(0, cpu.eventQueue.eventCount);
+    assertEquals(MSP430Core.NO_EVENT, cpu.nextEventCycles);
+
+    final long[] executed = new long[1];
+    long wakeUpCycles = cpu.cycles + 50000;
+    cpu.scheduleCycleEvent(new TimeEvent(0, "wake up") {
+      public void execute(long t) {
+        executed[0] = t;
+      }
+    }, wakeUpCycles);
+    assertEquals(wakeUpCycles, cpu.nextEventCycles);
+    cpu.stepMicros(0, 100000);
+    assertEquals(wakeUpCycles, executed[0]);
+    assertEquals(MSP430Core.NO_EVENT, cpu.nextEventCycles);
+  }
+
+}
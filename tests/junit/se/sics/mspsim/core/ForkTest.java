@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * ForkTest
+ *
+ * Tests that a forked node shares the unchanged memory pages with its
+ * parent and runs in its own thread without affecting the parent, and
+ * that a running node can be forked.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.TestNodes.NodeState;
+import se.sics.mspsim.platform.GenericNode;
+
+public class ForkTest {
+
+  private static final int VECTORS = 0xff00;
+  private static final int INSTRUCTIONS = 300000;
+
+  @Test
+  public void forkRunsIndependentlyOfTheParent() throws Exception {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(200000);
+    Snapshot snapshot = node.saveState();
+    GenericNode fork = node.fork();
+    final MSP430 forkCPU = fork.getCPU();
+    new NodeState(cpu).assertSame(new NodeState(forkCPU));
+
+    /* the clock tick counter of Contiki */
+    int ticks = cpu.map.getEntry("count").getAddress();
+    assertTrue(cpu.memory.sharesPage(forkCPU.memory, VECTORS));
+    assertTrue(cpu.memory.sharesPage(forkCPU.memory, ticks));
+
+    /* move the clock of the fork ahead so that its timers expire */
+    int parentTicks = cpu.memory.get(ticks, AccessMode.WORD);
+    forkCPU.memory.set(ticks, parentTicks + 1000, AccessMode.WORD);
+    assertEquals(parentTicks, cpu.memory.get(ticks, AccessMode.WORD));
+    assertFalse(cpu.memory.sharesPage(forkCPU.memory, ticks));
+
+    final Throwable[] forkError = new Throwable[1];
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          forkCPU.stepInstructions(INSTRUCTIONS);
+        } catch (Throwable e) {
+          forkError[0] = e;
+        }
+      }
+    });
+    thread.start();
+    cpu.stepInstructions(INSTRUCTIONS);
+    thread.join();
+    assertNull(forkError[0]);
+
+    NodeState parent = new NodeState(cpu);
+    NodeState child = new NodeState(forkCPU);
+    assertFalse(Arrays.equals(parent.reg, child.reg));
+    assertTrue(cpu.memory.sharesPage(forkCPU.memory, VECTORS));
+
+    /* the parent runs the same way without the fork */
+    node.restoreState(snapshot);
+    cpu.stepInstructions(INSTRUCTIONS);
+    parent.assertSame(new NodeState(cpu));
+  }
+
+  @Test
+  public void runningNodeIsForked() throws Exception {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    cpu.setExecutionRate(RealTimePacer.UNLIMITED);
+    node.start();
+    try {
+      while (cpu.cycles < 1000000) {
+        Thread.sleep(1);
+      }
+      GenericNode fork = node.fork();
+      MSP430 forkCPU = fork.getCPU();
+      assertTrue(cpu.isRunning());
+      assertFalse(forkCPU.isRunning());
+      assertTrue(forkCPU.cycles >= 1000000);
+      assertTrue(cpu.memory.sharesPage(forkCPU.memory, VECTORS));
+
+      /* the fork continues like a node that was stopped at the same point */
+      GenericNode copy = fork.fork();
+      forkCPU.stepInstructions(INSTRUCTIONS);
+      copy.getCPU().stepInstructions(INSTRUCTIONS);
+      new NodeState(forkCPU).assertSame(new NodeState(copy.getCPU()));
+    } finally {
+      node.stop();
+      while (cpu.isRunning()) {
+        Thread.sleep(1);
+      }
+    }
+    assertTrue(cpu.cycles > 1000000);
+  }
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * GlobalWatchedMemoryTest
+ *
+ * Tests that a global monitor filtered by address range and access type
+ * only takes the direct RAM access and the decoded instructions away from
+ * the segments it watches.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.Memory.AccessType;
+
+public class GlobalWatchedMemoryTest {
+
+  private static final int RAM = TestNodes.RAM;
+  private static final int RAM_END = 0x3900;
+  private static final int FLASH = 0x4000;
+  private static final int FLASH_END = 0x10000;
+
+  private static final int[] PROGRAM = {
+    0x5317,                 // loop: add #1, r7
+    0x3ffe                  // jmp loop
+  };
+
+  /* Not at the start of a segment, so the program segment is not watched */
+  private static final int FLAG = 0x1280;
+  private static final long END_CYCLES = 100000;
+
+  private static final int[] POLL_PROGRAM = {
+    0x93c2, FLAG,           // poll: cmp.b #0, &FLAG
+    0x27fd                  // jz poll
+  };
+
+  private static class Counter extends MemoryMonitor.Adapter {
+    int executes;
+    int data;
+
+    @Override
+    public void notifyReadBefore(int address, AccessMode mode, AccessType type) {
+      if (type == AccessType.EXECUTE) {
+        executes++;
+      } else {
+        data++;
+      }
+    }
+
+    @Override
+    public void notifyWriteBefore(int address, int data, AccessMode mode) {
+      this.data++;
+    }
+  }
+
+  private MSP430 cpu;
+
+  @Before
+  public void setUp() {
+    cpu = TestNodes.loadProgram(PROGRAM);
+  }
+
+  private void assertDirectRAM(int start, int end, boolean direct) {
+    for (int address = start; address < end; address += Memory.SEGMENT_SIZE) {
+      assertEquals("segment $" + Integer.toHexString(address),
+          direct, cpu.directRAM[address >> 8]);
+    }
+  }
+
+  @Test
+  public void unwatchedSegmentsKeepDirectRAM() {
+    Counter flash = new Counter();
+    cpu.addGlobalMonitor(FLASH, FLASH_END, EnumSet.of(AccessType.EXECUTE), flash);
+    assertDirectRAM(RAM, RAM_END, true);
+
+    Counter data = new Counter();
+    cpu.addGlobalMonitor(0x2000, 0x2010, EnumSet.of(AccessType.READ, AccessType.WRITE), data);
+    /* An access starting just before the range can overlap it */
+    assertDirectRAM(RAM, 0x1f00, true);
+    assertDirectRAM(0x1f00, 0x2100, false);
+    assertDirectRAM(0x2100, RAM_END, true);
+    cpu.getMemory().write(0x2000, 0x1234, AccessMode.WORD);
+    cpu.getMemory().write(0x2100, 0x1234, AccessMode.WORD);
+    assertEquals(1, data.data);
+
+    cpu.removeGlobalMonitor(data);
+    assertDirectRAM(RAM, RAM_END, true);
+    cpu.removeGlobalMonitor(flash);
+    assertDirectRAM(RAM, RAM_END, true);
+  }
+
+  @Test
+  public void unwatchedSegmentsKeepDecodeCache() {
+    Counter flash = new Counter();
+    cpu.addGlobalMonitor(FLASH, FLASH_END, EnumSet.of(AccessType.EXECUTE), flash);
+    cpu.stepInstructions(100);
+    assertNotNull(cpu.decodedSegments[RAM >> 8]);
+    assertEquals(0, flash.executes);
+    assertTrue(cpu.reg[7] > 0);
+  }
+
+  @Test
+  public void watchedSegmentsAreFetchedThroughTheMonitor() {
+    Counter ram = new Counter();
+    cpu.addGlobalMonitor(RAM, RAM + Memory.SEGMENT_SIZE, EnumSet.of(AccessType.EXECUTE), ram);
+    cpu.stepInstructions(100);
+    assertNull(cpu.decodedSegments[RAM >> 8]);
+    assertEquals(100, ram.executes);
+    assertEquals(0, ram.data);
+
+    cpu.removeGlobalMonitor(ram);
+    cpu.stepInstructions(100);
+    assertNotNull(cpu.decodedSegments[RAM >> 8]);
+    assertEquals(100, ram.executes);
+  }
+
+  /* Runs the polling loop with a monitor for reads of the flag */
+  private static Counter runPollLoop(boolean busyWaitSkip) {
+    MSP430 cpu = TestNodes.loadProgram(POLL_PROGRAM);
+    cpu.setBusyWaitSkip(busyWaitSkip);
+    Counter flag = new Counter();
+    cpu.addGlobalMonitor(FLAG, FLAG + 2, EnumSet.of(AccessType.READ), flag);
+    /* an event to fast forward to */
+    cpu.scheduleCycleEvent(new TimeEvent(0, "End") {
+      public void execute(long t) {
+      }
+    }, END_CYCLES);
+    cpu.stepMicros(0, 100);
+    while (cpu.cycles < END_CYCLES) {
+      cpu.stepMicros(100, 100);
+    }
+    assertEquals(0, cpu.skippedIterations);
+    return flag;
+  }
+
+  @Test
+  public void watchedReadsAreNotSkipped() {
+    Counter expected = runPollLoop(false);
+    Counter actual = runPollLoop(true);
+    assertTrue(expected.data > END_CYCLES / 10);
+    assertEquals(expected.data, actual.data);
+  }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * LivelockDetectorTest
+ *
+ * Tests that a program stuck in a tight loop is reported while a longer
+ * loop is not, also when the report throws an exception.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import se.sics.mspsim.core.EmulationLogger.WarningMode;
+import se.sics.mspsim.core.EmulationLogger.WarningType;
+import se.sics.mspsim.util.ComponentRegistry;
+import se.sics.mspsim.util.DefaultEmulationLogger;
+
+public class LivelockDetectorTest {
+
+  private static final long WINDOW_CYCLES = 100000;
+  private static final long END_CYCLES = 1100000;
+
+  private static final int[] TIGHT_LOOP = {
+    0x3fff                  // jmp $
+  };
+
+  /* Keeps the warnings out of the test output but still throws them */
+  private static class QuietLogger extends DefaultEmulationLogger {
+    QuietLogger() {
+      super(null, null);
+    }
+
+    @Override
+    public void logw(Loggable source, WarningType type, String message) throws EmulationException {
+      if (getMode(type) == WarningMode.EXCEPTION) {
+        throw new EmulationException(message);
+      }
+    }
+  }
+
+  private int reports;
+
+  private MSP430 createCPU(int[] program) {
+    ComponentRegistry registry = new ComponentRegistry();
+    registry.registerComponent("logger", new QuietLogger());
+    MSP430 cpu = TestNodes.loadProgram(registry, program);
+    cpu.getLogger().setWarningMode(WarningType.LIVELOCK, WarningMode.SILENT);
+    return cpu;
+  }
+
+  /* 32 nops spread over five 16 byte ranges followed by a jump back */
+  private static int[] createLongLoop() {
+    int[] program = new int[32 + 1];
+    for (int i = 0; i < 32; i++) {
+      program[i] = 0x4303;  // nop
+    }
+    program[32] = 0x3fdf;   // jmp to the first nop
+    return program;
+  }
+
+  private LivelockDetector startDetector(MSP430 cpu) {
+    LivelockDetector detector = new LivelockDetector(cpu);
+    detector.setWindowCycles(WINDOW_CYCLES);
+    detector.setWindows(2);
+    detector.addListener(new LivelockDetector.Listener() {
+      public void livelockDetected(LivelockDetector detector, LivelockDetector.Type type, String message) {
+        reports++;
+      }
+    });
+    detector.start();
+    return detector;
+  }
+
+  @Test
+  public void tightLoopIsReported() {
+    MSP430 cpu = createCPU(TIGHT_LOOP);
+    LivelockDetector detector = startDetector(cpu);
+    while (cpu.cycles < END_CYCLES) {
+      cpu.stepInstructions(1000);
+    }
+    assertEquals(LivelockDetector.Type.TIGHT_LOOP, detector.getLastType());
+    /* Windows end at the first sample after the window length so ten
+       windows are completed - reported every second window */
+    assertEquals(5, reports);
+  }
+
+  @Test
+  public void detectorKeepsSamplingAfterException() {
+    MSP430 cpu = createCPU(TIGHT_LOOP);
+    cpu.getLogger().setWarningMode(WarningType.LIVELOCK, WarningMode.EXCEPTION);
+    LivelockDetector detector = startDetector(cpu);
+    int exceptions = 0;
+    while (cpu.cycles < END_CYCLES) {
+      try {
+        cpu.stepInstructions(1000);
+      } catch (EmulationException e) {
+        exceptions++;
+      }
+    }
+    assertTrue(detector.isRunning());
+    assertEquals(5, reports);
+    assertEquals(reports, exceptions);
+  }
+
+  @Test
+  public void longerLoopIsNotReported() {
+    MSP430 cpu = createCPU(createLongLoop());
+    LivelockDetector detector = startDetector(cpu);
+    while (cpu.cycles < END_CYCLES) {
+      cpu.stepInstructions(1000);
+    }
+    assertNull(detector.getLastType());
+    assertEquals(0, reports);
+  }
+
+}
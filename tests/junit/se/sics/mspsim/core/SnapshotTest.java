@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * SnapshotTest
+ *
+ * Tests that a node restored from a snapshot continues exactly as it did
+ * after the snapshot was saved.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import se.sics.mspsim.core.TestNodes.NodeState;
+import se.sics.mspsim.platform.GenericNode;
+
+public class SnapshotTest {
+
+  private static void run(MSP430 cpu, int instructions) {
+    cpu.stepInstructions(instructions);
+  }
+
+  @Test
+  public void restoredNodeContinuesTheSameWay() throws IOException {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    run(cpu, 200000);
+    NodeState saved = new NodeState(cpu);
+    Snapshot snapshot = node.saveState();
+    run(cpu, 300000);
+    NodeState expected = new NodeState(cpu);
+
+    for (int i = 0; i < 2; i++) {
+      node.restoreState(snapshot);
+      saved.assertSame(new NodeState(cpu));
+      run(cpu, 300000);
+      expected.assertSame(new NodeState(cpu));
+    }
+  }
+
+  @Test
+  public void snapshotIsNotChangedByLaterExecution() throws IOException {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    run(cpu, 200000);
+    Snapshot first = node.saveState();
+    NodeState saved = new NodeState(cpu);
+    run(cpu, 300000);
+    Snapshot second = node.saveState();
+    run(cpu, 100000);
+
+    node.restoreState(first);
+    saved.assertSame(new NodeState(cpu));
+    node.restoreState(second);
+    node.restoreState(first);
+    saved.assertSame(new NodeState(cpu));
+  }
+
+  private static String[] pendingEvents(MSP430 cpu) {
+    String[] events = new String[cpu.eventQueue.eventCount];
+    for (int i = 0; i < events.length; i++) {
+      TimeEvent event = cpu.eventQueue.get(i);
+      events[i] = event.getClass().getName() + " " + event.getShort() + " " + event.queueTime;
+    }
+    Arrays.sort(events);
+    return events;
+  }
+
+  @Test
+  public void writtenSnapshotIsRestoredIntoANewNode() throws IOException {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    run(cpu, 200000);
+    NodeState saved = new NodeState(cpu);
+    String[] savedEvents = pendingEvents(cpu);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    node.saveState().write(bytes);
+    run(cpu, 300000);
+    NodeState expected = new NodeState(cpu);
+
+    GenericNode newNode = TestNodes.createSkyNode();
+    MSP430 newCPU = newNode.getCPU();
+    Snapshot snapshot = Snapshot.read(new ByteArrayInputStream(bytes.toByteArray()), newCPU);
+    newNode.restoreState(snapshot);
+    saved.assertSame(new NodeState(newCPU));
+    assertArrayEquals(savedEvents, pendingEvents(newCPU));
+    run(newCPU, 300000);
+    expected.assertSame(new NodeState(newCPU));
+  }
+
+  @Test
+  public void toolEventsStayScheduledOverRestore() throws IOException {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    run(cpu, 200000);
+    Snapshot snapshot = node.saveState();
+    final int[] triggered = new int[1];
+    PeriodicEvent event = new PeriodicEvent(cpu, "test") {
+      protected void trigger(long t) {
+        triggered[0]++;
+      }
+    };
+    event.start(1.0);
+    run(cpu, 100000);
+    int before = triggered[0];
+
+    node.restoreState(snapshot);
+    assertTrue(event.isScheduled());
+    run(cpu, 100000);
+    assertTrue(triggered[0] > before);
+  }
+
+  @Test
+  public void busyWaitSettingIsKeptOverRestore() throws IOException {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    Snapshot snapshot = node.saveState();
+    cpu.setBusyWaitSkip(false);
+    cpu.skippedIterations = 42;
+
+    node.restoreState(snapshot);
+    assertFalse(cpu.isBusyWaitSkip());
+    assertEquals(42, cpu.skippedIterations);
+  }
+
+  @Test
+  public void snapshotWithOtherFieldsIsRejected() throws IOException {
+    GenericNode node = TestNodes.createSkyNode();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    node.saveState().write(bytes);
+    byte[] data = bytes.toByteArray();
+    /* the class table starts with the CPU - its layout follows its name */
+    data[4 + 4 + 8 + 4 + 2 + node.getCPU().getClass().getName().length()] ^= 1;
+    try {
+      Snapshot.read(new ByteArrayInputStream(data), TestNodes.createSkyNode().getCPU());
+      fail("a snapshot with another layout was read");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains(node.getCPU().getClass().getName()));
+    }
+  }
+
+  private static class Payload {
+    int value;
+  }
+
+  private static class PayloadEvent extends TimeEvent {
+    Payload payload = new Payload();
+
+    PayloadEvent() {
+      super(0, "payload");
+    }
+
+    public void execute(long t) {
+      payload.value++;
+    }
+  }
+
+  @Test
+  public void unknownObjectsAreNotSaved() throws IOException {
+    GenericNode node = TestNodes.createSkyNode();
+    MSP430 cpu = node.getCPU();
+    cpu.scheduleTimeEvent(new PayloadEvent(), cpu.cycles + 1000);
+    try {
+      node.saveState();
+      fail("an object of an unknown class was saved");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains(Payload.class.getName()));
+    }
+  }
+
+}
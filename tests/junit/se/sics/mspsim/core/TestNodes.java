@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TestNodes
+ *
+ * Creates the nodes used by the core tests: a sky node running a firmware
+ * image, or a bare MSP430f1611 running a small program in RAM.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import se.sics.mspsim.Main;
+import se.sics.mspsim.cli.CommandHandler;
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.platform.GenericNode;
+import se.sics.mspsim.util.ArgumentManager;
+import se.sics.mspsim.util.ComponentRegistry;
+
+final class TestNodes implements MSP430Constants {
+
+  static final String SKY_FIRMWARE = "firmware/sky/energest-demo.sky";
+
+  /* Programs start at RAM by stopping the watchdog and continue at PROGRAM */
+  static final int RAM = 0x1100;
+  static final int PROGRAM = RAM + 6;
+
+  private TestNodes() {
+  }
+
+  /* Creates a sky node running the energest demo */
+  static GenericNode createSkyNode() throws IOException {
+    GenericNode node = Main.createNode(Main.getNodeTypeByPlatform("sky"));
+    ArgumentManager config = new ArgumentManager();
+    config.handleArguments(new String[] { "-nogui", SKY_FIRMWARE });
+    node.setCommandHandler(new CommandHandler(System.out, System.err));
+    node.loadFirmware(SKY_FIRMWARE);
+    node.setup(config);
+    return node;
+  }
+
+  /* Creates an MSP430f1611 with the PC at RAM. The program words are
+   * loaded at PROGRAM, after an instruction that stops the watchdog. */
+  static MSP430 loadProgram(int... words) {
+    return loadProgram(new ComponentRegistry(), words);
+  }
+
+  /* As above but with components such as a logger already registered */
+  static MSP430 loadProgram(ComponentRegistry registry, int... words) {
+    MSP430 cpu = new MSP430(0, registry, new MSP430f1611Config());
+    load(cpu, RAM,
+        0x40b2, 0x5a80, 0x0120); // mov #WDTPW|WDTHOLD, &WDTCTL
+    load(cpu, PROGRAM, words);
+    cpu.writeRegister(PC, RAM);
+    return cpu;
+  }
+
+  /* The cycle counts, registers and memory of a CPU */
+  static final class NodeState {
+    final long cycles;
+    final long cpuCycles;
+    final int[] reg;
+    final int[] memory;
+
+    NodeState(MSP430 cpu) {
+      cycles = cpu.cycles;
+      cpuCycles = cpu.cpuCycles;
+      reg = cpu.reg.clone();
+      memory = new int[cpu.MAX_MEM];
+      for (int i = 0; i < memory.length; i++) {
+        memory[i] = cpu.peekMemory(i);
+      }
+    }
+
+    void assertSame(NodeState state) {
+      assertEquals(cycles, state.cycles);
+      assertEquals(cpuCycles, state.cpuCycles);
+      assertArrayEquals(reg, state.reg);
+      assertArrayEquals(memory, state.memory);
+    }
+  }
+
+  /* Writes the words to memory and drops any decoded instructions */
+  static void load(MSP430 cpu, int address, int... words) {
+    for (int i = 0; i < words.length; i++) {
+      cpu.memory.set(address + i * 2, words[i], AccessMode.WORD);
+    }
+    cpu.flushInstructionCache();
+  }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TimerFlagTest
+ *
+ * Tests that the timer interrupt flags are brought up to date when read
+ * with the interrupts disabled, the same way as the scheduled events set
+ * them when the interrupts are enabled.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimerFlagTest {
+
+  private static final int TACTL = 0x160;
+  private static final int TACCTL1 = 0x164;
+  private static final int TACCR1 = 0x174;
+
+  // TASSEL_2 (SMCLK) | MC_2 (continuous)
+  private static final int CONTINUOUS = 0x0220;
+  private static final int TACLR = 0x0004;
+  private static final int TAIE = 0x0002;
+  private static final int IFG = 0x0001;
+
+  private static class Node {
+    final MSP430 cpu;
+    final Timer timer;
+    final int ctl;
+    final int cctl;
+
+    Node(boolean interrupts) {
+      cpu = TestNodes.loadProgram(0x3fff); // jmp $
+      cpu.stepInstructions(1);
+      cpu.stepMicros(0, 1);
+      timer = (Timer) cpu.getIOUnit("TimerA");
+      ctl = CONTINUOUS | (interrupts ? TAIE : 0);
+      cctl = interrupts ? Timer.CC_IE : 0;
+      write(TACCR1, 1000);
+      write(TACCTL1, cctl);
+      write(TACTL, ctl | TACLR);
+    }
+
+    int read(int address) {
+      return timer.read(address, true, cpu.cycles);
+    }
+
+    void write(int address, int value) {
+      timer.write(address, value, true, cpu.cycles);
+    }
+
+    void runUntil(long cycles) {
+      while (cpu.cycles < cycles) {
+        cpu.stepMicros(1, 1);
+      }
+    }
+  }
+
+  @Test
+  public void flagsMatchScheduledInterrupts() {
+    Node events = new Node(true);
+    Node polled = new Node(false);
+    int overflows = 0;
+    int compares = 0;
+    for (long cycles = 5000; cycles < 700000; cycles += 7919) {
+      events.runUntil(cycles);
+      polled.runUntil(cycles);
+      assertEquals(events.cpu.cycles, polled.cpu.cycles);
+
+      int ctl = events.read(TACTL) & IFG;
+      assertEquals("TAIFG at " + cycles, ctl, polled.read(TACTL) & IFG);
+      if (ctl != 0) {
+        overflows++;
+        events.write(TACTL, events.ctl);
+        polled.write(TACTL, polled.ctl);
+      }
+
+      int cctl = events.read(TACCTL1) & IFG;
+      assertEquals("CCIFG at " + cycles, cctl, polled.read(TACCTL1) & IFG);
+      if (cctl != 0) {
+        compares++;
+        events.write(TACCTL1, events.cctl);
+        polled.write(TACCTL1, polled.cctl);
+      }
+    }
+    assertTrue(overflows > 5);
+    assertTrue(compares > 5);
+  }
+
+  @Test
+  public void compareFlagIsKeptWhenCompareIsRewritten() {
+    Node events = new Node(true);
+    Node polled = new Node(false);
+    events.write(TACCR1, 1000);
+    polled.write(TACCR1, 1000);
+    events.runUntil(3000);
+    polled.runUntil(3000);
+    events.write(TACCR1, 60000);
+    polled.write(TACCR1, 60000);
+    assertEquals(IFG, events.read(TACCTL1) & IFG);
+    assertEquals(IFG, polled.read(TACCTL1) & IFG);
+  }
+
+  @Test
+  public void compareFlagIsKeptWhenTimerIsStoppedOrReclocked() {
+    Node stopped = new Node(false);
+    stopped.write(TACCR1, 1000);
+    stopped.runUntil(3000);
+    stopped.write(TACTL, 0);
+    assertEquals(IFG, stopped.read(TACCTL1) & IFG);
+
+    Node reclocked = new Node(false);
+    reclocked.write(TACCR1, 1000);
+    reclocked.runUntil(3000);
+    // TASSEL_1 (ACLK) | ID_3 (/8) | MC_2 (continuous)
+    reclocked.write(TACTL, 0x01e0);
+    assertEquals(IFG, reclocked.read(TACCTL1) & IFG);
+  }
+
+}
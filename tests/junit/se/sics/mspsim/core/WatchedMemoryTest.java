@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * WatchedMemoryTest
+ *
+ * Tests which accesses are reported to the monitors of watched ranges.
+ */
+
+package se.sics.mspsim.core;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.config.MSP430f2617Config;
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.Memory.AccessType;
+import se.sics.mspsim.core.MemoryMonitor.WatchType;
+import se.sics.mspsim.util.ComponentRegistry;
+
+public class WatchedMemoryTest {
+
+  private static class Counter extends MemoryMonitor.Adapter {
+    int reads;
+    int writes;
+
+    @Override
+    public void notifyReadBefore(int address, AccessMode mode, AccessType type) {
+      reads++;
+    }
+
+    @Override
+    public void notifyWriteBefore(int address, int data, AccessMode mode) {
+      writes++;
+    }
+  }
+
+  private MSP430 cpu;
+  private Memory memory;
+
+  @Before
+  public void setUp() {
+    cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    memory = cpu.getMemory();
+  }
+
+  private int reads(Counter counter, int address, AccessMode mode) {
+    int before = counter.reads;
+    memory.read(address, mode, AccessType.READ);
+    return counter.reads - before;
+  }
+
+  private int writes(Counter counter, int address, AccessMode mode) {
+    int before = counter.writes;
+    memory.write(address, 0, mode);
+    return counter.writes - before;
+  }
+
+  @Test
+  public void accessesOverlappingTheRangeAreReported() {
+    Counter counter = new Counter();
+    cpu.addWatchRange(0x1200, 0x1204, WatchType.READ_WRITE, counter);
+    assertEquals(0, reads(counter, 0x11ff, AccessMode.BYTE));
+    assertEquals(0, reads(counter, 0x11fe, AccessMode.WORD));
+    assertEquals(1, reads(counter, 0x1200, AccessMode.WORD));
+    assertEquals(1, reads(counter, 0x1203, AccessMode.BYTE));
+    assertEquals(0, reads(counter, 0x1204, AccessMode.BYTE));
+    assertEquals(1, reads(counter, 0x11fe, AccessMode.WORD20));
+    assertEquals(0, reads(counter, 0x11fc, AccessMode.WORD20));
+    assertEquals(1, writes(counter, 0x1202, AccessMode.WORD));
+    assertEquals(0, writes(counter, 0x1204, AccessMode.WORD));
+  }
+
+  @Test
+  public void accessTypeIsFiltered() {
+    Counter reads = new Counter();
+    Counter writes = new Counter();
+    cpu.addWatchRange(0x1200, 0x1210, WatchType.READ, reads);
+    cpu.addWatchRange(0x1208, 0x1220, WatchType.WRITE, writes);
+    assertEquals(0, writes(reads, 0x1200, AccessMode.WORD));
+    assertEquals(1, reads(reads, 0x1200, AccessMode.WORD));
+    assertEquals(0, reads(writes, 0x1208, AccessMode.WORD));
+    assertEquals(1, writes(writes, 0x1208, AccessMode.WORD));
+    assertEquals(0, writes(writes, 0x1206, AccessMode.WORD));
+  }
+
+  @Test
+  public void rangeCanSpanSegments() {
+    Counter counter = new Counter();
+    cpu.addWatchRange(0x12fe, 0x1302, WatchType.READ_WRITE, counter);
+    assertEquals(1, reads(counter, 0x12fe, AccessMode.WORD));
+    assertEquals(1, reads(counter, 0x1300, AccessMode.WORD));
+    assertEquals(0, reads(counter, 0x1302, AccessMode.WORD));
+    assertEquals(0, reads(counter, 0x12fc, AccessMode.WORD));
+  }
+
+  @Test
+  public void accessesFromThePreviousSegmentAreReported() {
+    Counter counter = new Counter();
+    cpu.addWatchRange(0x1300, 0x1302, WatchType.READ_WRITE, counter);
+    assertEquals(1, writes(counter, 0x12ff, AccessMode.WORD));
+    assertEquals(1, writes(counter, 0x12fd, AccessMode.WORD20));
+    assertEquals(1, reads(counter, 0x12ff, AccessMode.WORD));
+    assertEquals(0, writes(counter, 0x12fe, AccessMode.BYTE));
+    assertEquals(0, writes(counter, 0x12fc, AccessMode.WORD20));
+  }
+
+  @Test
+  public void executedAccessesIntoTheNextSegmentAreReported() {
+    MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f2617Config());
+    Counter counter = new Counter();
+    cpu.addWatchRange(0x1300, 0x1302, WatchType.READ_WRITE, counter);
+    TestNodes.load(cpu, 0x1100,
+        0x0560, 0x12fe); // mova r5, &0x012fe
+    cpu.writeRegister(5, 0x12345);
+    cpu.writeRegister(MSP430Constants.PC, 0x1100);
+    cpu.stepInstructions(1);
+    assertEquals(1, counter.writes);
+    assertEquals(0x12345, cpu.memory.get(0x12fe, AccessMode.WORD20));
+  }
+
+  @Test
+  public void removedRangeIsNoLongerReported() {
+    Counter first = new Counter();
+    Counter second = new Counter();
+    cpu.addWatchRange(0x1200, 0x1202, WatchType.READ_WRITE, first);
+    cpu.addWatchRange(0x1280, 0x1282, WatchType.READ_WRITE, second);
+    cpu.removeWatchRange(0x1200, 0x1202, first);
+    assertEquals(0, reads(first, 0x1200, AccessMode.WORD));
+    assertEquals(1, reads(second, 0x1280, AccessMode.WORD));
+    cpu.removeWatchRange(0x1280, 0x1282, second);
+    assertEquals(0, reads(second, 0x1280, AccessMode.WORD));
+  }
+
+  @Test
+  public void watchedValuesAreReadAndWritten() {
+    Counter counter = new Counter();
+    cpu.addWatchRange(0x1200, 0x1202, WatchType.READ_WRITE, counter);
+    memory.write(0x1200, 0xbeef, AccessMode.WORD);
+    assertEquals(0xbeef, memory.read(0x1200, AccessMode.WORD, AccessType.READ));
+    assertEquals(0xbeef, cpu.memory.get(0x1200, AccessMode.WORD));
+  }
+
+}
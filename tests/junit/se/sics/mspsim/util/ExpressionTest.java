@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2007, 2008, 2009, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * ExpressionTest
+ *
+ * Tests the parsing, precedence and operands of breakpoint conditions.
+ */
+
+package se.sics.mspsim.util;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.Memory.AccessMode;
+
+public class ExpressionTest {
+
+  private MSP430 cpu;
+  private MapTable map;
+  private Expression.Context context;
+
+  @Before
+  public void setUp() {
+    cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    map = new MapTable();
+    map.setEntry(new MapEntry(MapEntry.TYPE.variable, 0x1100, 2, "counter", null, false));
+    map.setEntry(new MapEntry(MapEntry.TYPE.variable, 0x1102, 1, "value", null, false));
+    context = new Expression.Context(cpu);
+  }
+
+  private long eval(String source) {
+    return Expression.compile(source, map).evaluate(context);
+  }
+
+  @Test
+  public void precedence() {
+    assertEquals(7, eval("1 + 2 * 3"));
+    assertEquals(9, eval("(1 + 2) * 3"));
+    assertEquals(5, eval("10 - 3 - 2"));
+    assertEquals(8, eval("1 << 2 + 1"));
+    assertEquals(3, eval("1 | 2 & 3"));
+    assertEquals(1, eval("3 > 2 == 1"));
+    assertEquals(-6, eval("-2 * 3"));
+    assertEquals(1, eval("!0 && 5"));
+    assertEquals(1, eval("0 || 0 == 0"));
+    assertEquals(32, eval("$10 + 0x10"));
+  }
+
+  @Test
+  public void registersAndCounters() {
+    cpu.reg[4] = 5;
+    context.hits = 3;
+    context.address = 0x200;
+    assertEquals(10, eval("r4 * 2"));
+    assertEquals(1, eval("hits == 3 && address == 0x200"));
+  }
+
+  @Test
+  public void symbolsAndMemory() {
+    cpu.memory.set(0x1100, 0x1234, AccessMode.WORD);
+    cpu.memory.set(0x1102, 0x56, AccessMode.BYTE);
+    assertEquals(0x1235, eval("counter + 1"));
+    assertEquals(0x1100, eval("&counter"));
+    assertEquals(0x1234, eval("*0x1100"));
+    assertEquals(0x34, eval("byte(&counter)"));
+    assertEquals(0x5612, eval("word(0x1101)"));
+    /* a symbol hides the keyword with the same name */
+    context.value = 1;
+    assertEquals(0x56, eval("value"));
+  }
+
+  @Test
+  public void errors() {
+    String[] invalid = { "1 +", "(1", "1 2", "nosuchsymbol", "&", "0x" };
+    for (String source : invalid) {
+      try {
+        Expression.compile(source, map);
+        fail("compiled '" + source + "'");
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+}